@@ -0,0 +1,281 @@
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/*
+ * The microbenchmarks of the primitives
+ * Measures, in the style of a JMH throughput run with the GC profiler: the Keccak-f permutation, KMACXOF256
+ * over messages from 0 B to 1 GiB (in one array with KMACXOF256_cal and streamed through the sponge),
+ * left_encode and bytepad, and on E521 the point sum, the variable-base and fixed-base (table of G)
+ * multiplications by a scalar and the modular square root.
+ * Each benchmark runs warm-up iterations, then measured iterations of a fixed duration (at least one call
+ * each); the score is calls per second with a 99.9% error margin, plus MB/s for the hashes and, from the
+ * thread allocation counter and the collector beans, the bytes allocated per call, the allocation rate and
+ * the collections. The results are written as JSON in the layout of JMH’s -rf json.
+ * Usage: Microbenchmarks [--filter <text>] [--warmup <n>] [--iterations <n>] [--time <ms>]
+ *                        [--max-size <bytes>] [--json <file>]
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class Microbenchmarks {
+
+    // Message sizes of the KMACXOF256 benchmarks: 0 B, 64 B, 1 KiB, 64 KiB, 1 MiB, 64 MiB, 1 GiB
+    private static final long[] SIZES = {0, 64, 1 << 10, 1 << 16, 1 << 20, 1 << 26, 1 << 30};
+
+    // Piece absorbed at a time by the streamed KMACXOF256
+    private static final int STREAM_BUFFER = 1 << 20;
+
+    // Two-sided 99.9% normal quantile, for the error margin of the score
+    private static final double Z_999 = 3.291;
+
+    // Keeps the results of the measured calls alive, so the JIT cannot drop them
+    static volatile Object sink;
+
+    // One call of a benchmark
+    interface Op {
+        Object run();
+    }
+
+    private final String filter;
+    private final int warmup;
+    private final int iterations;
+    private final long time;
+    private final List<String> results = new ArrayList<>();
+
+    private Microbenchmarks(String filter, int warmup, int iterations, long time) {
+        this.filter = filter;
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.time = time;
+    }
+
+    /**
+     * Run one benchmark, print its line and keep its JSON result.
+     * @param name, the benchmark name
+     * @param params, its parameters (or an empty map)
+     * @param bytes, the message bytes per call, for MB/s (0 for none)
+     * @param op, the call
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    private void run(String name, Map<String, String> params, long bytes, Op op) {
+        String label = name + (params.isEmpty() ? "" : params.toString());
+        if (filter != null && !label.contains(filter)) {
+            return;
+        }
+        for (int i = 0; i < warmup; i++) {
+            iteration(op);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long gcCount = gcCount();
+        long gcTime = gcTime();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        double[] scores = new double[iterations];
+        long calls = 0;
+        long nanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            long[] it = iteration(op);
+            calls += it[0];
+            nanos += it[1];
+            scores[i] = it[0] * 1e9 / it[1];
+        }
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        gcCount = gcCount() - gcCount;
+        gcTime = gcTime() - gcTime;
+
+        double mean = 0;
+        for (double s : scores) {
+            mean += s;
+        }
+        mean /= scores.length;
+        double var = 0;
+        for (double s : scores) {
+            var += (s - mean) * (s - mean);
+        }
+        double error = scores.length > 1 ? Z_999 * Math.sqrt(var / (scores.length - 1)) / Math.sqrt(scores.length) : Double.NaN;
+
+        // secondary metric -> {score, unit}
+        Map<String, Object[]> secondary = new LinkedHashMap<>();
+        if (bytes > 0) {
+            secondary.put("throughput", new Object[] {mean * bytes / 1e6, "MB/s"});
+        }
+        secondary.put("gc.alloc.rate.norm", new Object[] {(double) allocated / calls, "B/op"});
+        secondary.put("gc.alloc.rate", new Object[] {allocated / 1e6 / (nanos / 1e9), "MB/sec"});
+        secondary.put("gc.count", new Object[] {(double) gcCount, "counts"});
+        secondary.put("gc.time", new Object[] {(double) gcTime, "ms"});
+
+        System.out.printf("%-48s %14.3f ± %10.3f ops/s %12.1f B/op%s%n", label, mean, error, (double) allocated / calls,
+                bytes > 0 ? String.format(" %10.2f MB/s", mean * bytes / 1e6) : "");
+        results.add(json(name, params, mean, error, scores, secondary));
+    }
+
+    // Call op until the iteration time is spent (at least once): {calls, nanoseconds}
+    private long[] iteration(Op op) {
+        long calls = 0;
+        long start = System.nanoTime();
+        long end = start + time * 1_000_000L;
+        long now;
+        do {
+            sink = op.run();
+            calls++;
+            now = System.nanoTime();
+        } while (now < end);
+        return new long[] {calls, now - start};
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long ms = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ms += Math.max(0, gc.getCollectionTime());
+        }
+        return ms;
+    }
+
+    // One result in the layout of JMH’s JSON output
+    private static String json(String name, Map<String, String> params, double score, double error, double[] raw,
+                               Map<String, Object[]> secondary) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("  {\n    \"benchmark\" : \"").append(name).append("\",\n    \"mode\" : \"thrpt\",\n");
+        if (!params.isEmpty()) {
+            sb.append("    \"params\" : {");
+            String sep = " ";
+            for (Map.Entry<String, String> e : params.entrySet()) {
+                sb.append(sep).append('"').append(e.getKey()).append("\" : \"").append(e.getValue()).append('"');
+                sep = ", ";
+            }
+            sb.append(" },\n");
+        }
+        sb.append("    \"primaryMetric\" : { \"score\" : ").append(number(score))
+                .append(", \"scoreError\" : ").append(number(error))
+                .append(", \"scoreUnit\" : \"ops/s\", \"rawData\" : [ [");
+        for (int i = 0; i < raw.length; i++) {
+            sb.append(i == 0 ? " " : ", ").append(number(raw[i]));
+        }
+        sb.append(" ] ] },\n    \"secondaryMetrics\" : {");
+        String sep = "\n";
+        for (Map.Entry<String, Object[]> e : secondary.entrySet()) {
+            sb.append(sep).append("      \"").append(e.getKey()).append("\" : { \"score\" : ").append(number((Double) e.getValue()[0]))
+                    .append(", \"scoreUnit\" : \"").append(e.getValue()[1]).append("\" }");
+            sep = ",\n";
+        }
+        sb.append("\n    }\n  }");
+        return sb.toString();
+    }
+
+    private static String number(double d) {
+        return Double.isNaN(d) || Double.isInfinite(d) ? "\"NaN\"" : String.valueOf(d);
+    }
+
+    private static Map<String, String> param(String key, Object value) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put(key, String.valueOf(value));
+        return params;
+    }
+
+    /////////////////////////////////////////////////////////
+    ////////////////////// Benchmarks ///////////////////////
+    /////////////////////////////////////////////////////////
+
+    private void sha3(long maxSize) {
+        Sha3 permutation = new Sha3(32);
+        run("Sha3.sha3_keccakf", new LinkedHashMap<>(), 0, () -> {
+            permutation.permute();
+            return permutation;
+        });
+
+        byte[] key = "benchmark key".getBytes(StandardCharsets.UTF_8);
+        byte[] S = "D".getBytes();
+        byte[] buffer = new byte[STREAM_BUFFER];
+        new Random(1).nextBytes(buffer);
+        // KMACXOF256_cal copies X once more, so its message must fit twice in what is left of the heap
+        long heap = Runtime.getRuntime().maxMemory();
+        for (long size : SIZES) {
+            if (size > maxSize) {
+                continue;
+            }
+            if (3 * size < heap) {
+                byte[] m = new byte[(int) size];
+                new Random(size).nextBytes(m);
+                run("KMACXOF256.KMACXOF256_cal", param("size", size), size,
+                        () -> KMACXOF256.KMACXOF256_cal(key, m, 512, S));
+            } else {
+                System.out.println("KMACXOF256.KMACXOF256_cal{size=" + size + "} skipped: needs a heap over " + 3 * size + " bytes");
+            }
+            run("KMACXOF256.KMACXOF256_stream", param("size", size), size, () -> {
+                Sha3 sha = KMACXOF256.KMACXOF256_init(key, S);
+                for (long done = 0; done < size; done += STREAM_BUFFER) {
+                    sha.SHAKE256_update(buffer, 0, (int) Math.min(STREAM_BUFFER, size - done));
+                }
+                return KMACXOF256.KMACXOF256_final(sha, 512);
+            });
+        }
+
+        run("KMACXOF256.left_encode", new LinkedHashMap<>(), 0, () -> KMACXOF256.left_encode(4096));
+        byte[] encodedKey = KMACXOF256.encode_string(new byte[32]);
+        run("KMACXOF256.bytepad", new LinkedHashMap<>(), 0, () -> KMACXOF256.bytepad(encodedKey, 136));
+    }
+
+    private void ellipticCurve() {
+        Random random = new Random(2);
+        BigInteger k = new BigInteger(512, random).shiftLeft(2);
+        EllipticCurve G = new EllipticCurve(BigInteger.valueOf(4));
+        EllipticCurve P = G.mulByScalar(new BigInteger(512, random));
+        EllipticCurve Q = G.mulByScalar(new BigInteger(512, random));
+
+        run("EllipticCurve.sum", new LinkedHashMap<>(), 0, () -> P.sum(Q));
+        run("EllipticCurve.mulByScalar", param("base", "variable"), 0, () -> P.mulByScalar(k));
+        CryptoService.mulG(BigInteger.ONE); // builds the table of G outside the measurement
+        run("EllipticCurve.mulByScalar", param("base", "fixed"), 0, () -> CryptoService.mulG(k));
+
+        BigInteger y = P.getY();
+        BigInteger v = y.multiply(y).mod(EllipticCurve.p);
+        boolean lsb = y.testBit(0);
+        run("EllipticCurve.sqrt", new LinkedHashMap<>(), 0, () -> EllipticCurve.sqrt(v, EllipticCurve.p, lsb));
+    }
+
+    // Use to run the benchmarks from the command line: see the usage above
+    public static void main(String[] args) throws IOException {
+        String filter = null;
+        int warmup = 3;
+        int iterations = 5;
+        long time = 1000;
+        long maxSize = SIZES[SIZES.length - 1];
+        String json = "microbenchmarks.json";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--filter": filter = args[i + 1]; break;
+                case "--warmup": warmup = Integer.parseInt(args[i + 1]); break;
+                case "--iterations": iterations = Math.max(1, Integer.parseInt(args[i + 1])); break;
+                case "--time": time = Long.parseLong(args[i + 1]); break;
+                case "--max-size": maxSize = Long.parseLong(args[i + 1]); break;
+                case "--json": json = args[i + 1]; break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        Microbenchmarks bench = new Microbenchmarks(filter, warmup, iterations, time);
+        bench.sha3(maxSize);
+        bench.ellipticCurve();
+        Files.write(Paths.get(json), ("[\n" + String.join(",\n", bench.results) + "\n]\n").getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written to " + json);
+    }
+}
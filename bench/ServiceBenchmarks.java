@@ -0,0 +1,394 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/*
+ * The end-to-end benchmark of the application services
+ * Generates deterministic synthetic corpora (many small files and a few large ones, each as incompressible
+ * random bytes and as compressible text), then runs every service the way the application does, with its
+ * I/O, hex-line file formats and key parsing but without the file dialogs: hash (1), MAC (5), symmetric
+ * encrypt/decrypt (3, 4), elliptic encrypt/decrypt (7, 8), sign (11) and verify (12).
+ * For each corpus and service it reports MB/s, files per second, the p50 and p99 latency per file, the peak
+ * heap and the GC time. The results can be saved as a baseline (a properties file) and compared with one:
+ * the run fails (exit code 1) when MB/s drops, or the p99 latency grows, by more than the threshold.
+ * Usage: ServiceBenchmarks [--corpus <directory>] [--small <count>] [--large <count>] [--large-size <MiB>]
+ *                          [--warmup <passes>] [--filter <text>] [--sequential] [--baseline <file>]
+ *                          [--threshold <percent>] [--save-baseline <file>]
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class ServiceBenchmarks {
+
+    // Seed of every corpus, so all runs measure the same bytes
+    private static final long SEED = 487;
+
+    // Sizes of the small files: 1 KiB to 64 KiB
+    private static final int SMALL_MIN = 1 << 10;
+    private static final int SMALL_MAX = 1 << 16;
+
+    private static final byte[] PASSPHRASE = "benchmark passphrase".getBytes();
+
+    // Words of the compressible text corpora
+    private static final String[] WORDS = ("the of and to in is that for it as with was on be by this are or from at which "
+            + "elliptic curve hash passphrase cryptogram signature key sponge keccak message file digest public private")
+            .split(" ");
+
+    // One service run on one file of a corpus, writing its output under the work directory
+    interface Service {
+        void run(Path file, Path work) throws IOException;
+    }
+
+    private final CryptoService service;
+    private final Path keyFile;
+
+    private ServiceBenchmarks(CryptoService service, Path keyFile) {
+        this.service = service;
+        this.keyFile = keyFile;
+    }
+
+    /////////////////////////////////////////////////////////
+    ///////////////////////// Corpora ///////////////////////
+    /////////////////////////////////////////////////////////
+
+    /**
+     * Create a corpus unless it is already there: count files of sizes in [min, max], random or text.
+     * @param dir, the corpus directory
+     * @param count, the number of files
+     * @param min, the smallest size in bytes
+     * @param max, the largest size in bytes
+     * @param text, true for compressible text, false for random bytes
+     * @return the files, in order
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    static List<Path> corpus(Path dir, int count, long min, long max, boolean text) throws IOException {
+        Path done = dir.resolve(".complete");
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            files.add(dir.resolve(String.format("%05d.%s", i, text ? "txt" : "bin")));
+        }
+        if (Files.exists(done)) {
+            return files;
+        }
+        Files.createDirectories(dir);
+        Random random = new Random(SEED ^ dir.getFileName().toString().hashCode());
+        byte[] buf = new byte[1 << 20];
+        for (Path file : files) {
+            long size = min + (max > min ? (long) (random.nextDouble() * (max - min)) : 0);
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (long written = 0; written < size; ) {
+                    int n = (int) Math.min(buf.length, size - written);
+                    if (text) {
+                        fillText(random, buf, n);
+                    } else {
+                        random.nextBytes(buf);
+                    }
+                    out.write(buf, 0, n);
+                    written += n;
+                }
+            }
+        }
+        Files.createFile(done);
+        return files;
+    }
+
+    // Words and line breaks, which compress several times over
+    private static void fillText(Random random, byte[] buf, int n) {
+        int i = 0;
+        while (i < n) {
+            byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes(StandardCharsets.US_ASCII);
+            for (int j = 0; j < word.length && i < n; j++) {
+                buf[i++] = word[j];
+            }
+            if (i < n) {
+                buf[i++] = (byte) (random.nextInt(12) == 0 ? '\n' : ' ');
+            }
+        }
+    }
+
+    /////////////////////////////////////////////////////////
+    //////////////////////// Services ///////////////////////
+    /////////////////////////////////////////////////////////
+
+    // Output file of a service for an input file
+    private static Path out(Path work, Path file, String extension) {
+        return work.resolve(file.getFileName() + extension);
+    }
+
+    // Write byte arrays as the application does: one hex line each
+    private static void writeLines(Path file, byte[]... lines) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (byte[] line : lines) {
+            sb.append(CryptoService.toHex(line)).append('\n');
+        }
+        Files.write(file, sb.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[][] readLines(Path file) throws IOException {
+        List<String> lines = BulkProcessor.readLines(file);
+        byte[][] bytes = new byte[lines.size()][];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = CryptoService.fromHex(lines.get(i));
+        }
+        return bytes;
+    }
+
+    private EllipticCurve readKey() throws IOException {
+        byte[][] key = readLines(keyFile);
+        return new EllipticCurve(new BigInteger(key[0]), new BigInteger(key[1]));
+    }
+
+    // The services, in an order where each one finds the outputs it needs from the ones before
+    private String[] names() {
+        return new String[] {"hash", "mac", "encrypt-symmetric", "decrypt-symmetric", "encrypt-elliptic",
+                "decrypt-elliptic", "sign", "verify"};
+    }
+
+    private Service service(String name) {
+        switch (name) {
+            case "hash":
+                return (file, work) -> writeLines(out(work, file, ".hash"), service.hash(file));
+            case "mac":
+                return (file, work) -> writeLines(out(work, file, ".mac"), service.mac(PASSPHRASE, file));
+            case "encrypt-symmetric":
+                return (file, work) -> writeLines(out(work, file, ".sym"), service.encryptSymmetric(PASSPHRASE, Files.readAllBytes(file)));
+            case "decrypt-symmetric":
+                return (file, work) -> {
+                    byte[] m = service.decryptSymmetric(PASSPHRASE, readLines(out(work, file, ".sym")));
+                    check(m != null, file, name);
+                    Files.write(out(work, file, ".sym.out"), m);
+                };
+            case "encrypt-elliptic":
+                return (file, work) -> writeLines(out(work, file, ".ecies"), service.encrypt(readKey(), file));
+            case "decrypt-elliptic":
+                return (file, work) -> {
+                    byte[] m = service.decrypt(PASSPHRASE, readLines(out(work, file, ".ecies")));
+                    check(m != null, file, name);
+                    Files.write(out(work, file, ".ecies.out"), m);
+                };
+            case "sign":
+                return (file, work) -> writeLines(out(work, file, ".sig"), service.sign(PASSPHRASE, file));
+            case "verify":
+                return (file, work) -> check(service.verify(readKey(), readLines(out(work, file, ".sig")), file), file, name);
+            default:
+                throw new IllegalArgumentException("Unknown service " + name);
+        }
+    }
+
+    // A benchmark that quietly measures a broken service would be worse than none
+    private static void check(boolean ok, Path file, String name) {
+        if (!ok) {
+            throw new IllegalStateException(name + " failed on " + file);
+        }
+    }
+
+    /////////////////////////////////////////////////////////
+    /////////////////////// Measurement /////////////////////
+    /////////////////////////////////////////////////////////
+
+    /**
+     * Run a service over a corpus: warm-up passes, then one measured pass.
+     * @param service, the service
+     * @param files, the corpus
+     * @param work, the directory of the outputs
+     * @param warmup, the number of warm-up passes
+     * @return MB/s, files/s, p50 ms, p99 ms, peak heap MB, GC ms
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    static double[] measure(Service service, List<Path> files, Path work, int warmup) throws IOException {
+        for (int i = 0; i < warmup; i++) {
+            for (Path file : files) {
+                service.run(file, work);
+            }
+        }
+        System.gc();
+        List<MemoryPoolMXBean> heap = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heap.add(pool);
+            }
+        }
+        long gc = gcTime();
+        long bytes = 0;
+        long[] latency = new long[files.size()];
+        long start = System.nanoTime();
+        for (int i = 0; i < latency.length; i++) {
+            long t = System.nanoTime();
+            service.run(files.get(i), work);
+            latency[i] = System.nanoTime() - t;
+            bytes += Files.size(files.get(i));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        gc = gcTime() - gc;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heap) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        Arrays.sort(latency);
+        return new double[] {bytes / 1e6 / seconds, latency.length / seconds, percentile(latency, 0.50) / 1e6,
+                percentile(latency, 0.99) / 1e6, peak / 1e6, gc};
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+
+    private static long gcTime() {
+        long ms = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ms += Math.max(0, gc.getCollectionTime());
+        }
+        return ms;
+    }
+
+    /////////////////////////////////////////////////////////
+    ///////////////////////// Baseline //////////////////////
+    /////////////////////////////////////////////////////////
+
+    private static final String[] METRICS = {"MBps", "opsps", "p50ms", "p99ms", "peakHeapMB", "gcMs"};
+
+    /**
+     * Compare a result with its baseline: MB/s may not drop, nor the p99 latency grow, beyond the threshold.
+     * @param key, the corpus and service
+     * @param result, the measured metrics
+     * @param baseline, the baseline (entries key.metric)
+     * @param threshold, the tolerated change, e.g. 0.10
+     * @return the regressions found, as readable lines
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    static List<String> regressions(String key, double[] result, Properties baseline, double threshold) {
+        List<String> found = new ArrayList<>();
+        String mbps = baseline.getProperty(key + ".MBps");
+        if (mbps != null && result[0] < Double.parseDouble(mbps) * (1 - threshold)) {
+            found.add(String.format("%s: %.2f MB/s, baseline %s MB/s", key, result[0], mbps));
+        }
+        String p99 = baseline.getProperty(key + ".p99ms");
+        if (p99 != null && result[3] > Double.parseDouble(p99) * (1 + threshold)) {
+            found.add(String.format("%s: p99 %.3f ms, baseline %s ms", key, result[3], p99));
+        }
+        return found;
+    }
+
+    // Remove the outputs of a run; the corpora stay for the next one
+    private static void deleteTree(Path dir) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.forEach(paths::add);
+        }
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            Files.delete(paths.get(i));
+        }
+    }
+
+    // Use to run the benchmark from the command line: see the usage above
+    public static void main(String[] args) throws IOException {
+        Path root = Paths.get(System.getProperty("java.io.tmpdir"), "service-benchmarks");
+        int small = 1000;
+        int large = 2;
+        long largeSize = 64L << 20;
+        int warmup = 1;
+        String filter = null;
+        boolean sequential = false;
+        Path baselineFile = null;
+        Path saveFile = null;
+        double threshold = 0.10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--corpus": root = Paths.get(args[++i]); break;
+                case "--small": small = Integer.parseInt(args[++i]); break;
+                case "--large": large = Integer.parseInt(args[++i]); break;
+                case "--large-size": largeSize = (long) (Double.parseDouble(args[++i]) * (1 << 20)); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--filter": filter = args[++i]; break;
+                case "--sequential": sequential = true; break;
+                case "--baseline": baselineFile = Paths.get(args[++i]); break;
+                case "--threshold": threshold = Double.parseDouble(args[++i]) / 100; break;
+                case "--save-baseline": saveFile = Paths.get(args[++i]); break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        // the corpus directories carry their shape, so a changed option never reuses stale files
+        String[] corpusNames = {"small-random", "small-text", "large-random", "large-text"};
+        List<List<Path>> corpora = new ArrayList<>();
+        corpora.add(corpus(root.resolve("small-random-" + small), small, SMALL_MIN, SMALL_MAX, false));
+        corpora.add(corpus(root.resolve("small-text-" + small), small, SMALL_MIN, SMALL_MAX, true));
+        corpora.add(corpus(root.resolve("large-random-" + large + "x" + largeSize), large, largeSize, largeSize, false));
+        corpora.add(corpus(root.resolve("large-text-" + large + "x" + largeSize), large, largeSize, largeSize, true));
+
+        CryptoService service = sequential ? CryptoService.sequential() : new CryptoService();
+        Path work = Files.createTempDirectory("service-benchmarks-work");
+        Path keyFile = work.resolve("public.key");
+        EllipticCurve V = service.publicKey(PASSPHRASE);
+        writeLines(keyFile, V.getX().toByteArray(), V.getY().toByteArray());
+        ServiceBenchmarks bench = new ServiceBenchmarks(service, keyFile);
+
+        Properties baseline = new Properties();
+        if (baselineFile != null) {
+            try (InputStream in = Files.newInputStream(baselineFile)) {
+                baseline.load(in);
+            }
+        }
+        Properties results = new Properties();
+        List<String> regressions = new ArrayList<>();
+        System.out.printf("%-32s %10s %10s %10s %10s %12s %8s%n", "corpus.service", "MB/s", "files/s", "p50 ms", "p99 ms",
+                "peak heap MB", "GC ms");
+        for (int c = 0; c < corpora.size(); c++) {
+            Path dir = Files.createDirectories(work.resolve(corpusNames[c]));
+            for (String name : bench.names()) {
+                String key = corpusNames[c] + "." + name;
+                if (filter != null && !key.contains(filter) && !name.startsWith("encrypt") && !name.equals("sign")) {
+                    continue;
+                }
+                double[] result = measure(bench.service(name), corpora.get(c), dir, warmup);
+                if (filter != null && !key.contains(filter)) {
+                    continue; // ran only to produce the inputs of a filtered service
+                }
+                System.out.printf("%-32s %10.2f %10.1f %10.3f %10.3f %12.1f %8.0f%n", key, result[0], result[1], result[2],
+                        result[3], result[4], result[5]);
+                for (int m = 0; m < METRICS.length; m++) {
+                    results.setProperty(key + "." + METRICS[m], String.valueOf(result[m]));
+                }
+                regressions.addAll(regressions(key, result, baseline, threshold));
+            }
+        }
+
+        deleteTree(work);
+
+        if (saveFile != null) {
+            try (OutputStream out = Files.newOutputStream(saveFile)) {
+                results.store(out, "ServiceBenchmarks baseline" + (sequential ? " (sequential)" : ""));
+            }
+            System.out.println("Baseline saved to " + saveFile);
+        }
+        if (!regressions.isEmpty()) {
+            System.out.println("Regressions beyond " + Math.round(threshold * 100) + "%:");
+            for (String r : regressions) {
+                System.out.println("\t" + r);
+            }
+            System.exit(1);
+        }
+        if (baselineFile != null) {
+            System.out.println("No regression beyond " + Math.round(threshold * 100) + "% against " + baselineFile);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * The cold-start benchmark of the command-line launch path
+ * Starts a fresh JVM per run on the application jar for a few short headless subcommands (hash of a small
+ * file, keygen of one identity, keyring list) and reports the time to the first byte of output and to the
+ * exit, median and minimum over the runs, for each launch profile: the JDK's default class-data sharing,
+ * the AppCDS archive built by bench/appcds.sh, and, for comparison, a jar of an older build (--baseline-jar).
+ * Usage: StartupBenchmark --jar <cryptoapp.jar> [--archive <cryptoapp.jsa>] [--baseline-jar <jar>] [--runs <n>]
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class StartupBenchmark {
+
+    // One launch profile: a jar and the JVM options that go with it
+    private static final class Profile {
+        final String name;
+        final Path jar;
+        final List<String> options;
+
+        Profile(String name, Path jar, String... options) {
+            this.name = name;
+            this.jar = jar;
+            this.options = Arrays.asList(options);
+        }
+    }
+
+    /**
+     * Start the subcommand once, in a new JVM.
+     * @param profile, the launch profile
+     * @param command, the subcommand and its arguments
+     * @param work, the working directory of the run
+     * @return {milliseconds to the first output byte, milliseconds to the exit}
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    static double[] launch(Profile profile, List<String> command, Path work) throws IOException, InterruptedException {
+        List<String> line = new ArrayList<>();
+        line.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        line.addAll(profile.options);
+        line.add("-Dcrypto.keyring=" + work.resolve("keyring"));
+        line.add("-jar");
+        line.add(profile.jar.toString());
+        line.addAll(command);
+        ProcessBuilder builder = new ProcessBuilder(line).directory(work.toFile())
+                .redirectInput(ProcessBuilder.Redirect.from(new java.io.File("/dev/null")))
+                .redirectError(ProcessBuilder.Redirect.DISCARD);
+        long start = System.nanoTime();
+        Process process = builder.start();
+        long first;
+        try (InputStream out = process.getInputStream()) {
+            out.read();
+            first = System.nanoTime();
+            out.transferTo(java.io.OutputStream.nullOutputStream());
+        }
+        int exit = process.waitFor();
+        long end = System.nanoTime();
+        if (exit != 0) {
+            throw new IOException(profile.name + ": " + String.join(" ", command) + " exited with " + exit);
+        }
+        return new double[] {(first - start) / 1e6, (end - start) / 1e6};
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        return n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+    }
+
+    // Use to run the benchmark from the command line: see the usage above
+    public static void main(String[] args) throws Exception {
+        Path jar = null;
+        Path archive = null;
+        Path baselineJar = null;
+        int runs = 10;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--jar":
+                    jar = Paths.get(args[i + 1]).toAbsolutePath();
+                    break;
+                case "--archive":
+                    archive = Paths.get(args[i + 1]).toAbsolutePath();
+                    break;
+                case "--baseline-jar":
+                    baselineJar = Paths.get(args[i + 1]).toAbsolutePath();
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if (jar == null) {
+            System.out.println("Usage: StartupBenchmark --jar <cryptoapp.jar> [--archive <cryptoapp.jsa>]"
+                    + " [--baseline-jar <jar>] [--runs <n>]");
+            System.exit(2);
+        }
+
+        List<Profile> profiles = new ArrayList<>();
+        if (baselineJar != null) {
+            profiles.add(new Profile("baseline", baselineJar));
+        }
+        profiles.add(new Profile("default CDS", jar));
+        if (archive != null) {
+            profiles.add(new Profile("AppCDS", jar, "-XX:SharedArchiveFile=" + archive, "-Xshare:auto"));
+        }
+
+        Path work = Files.createTempDirectory("startup");
+        Files.write(work.resolve("small.txt"), "a short file to hash\n".getBytes(StandardCharsets.US_ASCII));
+        Files.write(work.resolve("identity"), "startup\tstartup benchmark passphrase\n".getBytes(StandardCharsets.US_ASCII));
+        List<List<String>> commands = Arrays.asList(
+                Arrays.asList("hash", "small.txt", "--checkpoint", "checkpoint"),
+                Arrays.asList("keygen", "identity", "--out", "keys"),
+                Arrays.asList("keyring", "list"));
+
+        // the keyring that keyring list reads
+        launch(profiles.get(profiles.size() - 1), Arrays.asList("keygen", "identity", "--keyring", "keyring"), work);
+
+        System.out.printf("%-14s %-12s %14s %14s %14s %14s%n", "command", "profile", "first out p50", "first out min",
+                "exit p50", "exit min");
+        for (List<String> command : commands) {
+            for (Profile profile : profiles) {
+                launch(profile, command, work); // warms the page cache, not the JVM
+                double[] first = new double[runs];
+                double[] exit = new double[runs];
+                for (int r = 0; r < runs; r++) {
+                    Files.deleteIfExists(work.resolve("keys").resolve("startup"));
+                    double[] t = launch(profile, command, work);
+                    first[r] = t[0];
+                    exit[r] = t[1];
+                }
+                System.out.printf("%-14s %-12s %11.1f ms %11.1f ms %11.1f ms %11.1f ms%n", command.get(0), profile.name,
+                        median(first), Arrays.stream(first).min().getAsDouble(), median(exit),
+                        Arrays.stream(exit).min().getAsDouble());
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+#!/bin/sh
+# Build the application jar and its AppCDS (class-data sharing) archive.
+# A few training runs of the headless subcommands record the classes they load; the JVM then dumps those
+# classes, already parsed and verified, into cryptoapp.jsa, which later runs map instead of loading each class.
+# Run it from the project directory, with the JDK that will run the application (an archive only fits its JDK):
+#     sh bench/appcds.sh [output directory, default out]
+#     java -XX:SharedArchiveFile=out/cryptoapp.jsa -jar out/cryptoapp.jar <subcommand> ...
+# Rebuild the archive whenever the sources or the JDK change; a stale archive is ignored, with a warning.
+set -e
+
+OUT=${1:-out}
+mkdir -p "$OUT/classes"
+javac -encoding UTF-8 -d "$OUT/classes" src/*.java
+jar --create --file "$OUT/cryptoapp.jar" --main-class AppLauncher -C "$OUT/classes" .
+
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+mkdir "$WORK/in"
+head -c 1048576 /dev/urandom > "$WORK/in/random.bin"
+seq 1 20000 > "$WORK/in/lines.txt"
+printf 'train-1\tfirst training passphrase\ntrain-2\tsecond training passphrase\n' > "$WORK/identities"
+
+# One class list per training run
+train() {
+    name=$1
+    shift
+    java -XX:DumpLoadedClassList="$WORK/$name.classlist" -Dcrypto.keyring="$WORK/keyring" \
+        -cp "$OUT/cryptoapp.jar" AppLauncher "$@" < /dev/null > /dev/null
+}
+train hash hash "$WORK/in/random.bin" --checkpoint "$WORK/checkpoint"
+train keygen keygen "$WORK/identities" --out "$WORK/keys"
+train keyring keyring import "$WORK/keys"
+train list keyring list
+train bulk-hash bulk hash "$WORK/in" "$WORK/hash.manifest"
+train bulk-mac bulk mac "$WORK/in" "$WORK/mac.manifest" --pw training
+train bulk-encrypt bulk encrypt "$WORK/in" "$WORK/encrypt.manifest" --key "$WORK/keys/train-1" --out "$WORK/out" --compress
+
+# Merge the lists, keeping the first occurrence of each line in order, and dump the archive
+awk '!seen[$0]++' "$WORK"/*.classlist > "$OUT/cryptoapp.classlist"
+java -Xshare:dump -XX:SharedClassListFile="$OUT/cryptoapp.classlist" -XX:SharedArchiveFile="$OUT/cryptoapp.jsa" \
+    -cp "$OUT/cryptoapp.jar" > "$OUT/cryptoapp.dump.log"
+echo "Archive written to $OUT/cryptoapp.jsa"
+echo "Run: java -XX:SharedArchiveFile=$OUT/cryptoapp.jsa -jar $OUT/cryptoapp.jar <subcommand> ..."
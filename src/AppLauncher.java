@@ -1,5 +1,10 @@
+import java.util.Arrays;
+
 /*
  * The Application Launcher
+ * With no arguments it opens the interactive application; "bulk ..." runs the bulk directory mode,
+ * "hash ..." the resumable hash of a large file, "daemon ..." the crypto daemon, "client ..." its thin client
+ * "keyring ..." the keyring tool and "keygen ..." the bulk key generation.
  * @author Kannika Armstrong, and Sam Viet Huynh
  * @version Spring 2022
  */
@@ -7,7 +12,31 @@
 public class AppLauncher {
 
     // Use to launch the application
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("bulk")) {
+            BulkProcessor.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("hash")) {
+            ResumableHash.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("daemon")) {
+            CryptoDaemon.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("client")) {
+            CryptoClient.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("keyring")) {
+            Keyring.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("keygen")) {
+            BulkKeygen.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         new Application();
     }
 }
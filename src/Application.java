@@ -1,9 +1,11 @@
-import javax.swing.*;
-import java.awt.*;
+import java.awt.FileDialog;
+import java.awt.Frame;
+import java.awt.GraphicsEnvironment;
 import java.io.*;
 import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Random;
 import java.util.Scanner;
 
 /*
@@ -17,6 +19,21 @@ public class Application {
     static Scanner input = new Scanner(System.in);
     private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
 
+    // Signature format flag, written as the first line of a prehashed signature file
+    private static final String PREHASH_SIGNATURE = "SCHNORR-PREHASH-V1";
+
+    // Format number of the compressed cryptogram, the last option of services 3 and 7
+    private static final int COMPRESSED = 5;
+
+    // The cryptographic flows of the services
+    private static final CryptoService service = new CryptoService();
+
+    // The keyring of services 7 and 12, see keyring()
+    private static Keyring keyring;
+
+    // Owner of the file dialogs, created with the first one; none on a headless JVM, which asks for paths instead
+    private static Frame dialogOwner;
+
     public Application() {
         appPrompt();
     }
@@ -38,12 +55,12 @@ public class Application {
             System.out.println("\t5. Compute an authentication tag (MAC) of a given file under a given passphrase: Extra Credit");
             System.out.println("\n***************************************** Part 2 services ******************************************\n");
             System.out.println("\t6. Generate an elliptic key pair file from a given passphrase");
-            System.out.println("\t7. Encrypt a data file under a given elliptic public key file");
+            System.out.println("\t7. Encrypt a data file under a given elliptic public key file (or keyring entry)");
             System.out.println("\t8. Decrypt a given elliptic-encrypted file from a given password");
             System.out.println("\t9. Encrypt text input under a given elliptic public key: Extra Credit");
             System.out.println("\t10. Decrypt an elliptic-encrypted text input from a given password: Extra Credit");
             System.out.println("\t11. Sign a given file from a given password");
-            System.out.println("\t12. Verify a given data file and its signature file under a given public key file");
+            System.out.println("\t12. Verify a given data file and its signature file under a given public key file (or keyring entry)");
             System.out.println("\n****************************************************************************************************");
             System.out.println("\t13. Exit");
             System.out.println("****************************************************************************************************");
@@ -120,17 +137,40 @@ public class Application {
      * Service 1
      * Compute a plain cryptographic hash of a given file
      * h <- KMACXOF256(“”, m, 512, “D”)
+     * or, in the multi-core mode, h <- ParallelHash256(m, 8192, 512, “D”)
+     * or, in the fast mode, h <- KT128(m, “D”, 512) on the 12-round permutation
      * @author Kannika Armstrong
      */
     private static void hashFileInput() {
         System.out.println("Service 1: Compute a plain cryptographic hash of a given file.\n");
         System.out.println("Please select the input file.");
-        byte[] filename = openFile();
-        if (filename == null) {
+        File file = openFilePath();
+        if (file == null) {
             System.out.println("\nYou did not select any file.\n");
         } else {
-            // h = KMACXOF256(“”, m, 512, “D”)
-            byte[] h = KMACXOF256.KMACXOF256_cal("".getBytes(), filename, 512, "D".getBytes());
+            int mode = selectHashMode();
+            byte[] h;
+            try {
+                if (mode >= 4) {
+                    // h = Merkle tree root of 1 MiB KMACXOF256 leaves; mode 5 re-hashes only the changed blocks
+                    MerkleHash tree = new MerkleHash(file.toPath(), MerkleHash.BLOCK_SIZE);
+                    h = tree.hash(mode == 5);
+                    System.out.println("Re-hashed " + tree.rehashedCount() + " of " + tree.blockCount()
+                            + " blocks (index: " + file.getName() + ".merkle)");
+                } else if (mode == 3) {
+                    // h = KT128(m, “D”, 512), streamed from the file
+                    h = KangarooTwelve.KT128_file(file, "D".getBytes(), 512);
+                } else if (mode == 2) {
+                    // h = ParallelHash256(m, 8192, 512, “D”), streamed from the file
+                    h = KMACXOF256.ParallelHash256_file(file, KMACXOF256.PARALLEL_HASH_BLOCK, 512, "D".getBytes(), false);
+                } else {
+                    // h = KMACXOF256(“”, m, 512, “D”), streamed from the file
+                    h = service.hash(file.toPath());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
 
             String outputFile = saveFile(h, true);
             System.out.println("****************************************** Result *******************************************\n");
@@ -157,7 +197,7 @@ public class Application {
         byte[] inputText = text.getBytes();
 
         // h <- KMACXOF256(“”, m, 512, “D”)
-        byte[] h = KMACXOF256.KMACXOF256_cal("".getBytes(), inputText,512, "D".getBytes());
+        byte[] h = service.hash(inputText);
         StringBuilder hashText = new StringBuilder();
         for (byte b: h) {
             int v = b & 0xFF;
@@ -178,46 +218,57 @@ public class Application {
      * c <- KMACXOF256(ke, “”, |m|, “SKE”) xor m
      * t <- KMACXOF256(ka, m, 512, “SKA”)
      * symmetric cryptogram: (z, c, t)
+     * or, in the chunked format, (z, c_0 .. c_n-1, t_0 .. t_n-1, T): see ChunkedCryptogram
+     * or, in the duplex format, key <- KMACXOF256(z || pw, “”, 512, “SD”) and (z, c, t): see DuplexCryptogram
+     * or, in the compressed format, (z, c, t) of flag || Deflate(m): see CompressedCryptogram
      * @author Kannika Armstrong
      */
     private static void encryptSymmetric() {
         System.out.println("Service 3: Encrypt a given file symmetrically under a given passphrase.\n");
         System.out.println("Please select the input file.");
-        byte[] filename = openFile();
-        if (filename == null) {
+        File file = openFilePath();
+        if (file == null) {
             System.out.println("\nYou did not select any file.\n");
         } else {
             System.out.println("Please enter the passphrase: ");
             byte[] pw = input.next().getBytes();
+            int format = selectCryptogramFormat(false);
+            if (format == 2) {
+                // z <- Random(512); (ke || ka) <- KMACXOF256(z || pw, “”, 1024, “S”)
+                // chunked cryptogram: (header, z, body), the body streamed from the file
+                byte[] z = new byte[64];
+                KeccakDRBG.current().nextBytes(z);
+                byte[] ke_and_ka = KMACXOF256.KMACXOF256_cal(KMACXOF256.concat(z, pw), new byte[0], 1024, "S".getBytes());
+                encryptChunked(file, ke_and_ka, "SKE".getBytes(), "SKA".getBytes(), z);
+                return;
+            }
+            if (format == 1 || format == COMPRESSED) {
+                // symmetric cryptogram: (z, c, t), or (header, z, c, t) of p = flag || Deflate(m),
+                // encrypted as the file is read
+                encryptStreamed(file, format == COMPRESSED, (in, out) -> service.encryptSymmetric(pw, in, out));
+                return;
+            }
+            byte[] filename = readInput(file);
+            if (filename == null) {
+                return;
+            }
 
             // z <- Random(512)
             byte[] z = new byte[64];
-            Random randomNo = new Random();
-            randomNo.nextBytes(z);
-
-            // (ke || ka) <- KMACXOF256(z || pw, “”, 1024, “S”)
-            byte[] z_and_pw = KMACXOF256.concat(z, pw);
-            byte[] ke_and_ka = KMACXOF256.KMACXOF256_cal(z_and_pw, new byte[0], 1024, "S".getBytes());
-            byte[] ke = Arrays.copyOfRange(ke_and_ka, 0, 64);
-            byte[] ka = Arrays.copyOfRange(ke_and_ka, 64, ke_and_ka.length);
-
-            // c <- KMACXOF256(ke, “”, |m|, “SKE”) xor m
-            byte[] c = KMACXOF256.KMACXOF256_cal(ke, "".getBytes(), filename.length * 8, "SKE".getBytes());
-            for (int i = 0; i < c.length; i++) {
-                c[i] = (byte) (c[i] ^ filename[i]);
-            }
-
-            // t <- KMACXOF256(ka, m, 512, “SKA”)
-            byte[] t = KMACXOF256.KMACXOF256_cal(ka, filename, 512, "SKA".getBytes());
+            KeccakDRBG.current().nextBytes(z);
 
-            // symmetric cryptogram: (z, c, t)
-            String response = saveFile(z, true);
+            // key <- KMACXOF256(z || pw, “”, 512, “SD”)
+            // duplex cryptogram: (header, z, c, t)
+            byte[] key = KMACXOF256.KMACXOF256_cal(KMACXOF256.concat(z, pw), new byte[0], 512, "SD".getBytes());
+            byte[][] body = DuplexCryptogram.encrypt(key, "SKD".getBytes(), filename);
+            String response = saveFile(DuplexCryptogram.HEADER.getBytes(), false);
             System.out.println("****************************************** Result *******************************************\n");
             if (response.equals("")) {
                 System.out.println("File could not be written, try again.");
             } else {
-                writeToFile(c, response);
-                writeToFile(t, response);
+                writeToFile(z, response);
+                writeToFile(body[0], response);
+                writeToFile(body[1], response);
                 System.out.println("Save encrypt file as: " + response);
             }
         }
@@ -231,41 +282,61 @@ public class Application {
      * m <- KMACXOF256(ke, “”, |c|, “SKE”) xor c
      * t’ <- KMACXOF256(ka, m, 512, “SKA”)
      * accept if, and only if, t’ = t
+     * Chunked, duplex and compressed cryptograms are recognized by their header line;
+     * chunked ones can be decrypted whole or by byte range.
      * @author Kannika Armstrong
      */
     private static void decryptSymmetric() {
         System.out.println("Service 4: Decrypt a given file symmetrically under a given passphrase.\n");
         System.out.println("Please select the symmetric encrypted file to decrypt.");
 
-        // split input from encrypted file: symmetric cryptogram: (z, c, t) -> line by line
-        String[] line = getLine();
+        File file = chooseFile("Open File", FileDialog.LOAD);
 
-        if (line == null) {
+        if (file == null) {
             System.out.println("\nYou did not select any file.\n");
         } else {
             System.out.println("Please enter the same passphrase used to encrypt file: ");
             byte[] pw = input.next().getBytes();
-            byte[] z = convertHexToByte(line[0]);
-            byte[] c = convertHexToByte(line[1]);
-            byte[] t = convertHexToByte(line[2]);
-
-            // (ke || ka) <- KMACXOF256(z || pw, “”, 1024, “S”)
-            byte[] ke_and_ka = KMACXOF256.KMACXOF256_cal(KMACXOF256.concat(z, pw), "".getBytes(), 1024, "S".getBytes());
-            byte[] ke = Arrays.copyOfRange(ke_and_ka, 0, 64);
-            byte[] ka = Arrays.copyOfRange(ke_and_ka, 64, ke_and_ka.length);
-
-            // m <- KMACXOF256(ke, “”, |c|, “SKE”) xor c
-            byte[] m = KMACXOF256.KMACXOF256_cal(ke, "".getBytes(), c.length * 8, "SKE".getBytes());
-            for (int i = 0; i < m.length; i++) {
-                m[i] = (byte) (m[i] ^ c[i]);
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                byte[][] z = ChunkedCryptogram.readPrefix(channel, 1);
+                if (z != null) {
+                    // chunked cryptogram: (header, z, body); (ke || ka) <- KMACXOF256(z || pw, “”, 1024, “S”)
+                    byte[] ke_and_ka = KMACXOF256.KMACXOF256_cal(KMACXOF256.concat(z[0], pw),
+                            "".getBytes(), 1024, "S".getBytes());
+                    decryptChunked(channel, ke_and_ka, "SKE".getBytes(), "SKA".getBytes());
+                    return;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
             }
 
-            // t’ <- KMACXOF256(ka, m, 512, “SKA”)
-            byte[] t_bar = KMACXOF256.KMACXOF256_cal(ka, m, 512, "SKA".getBytes());
+            // split input from encrypted file: symmetric cryptogram: (z, c, t) -> line by line
+            String[] line = readLines(file);
+            if (line == null) {
+                return;
+            }
+            if (line[0].equals(CompressedCryptogram.HEADER)) {
+                // compressed cryptogram: (header, z, c, t); m <- Inflate(p) once t’ = t
+                byte[][] cryptogram = {convertHexToByte(line[1]), convertHexToByte(line[2]), convertHexToByte(line[3])};
+                printDecrypted(decompressed(service.decryptSymmetric(pw, cryptogram)));
+                return;
+            }
+            if (line[0].equals(DuplexCryptogram.HEADER)) {
+                // key <- KMACXOF256(z || pw, “”, 512, “SD”)
+                byte[] key = KMACXOF256.KMACXOF256_cal(KMACXOF256.concat(convertHexToByte(line[1]), pw),
+                        "".getBytes(), 512, "SD".getBytes());
+                byte[] m = DuplexCryptogram.decrypt(key, "SKD".getBytes(), convertHexToByte(line[2]), convertHexToByte(line[3]));
+                printDecrypted(m);
+                return;
+            }
+            // symmetric cryptogram: (z, c, t); m is null unless t’ = t
+            byte[][] cryptogram = {convertHexToByte(line[0]), convertHexToByte(line[1]), convertHexToByte(line[2])};
+            byte[] m = service.decryptSymmetric(pw, cryptogram);
 
             System.out.println("****************************************** Result *******************************************\n");
             // accept if, and only if, t’ = t
-            if (Arrays.equals(t, t_bar)) {
+            if (m != null) {
                 System.out.println("Decrypted/Original Text: ");
                 System.out.println(new String(m));
                 String outputFile = saveFile(m, false);
@@ -291,7 +362,7 @@ public class Application {
             System.out.println("Please enter the passphrase for calculating the MAC");
             byte[] pw = input.next().getBytes();
 
-            byte[] t = KMACXOF256.KMACXOF256_cal(pw, filename, 512, "T".getBytes());
+            byte[] t = service.mac(pw, filename);
             String outputFile = saveFile(t, true);
             System.out.println("****************************************** Result *******************************************\n");
             if (outputFile.equals("")) {
@@ -316,18 +387,8 @@ public class Application {
         String pwd = input.next();
         System.out.println(pwd);
 
-        // s <- KMACXOF256(pw, “”, 512, “K”); s <- 4s
-        byte[] s_byte = KMACXOF256.KMACXOF256_cal(pwd.getBytes(), "".getBytes(), 512, "K".getBytes());
-
-        byte[] temp = new byte[1];
-        temp[0] = (byte) 0x00;
-        s_byte = KMACXOF256.concat(temp,s_byte);
-        BigInteger s = new BigInteger(s_byte);
-        s = s.multiply(new BigInteger("4"));
-
-        // V <- s*G
-        EllipticCurve G = new EllipticCurve(new BigInteger("4"));
-        EllipticCurve V = G.mulByScalar(s);
+        // s <- KMACXOF256(pw, “”, 512, “K”); s <- 4s; V <- s*G
+        EllipticCurve V = service.publicKey(pwd.getBytes());
 
         // key pair: (s, V)
         byte[] x = V.getX().toByteArray();
@@ -353,62 +414,67 @@ public class Application {
      *  c <- KMACXOF256(ke, “”, |m|, “PKE”) xor m
      *  t <- KMACXOF256(ka, m, 512, “PKA”)
      *  cryptogram: (Z, c, t)
+     *  or, in the chunked format, (Z, c_0 .. c_n-1, t_0 .. t_n-1, T): see ChunkedCryptogram
+     *  or, in the duplex format, key <- KMACXOF256(Wx, “”, 512, “PD”) and (Z, c, t): see DuplexCryptogram
+     *  or, in the compressed format, (Z, c, t) of flag || Deflate(m): see CompressedCryptogram
+     *  or, for several recipients, the payload is encrypted once and its key wrapped per recipient:
+     *  see MultiRecipientCryptogram
+     *  V comes from a key file, or from the keyring by fingerprint or alias: see Keyring
      *  @author Sam Viet Huynh
      */
 
     private static void encryptElliptic() {
         System.out.println("Service 7: Encrypt a data file under a given elliptic public key file.\n");
         System.out.println("Please select the input file.");
-        byte[] filename = openFile();
-        if (filename == null) {
+        File file = openFilePath();
+        if (file == null) {
             System.out.println("\nYou did not select any file.\n");
         } else {
-            System.out.println("Please select the elliptic key file.");
-            String[] publicKey = getLine();
-            if (publicKey == null) {
-                System.out.println("\nYou did not select any file.\n");
-            } else {
-
-                // k = Random(512); k = 4k
-                byte[] byte_k = new byte[64];
-                Random rand = new Random();
-                rand.nextBytes(byte_k);
-
-                byte[] temp = new byte[1];
-                temp[0] = (byte) 0x00;
-
-                byte_k = KMACXOF256.concat(temp, byte_k);
-                BigInteger k = new BigInteger(byte_k);
-                k = k.multiply(new BigInteger("4"));
-
-                // W = k*V; Z = k*G
-                EllipticCurve G = new EllipticCurve(new BigInteger("4"));
-                EllipticCurve V = new EllipticCurve(new BigInteger(convertHexToByte(publicKey[0])), new BigInteger(convertHexToByte(publicKey[1])));
-                EllipticCurve W = V.mulByScalar(k);
-                EllipticCurve Z = G.mulByScalar(k);
-
-                // (ke || ka) = KMACXOF256(Wx, “”, 1024, “P”)
-                byte[] keka = KMACXOF256.KMACXOF256_cal(W.getX().toByteArray(), "".getBytes(), 1024, "P".getBytes());
-                byte[] ke = Arrays.copyOfRange(keka, 0, 64);
-                byte[] ka = Arrays.copyOfRange(keka, 64, keka.length);
-
-                // c = KMACXOF256(ke, “”, |m|, “PKE”) xor m
-                byte[] c = KMACXOF256.KMACXOF256_cal(ke, "".getBytes(), filename.length * 8, "PKE".getBytes());
-                for (int i = 0; i < c.length; i++) {
-                    c[i] = (byte) (c[i] ^ filename[i]);
+            EllipticCurve V = selectPublicKey("the elliptic key file");
+            if (V != null) {
+                int format = selectCryptogramFormat(true);
+                if (format == 2) {
+                    // k = Random(512); k = 4k; W = k*V; Z = k*G; (ke || ka) = KMACXOF256(Wx, “”, 1024, “P”)
+                    // chunked cryptogram: (header, Z, body), the body streamed from the file
+                    EllipticCurve[] WZ = service.ephemeral(V);
+                    byte[] keka = KMACXOF256.KMACXOF256_cal(WZ[0].getX().toByteArray(), "".getBytes(), 1024, "P".getBytes());
+                    encryptChunked(file, keka, "PKE".getBytes(), "PKA".getBytes(),
+                            WZ[1].getX().toByteArray(), WZ[1].getY().toByteArray());
+                    return;
+                }
+                if (format == 1 || format == COMPRESSED) {
+                    // cryptogram: (Z, c, t), or (header, Z, c, t) of p = flag || Deflate(m),
+                    // encrypted as the file is read
+                    encryptStreamed(file, format == COMPRESSED, (in, out) -> service.encrypt(V, in, out));
+                    return;
+                }
+                byte[] filename = readInput(file);
+                if (filename == null) {
+                    return;
+                }
+                if (format == 4) {
+                    encryptMultiRecipient(filename, V);
+                    return;
                 }
 
-                // t = KMACXOF256(ka, m, 512, “SKA”)
-                byte[] t = KMACXOF256.KMACXOF256_cal(ka, filename, 512, "PKA".getBytes());
+                // k = Random(512); k = 4k; W = k*V; Z = k*G
+                EllipticCurve[] WZ = service.ephemeral(V);
+                EllipticCurve W = WZ[0];
+                EllipticCurve Z = WZ[1];
 
-                String response = saveFile(Z.getX().toByteArray(), true);
+                // key = KMACXOF256(Wx, “”, 512, “PD”)
+                // duplex cryptogram: (header, Z, c, t)
+                byte[] key = KMACXOF256.KMACXOF256_cal(W.getX().toByteArray(), "".getBytes(), 512, "PD".getBytes());
+                byte[][] body = DuplexCryptogram.encrypt(key, "PKD".getBytes(), filename);
+                String response = saveFile(DuplexCryptogram.HEADER.getBytes(), false);
                 System.out.println("****************************************** Result *******************************************\n");
                 if (response.equals("")) {
                     System.out.println("Cryptogram unable to be saved");
                 } else {
+                    writeToFile(Z.getX().toByteArray(), response);
                     writeToFile(Z.getY().toByteArray(), response);
-                    writeToFile(c, response);
-                    writeToFile(t, response);
+                    writeToFile(body[0], response);
+                    writeToFile(body[1], response);
                     System.out.println("File encrypted at: " + response);
                 }
             }
@@ -425,58 +491,72 @@ public class Application {
      * m <- KMACXOF256(ke, “”, |c|, “PKE”) xor c
      * t’ <- KMACXOF256(ka, m, 512, “PKA”)
      * accept if, and only if, t’ = t
+     * Chunked, duplex and compressed cryptograms are recognized by their header line;
+     * chunked ones can be decrypted whole or by byte range.
      * @author Sam Viet Huynh
      */
 
     private static void decryptElliptic() {
         System.out.println("Service 8: Decrypt a given elliptic-encrypted file from a given password.\n");
         System.out.println("Please select the elliptic encrypted file to decrypt.");
-        String[] line = getLine();
+        File file = chooseFile("Open File", FileDialog.LOAD);
 
-        if (line == null) {
+        if (file == null) {
             System.out.println("\nYou did not select any file.\n");
         } else {
             System.out.println("Please type the passphrase used to encrypt the file");
             byte[] pw = input.next().getBytes();
 
             // s = KMACXOF256(pw, “”, 512, “K”); s = 4s
-            byte[] byte_s = KMACXOF256.KMACXOF256_cal(pw, "".getBytes(), 512, "K".getBytes());
-
-            byte[] temp = new byte[1];
-            temp[0] = (byte) 0x00;
-            byte_s = KMACXOF256.concat(temp,byte_s);
-            BigInteger s = new BigInteger(byte_s);
-            s = s.multiply(new BigInteger("4"));
+            BigInteger s = service.cachedPrivateKey(pw);
+
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                byte[][] Z = ChunkedCryptogram.readPrefix(channel, 2);
+                if (Z != null) {
+                    // chunked cryptogram: (header, Z, body); W = s*Z; (ke || ka) = KMACXOF256(Wx, “”, 1024, “P”)
+                    EllipticCurve W = new EllipticCurve(new BigInteger(Z[0]), new BigInteger(Z[1])).mulByScalar(s);
+                    byte[] keka = KMACXOF256.KMACXOF256_cal(W.getX().toByteArray(), "".getBytes(), 1024, "P".getBytes());
+                    decryptChunked(channel, keka, "PKE".getBytes(), "PKA".getBytes());
+                    return;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
 
-            // W = s*Z
-            EllipticCurve Z = new EllipticCurve(new BigInteger(convertHexToByte(line[0])), new BigInteger(convertHexToByte(line[1])));
-            EllipticCurve W = Z.mulByScalar(s);
+            String[] line = readLines(file);
+            if (line == null) {
+                return;
+            }
 
-            // (ke || ka) = KMACXOF256(Wx, “”, 1024, “P”)
-            byte[] keka = KMACXOF256.KMACXOF256_cal(W.getX().toByteArray(), "".getBytes(), 1024, "P".getBytes());
-            byte[] ke = Arrays.copyOfRange(keka, 0, 64);
-            byte[] ka = Arrays.copyOfRange(keka, 64, keka.length);
+            if (line[0].equals(MultiRecipientCryptogram.HEADER)) {
+                decryptMultiRecipient(line, s);
+                return;
+            }
+            if (line[0].equals(CompressedCryptogram.HEADER)) {
+                // compressed cryptogram: (header, Z, c, t); m <- Inflate(p) once t’ = t
+                byte[][] cryptogram = {convertHexToByte(line[1]), convertHexToByte(line[2]), convertHexToByte(line[3]), convertHexToByte(line[4])};
+                printDecrypted(decompressed(service.decrypt(s, cryptogram)));
+                return;
+            }
 
-            // m = KMACXOF256(ke, “”, |c|, "PKE”) xor c
-            byte[] c = convertHexToByte(line[2]);
-            byte[] m = KMACXOF256.KMACXOF256_cal(ke, "".getBytes(), c.length * 8, "PKE".getBytes());
-            for (int i = 0; i < m.length; i++) {
-                m[i] = (byte) (m[i] ^ c[i]);
+            // the duplex format carries a header line before Z
+            boolean duplex = line[0].equals(DuplexCryptogram.HEADER);
+            if (!duplex) {
+                // cryptogram: (Z, c, t); m is null unless t’ = t
+                byte[][] cryptogram = {convertHexToByte(line[0]), convertHexToByte(line[1]), convertHexToByte(line[2]), convertHexToByte(line[3])};
+                printDecrypted(service.decrypt(s, cryptogram));
+                return;
             }
 
-            // t’ = KMACXOF256(ka, m, 512, “PKA”)
-            byte[] t_prime = KMACXOF256.KMACXOF256_cal(ka, m, 512, "PKA".getBytes());
+            // W = s*Z
+            EllipticCurve Z = new EllipticCurve(new BigInteger(convertHexToByte(line[1])), new BigInteger(convertHexToByte(line[2])));
+            EllipticCurve W = Z.mulByScalar(s);
 
-            System.out.println("****************************************** Result *******************************************\n");
-            //  accept if, and only if, t’ = t
-            if (Arrays.equals(convertHexToByte(line[3]), t_prime)) {
-                System.out.println("Decrypted/Original Text: ");
-                System.out.println(new String(m));
-                String outputFile = saveFile(m, false);
-                System.out.println("Saved decrypted file at: " + outputFile);
-            } else {
-                System.out.println("Wrong password -> Error decrypting the text!!");
-            }
+            // key = KMACXOF256(Wx, “”, 512, “PD”)
+            byte[] key = KMACXOF256.KMACXOF256_cal(W.getX().toByteArray(), "".getBytes(), 512, "PD".getBytes());
+            byte[] m = DuplexCryptogram.decrypt(key, "PKD".getBytes(), convertHexToByte(line[3]), convertHexToByte(line[4]));
+            printDecrypted(m);
         }
     }
 
@@ -499,39 +579,12 @@ public class Application {
         String pwd = input.next();
         System.out.println(pwd);
 
-        // s <- KMACXOF256(pw, “”, 512, “K”); s <- 4s
-        byte[] s_byte = KMACXOF256.KMACXOF256_cal(pwd.getBytes(), "".getBytes(), 512, "K".getBytes());
-
-        byte[] temp = new byte[1];
-        temp[0] = (byte) 0x00;
-        s_byte = KMACXOF256.concat(temp,s_byte);
-        BigInteger s = new BigInteger(s_byte);
-        s = s.multiply(new BigInteger("4"));
-
-        // V <- s*G
-        EllipticCurve G = new EllipticCurve(new BigInteger("4"));
-        EllipticCurve V = G.mulByScalar(s);
+        // s <- KMACXOF256(pw, “”, 512, “K”); s <- 4s; V <- s*G
+        EllipticCurve V = service.publicKey(pwd.getBytes());
 
         // key pair: (s, V)
-        byte[] x = V.getX().toByteArray();
-        byte[] y = V.getY().toByteArray();
-
-        StringBuilder xText = new StringBuilder();
-        for (byte b: x) {
-            int v = b & 0xFF;
-            xText.append(HEX_ARRAY[v >>> 4]);
-            xText.append(HEX_ARRAY[v & 0x0F]);
-        }
-        String KeyX = xText.toString();
-
-        StringBuilder yText = new StringBuilder();
-        for (byte b: y) {
-            int v = b & 0xFF;
-            yText.append(HEX_ARRAY[v >>> 4]);
-            yText.append(HEX_ARRAY[v & 0x0F]);
-        }
-        String KeyY = yText.toString();
-        String[] publicKey = new String[]{KeyX, KeyY};
+        String KeyX = CryptoService.toHex(V.getX().toByteArray());
+        String KeyY = CryptoService.toHex(V.getY().toByteArray());
 
         //////////////////////////////////////////////
         ////////// Input Message to Encrypt //////////
@@ -546,65 +599,12 @@ public class Application {
         /////////////// Encrypt Method ///////////////
         //////////////////////////////////////////////
 
-        // k = Random(512); k = 4k
-        byte[] byte_k = new byte[64];
-        Random rand = new Random();
-        rand.nextBytes(byte_k);
-
-        byte_k = KMACXOF256.concat(temp, byte_k);
-        BigInteger k = new BigInteger(byte_k);
-        k = k.multiply(new BigInteger("4"));
-
-        // W = k*V; Z = k*G
-        EllipticCurve newV = new EllipticCurve(new BigInteger(convertHexToByte(publicKey[0])), new BigInteger(convertHexToByte(publicKey[1])));
-        EllipticCurve W = newV.mulByScalar(k);
-        EllipticCurve Z = G.mulByScalar(k);
-
-        // (ke || ka) = KMACXOF256(Wx, “”, 1024, “P”)
-        byte[] keka = KMACXOF256.KMACXOF256_cal(W.getX().toByteArray(), "".getBytes(), 1024, "P".getBytes());
-        byte[] ke = Arrays.copyOfRange(keka, 0, 64);
-        byte[] ka = Arrays.copyOfRange(keka, 64, keka.length);
-
-        // c = KMACXOF256(ke, “”, |m|, “PKE”) xor m
-        byte[] c = KMACXOF256.KMACXOF256_cal(ke, "".getBytes(), message_b.length * 8, "PKE".getBytes());
-        for (int i = 0; i < c.length; i++) {
-            c[i] = (byte) (c[i] ^ message_b[i]);
-        }
-
-        StringBuilder z_x_Text = new StringBuilder();
-        for (byte b: Z.getX().toByteArray()) {
-            int v = b & 0xFF;
-            z_x_Text.append(HEX_ARRAY[v >>> 4]);
-            z_x_Text.append(HEX_ARRAY[v & 0x0F]);
-        }
-        String z_x_Hex = z_x_Text.toString();
-
-        StringBuilder z_y_Text = new StringBuilder();
-        for (byte b: Z.getY().toByteArray()) {
-            int v = b & 0xFF;
-            z_y_Text.append(HEX_ARRAY[v >>> 4]);
-            z_y_Text.append(HEX_ARRAY[v & 0x0F]);
-        }
-        String z_y_Hex = z_y_Text.toString();
-
-        StringBuilder cText = new StringBuilder();
-        for (byte b: c) {
-            int v = b & 0xFF;
-            cText.append(HEX_ARRAY[v >>> 4]);
-            cText.append(HEX_ARRAY[v & 0x0F]);
-        }
-        String cHex = cText.toString();
-
-        // t = KMACXOF256(ka, m, 512, “SKA”)
-        byte[] t = KMACXOF256.KMACXOF256_cal(ka, message_b, 512, "PKA".getBytes());
-
-        StringBuilder tText = new StringBuilder();
-        for (byte b: t) {
-            int v = b & 0xFF;
-            tText.append(HEX_ARRAY[v >>> 4]);
-            tText.append(HEX_ARRAY[v & 0x0F]);
-        }
-        String tHex = tText.toString();
+        // cryptogram: (Z, c, t)
+        byte[][] cryptogram = service.encrypt(V, message_b);
+        String z_x_Hex = CryptoService.toHex(cryptogram[0]);
+        String z_y_Hex = CryptoService.toHex(cryptogram[1]);
+        String cHex = CryptoService.toHex(cryptogram[2]);
+        String tHex = CryptoService.toHex(cryptogram[3]);
 
         //////////////////////////////////////////////
         ///////// Print output to the console ////////
@@ -659,37 +659,16 @@ public class Application {
         System.out.println("Please type the passphrase used to encrypt the input text from service 9");
         byte[] pw = input.next().getBytes();
 
-        // s = KMACXOF256(pw, “”, 512, “K”); s = 4s
-        byte[] byte_s = KMACXOF256.KMACXOF256_cal(pw, "".getBytes(), 512, "K".getBytes());
-
-        byte[] temp = new byte[1];
-        temp[0] = (byte) 0x00;
-        byte_s = KMACXOF256.concat(temp,byte_s);
-        BigInteger s = new BigInteger(byte_s);
-        s = s.multiply(new BigInteger("4"));
-
-        // W = s*Z
-        EllipticCurve Z = new EllipticCurve(new BigInteger(convertHexToByte(encryptHex[0])), new BigInteger(convertHexToByte(encryptHex[1])));
-        EllipticCurve W = Z.mulByScalar(s);
-
-        // (ke || ka) = KMACXOF256(Wx, “”, 1024, “P”)
-        byte[] keka = KMACXOF256.KMACXOF256_cal(W.getX().toByteArray(), "".getBytes(), 1024, "P".getBytes());
-        byte[] ke = Arrays.copyOfRange(keka, 0, 64);
-        byte[] ka = Arrays.copyOfRange(keka, 64, keka.length);
-
-        // m = KMACXOF256(ke, “”, |c|, "PKE”) xor c
-        byte[] c = convertHexToByte(encryptHex[2]);
-        byte[] m = KMACXOF256.KMACXOF256_cal(ke, "".getBytes(), c.length * 8, "PKE".getBytes());
-        for (int i = 0; i < m.length; i++) {
-            m[i] = (byte) (m[i] ^ c[i]);
+        // m is null unless t’ = t
+        byte[][] cryptogram = new byte[4][];
+        for (int i = 0; i < cryptogram.length; i++) {
+            cryptogram[i] = convertHexToByte(encryptHex[i]);
         }
-
-        // t’ = KMACXOF256(ka, m, 512, “PKA”)
-        byte[] t_prime = KMACXOF256.KMACXOF256_cal(ka, m, 512, "PKA".getBytes());
+        byte[] m = service.decrypt(pw, cryptogram);
 
         System.out.println("****************************************** Result *******************************************\n");
         //  accept if, and only if, t’ = t
-        if (Arrays.equals(convertHexToByte(encryptHex[3]), t_prime)) {
+        if (m != null) {
             System.out.println("Decrypted/Original Text: ");
             System.out.println(new String(m));
         } else {
@@ -706,53 +685,38 @@ public class Application {
      * U <- k*G;
      * h <- KMACXOF256(Ux, m, 512, “T”);
      * z <- (k – hs) mod r
+     * In the prehash mode the file is streamed once into d <- KMACXOF256(“”, m, 512, “PH”),
+     * and d is signed with “PN” and “PT” in place of “N” and “T”; the signature file starts with a flag line.
      * @author Kannika Armstrong
      */
     private static void signFile() {
         System.out.println("Service 11: Sign a given file from a given password.\n");
         System.out.println("Please select the file you want to sign");
-        byte[] filename = openFile();
-        if (filename == null) {
+        File file = openFilePath();
+        if (file == null) {
             System.out.println("\nYou did not select any file.\n");
         } else {
             System.out.println("Please enter the passphrase for generating the signature: ");
             byte[] pw = input.next().getBytes();
+            boolean prehash = selectSignatureMode() == 2;
+            // signature: (h, z)
+            byte[][] signature;
+            try (FileInputStream inStream = new FileInputStream(file)) {
+                signature = prehash ? service.signPrehashed(pw, inStream) : service.sign(pw, file.toPath());
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
 
-            // s <- KMACXOF256(pw, “”, 512, “K”); s <- 4s
-            // s = KMACXOF256(pw, “”, 512, “K”); s = 4s
-            byte[] s_bytes = KMACXOF256.KMACXOF256_cal(pw, "".getBytes(), 512, "K".getBytes());
-
-            byte[] temp = new byte[1];
-            temp[0] = (byte) 0x00;
-
-            byte[] s_bytes_pos = KMACXOF256.concat(temp, s_bytes);
-            BigInteger s = new BigInteger(s_bytes_pos);
-            s = s.multiply(new BigInteger("4"));
-
-            // k <- KMACXOF256(s, m, 512, “N”); k <- 4k
-            byte[] k_bytes = KMACXOF256.KMACXOF256_cal(s.toByteArray(), filename, 512, "N".getBytes());
-            byte[] k_bytes_pos = KMACXOF256.concat(temp, k_bytes);
-            BigInteger k = new BigInteger(k_bytes_pos);
-            k = k.multiply(new BigInteger("4"));
-
-            // U < k*G;
-            EllipticCurve G = new EllipticCurve(BigInteger.valueOf(4));
-            EllipticCurve U = G.mulByScalar(k);
-
-            // h <- KMACXOF256(Ux, m, 512, “T”)
-            byte[] h_bytes = KMACXOF256.KMACXOF256_cal(U.getX().toByteArray(), filename, 512, "T".getBytes());
-            byte[] h_bytes_pos = KMACXOF256.concat(temp, h_bytes);
-            BigInteger h = new BigInteger(h_bytes_pos);
-            BigInteger z = k.subtract(h.multiply(s)).mod(EllipticCurve.r);
-
-            // z <- (k – hs) mod r
-
-            String response = saveFile(h.toByteArray(), true);
+            String response = prehash ? saveFile(PREHASH_SIGNATURE.getBytes(), false) : saveFile(signature[0], true);
             System.out.println("****************************************** Result *******************************************\n");
             if (response.equals("")) {
                 System.out.println("File could not be written, try again.");
             } else {
-                writeToFile(z.toByteArray(), response);
+                if (prehash) {
+                    writeToFile(signature[0], response);
+                }
+                writeToFile(signature[1], response);
                 System.out.println("Signature saved at:  " + response);
             }
         }
@@ -764,40 +728,38 @@ public class Application {
      * Verifying a signature (h, z) for a byte array m under the (Schnorr/ECDHIES) public key V:
      * U <- z*G + h*V
      * accept if, and only if, KMACXOF256(Ux, m, 512, “T”) = h
+     * A prehashed signature (recognized by its flag line) is checked against d <- KMACXOF256(“”, m, 512, “PH”)
+     * with “PT” in place of “T”, streaming the file once.
+     * V comes from a key file, or from the keyring by fingerprint or alias: see Keyring
      * @author Kannika Armstrong
      */
     private static void verifySignature() {
         System.out.println("Service 12: Verify a given data file and its signature file under a given public key file.\n");
         System.out.println("Please select the input file");
-        byte[] filename = openFile();
-        if (filename == null) {
+        File file = openFilePath();
+        if (file == null) {
             System.out.println("\nYou did not select any file.\n");
         } else {
-            System.out.println("Please select the file containing the public key");
-            String[] publicKeyString = getLine();
-            if (publicKeyString == null) {
-                System.out.println("\nYou did not select any file.\n");
-            } else {
+            EllipticCurve V = selectPublicKey("the file containing the public key");
+            if (V != null) {
                 System.out.println("Please select the file containing the signature");
                 String[] signatureString = getLine();
                 if (signatureString == null) {
                     System.out.println("\nYou did not select any file.\n");
                 } else {
-
-                    // U = z*G + h*V
-                    EllipticCurve V = new EllipticCurve(new BigInteger(convertHexToByte(publicKeyString[0])), new BigInteger(convertHexToByte(publicKeyString[1])));
-                    EllipticCurve G = new EllipticCurve(BigInteger.valueOf(4));
-                    BigInteger z = new BigInteger(convertHexToByte(signatureString[1]));
-                    BigInteger h = new BigInteger(convertHexToByte(signatureString[0]));
-                    EllipticCurve U = G.mulByScalar(z).sum(V.mulByScalar(h));
-
-                    byte[] h_bar = KMACXOF256.KMACXOF256_cal(U.getX().toByteArray(), filename, 512, "T".getBytes());
-                    byte[] temp = new byte[1];
-                    temp[0] = (byte) 0x00;
-                    h_bar = KMACXOF256.concat(temp, h_bar);
+                    boolean prehash = signatureString[0].equals(PREHASH_SIGNATURE);
+                    int first = prehash ? 1 : 0;
+                    // U = z*G + h*V; accept if, and only if, KMACXOF256(Ux, m, 512, “T”) = h
+                    byte[][] signature = {convertHexToByte(signatureString[first]), convertHexToByte(signatureString[first + 1])};
+                    boolean valid;
+                    try (FileInputStream inStream = new FileInputStream(file)) {
+                        valid = prehash ? service.verifyPrehashed(V, signature, inStream) : service.verify(V, signature, file.toPath());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        return;
+                    }
                     System.out.println("****************************************** Result *******************************************\n");
-                    // accept if, and only if, KMACXOF256(Ux, m, 512, “T”) = h
-                    if (Arrays.equals(convertHexToByte(signatureString[0]), h_bar)) {
+                    if (valid) {
                         System.out.println(">>>>>>>>>> Signature Verification: SUCCESSFUL!! <<<<<<<<<<");
                     } else {
                         System.out.println(">>>>>>>>>> Signature Verification: FAILED!! <<<<<<<<<<");
@@ -814,28 +776,345 @@ public class Application {
     // As we save the symmetric cryptogram: (z, c, t) -> line by line
     // we have to read the input line by line when decrypt
     private static String[] getLine() {
-        FileDialog fd = new FileDialog(new JFrame(), "Open File", FileDialog.LOAD);
-        fd.setVisible(true);
-        if (fd.getFile() == null) {
+        File file = chooseFile("Open File", FileDialog.LOAD);
+        return file == null ? null : readLines(file);
+    }
+
+    // Use to read the hex lines of a file, padded to at least four
+    private static String[] readLines(File file) {
+        try {
+            FileInputStream inStream = new FileInputStream(file);
+            Scanner lineScan = new Scanner(inStream);
+            ArrayList<String> lines = new ArrayList<>();
+            while (lineScan.hasNext()) {
+                lines.add(lineScan.next());
+            }
+            inStream.close();
+            lineScan.close();
+            // pad to the four lines of a (Z, c, t) cryptogram so short files do not fail on indexing
+            while (lines.size() < 4) {
+                lines.add("");
+            }
+            return lines.toArray(new String[0]);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // Ask for a public key: a key file of service 6 (Vx and Vy as hex lines), or the fingerprint or alias of a key
+    // of the keyring (see Keyring, -Dcrypto.keyring=<name>). Returns null, after saying why, if there is none.
+    private static EllipticCurve selectPublicKey(String what) {
+        System.out.println("Please select " + what + ", or enter K to use the keyring.");
+        System.out.print("Enter F (file) or K (keyring): ");
+        if (!input.next().equalsIgnoreCase("K")) {
+            String[] publicKey = getLine();
+            if (publicKey == null) {
+                System.out.println("\nYou did not select any file.\n");
+                return null;
+            }
+            return new EllipticCurve(new BigInteger(convertHexToByte(publicKey[0])), new BigInteger(convertHexToByte(publicKey[1])));
+        }
+        System.out.print("Enter the fingerprint (at least " + Keyring.MIN_PREFIX + " hex digits) or alias of the key: ");
+        String id = input.next();
+        try {
+            Keyring.Key key = keyring().resolve(id);
+            if (key == null) {
+                System.out.println("\nNo key " + id + " in the keyring.\n");
+                return null;
+            }
+            System.out.println("Using " + key.getAlias() + " (" + key.getFingerprint() + ")");
+            return key.getPublicKey();
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("\n" + e.getMessage() + "\n");
             return null;
+        }
+    }
+
+    // The keyring, opened for reading on first use and kept open: later lookups pick up keys added meanwhile
+    private static Keyring keyring() throws IOException {
+        if (keyring == null) {
+            keyring = new Keyring(Keyring.defaultName(), false);
+        }
+        return keyring;
+    }
+
+    // Ask which cryptogram format to produce: 1 = standard (z, c, t), 2 = chunked, 3 = duplex,
+    // 4 = multi-recipient (elliptic only)
+    private static int selectCryptogramFormat(boolean elliptic) {
+        int last = elliptic ? 5 : 4;
+        System.out.println("Please select the cryptogram format:");
+        System.out.println("\t1. Standard cryptogram");
+        System.out.println("\t2. Chunked cryptogram (parallel and random-access decryption)");
+        System.out.println("\t3. Duplex cryptogram (single-pass authenticated encryption)");
+        if (elliptic) {
+            System.out.println("\t4. Multi-recipient cryptogram (encrypt once for several public keys)");
+        }
+        System.out.println("\t" + last + ". Compressed cryptogram (Deflate before encryption, skipped for incompressible data)");
+        System.out.print("Enter your option (1-" + last + "): ");
+        while (!input.hasNextInt()) {
+            System.out.print("Enter your option (1-" + last + "): ");
+            input.next();
+        }
+        int format = input.nextInt();
+        if (format == last) {
+            return COMPRESSED;
+        }
+        return (format >= 2 && format <= last) ? format : 1;
+    }
+
+    // Use to report what the compression stage did, from the flag and the length of p
+    private static void printCompression(long length, int flag, long p) {
+        if (flag == CompressedCryptogram.STORED) {
+            System.out.println("Incompressible data: stored without compression.");
         } else {
-            File file = new File(fd.getDirectory() + fd.getFile());
+            System.out.println("Compressed " + length + " bytes to " + (p - 1) + " bytes before encryption.");
+        }
+    }
+
+    // Use to write a standard or compressed cryptogram (see CryptoService.writeCryptogram), encrypting the file
+    // as it is read, so neither m nor p is held in memory
+    private static void encryptStreamed(File file, boolean compress, CryptoService.StreamEncryption encryption) {
+        System.out.println("Save file as: ");
+        File target = chooseFile("Save as", FileDialog.SAVE);
+        System.out.println("****************************************** Result *******************************************\n");
+        if (target == null) {
+            System.out.println("\nSave file operation was cancelled!! ");
+            return;
+        }
+        // the first byte of p and its length, counted as p is encrypted
+        long[] p = {-1, 0};
+        try (InputStream m = new FileInputStream(file);
+             InputStream in = compress ? new FilterInputStream(CompressedCryptogram.compressing(m)) {
+                 @Override
+                 public int read() throws IOException {
+                     byte[] b = new byte[1];
+                     return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+                 }
+
+                 @Override
+                 public int read(byte[] b, int off, int len) throws IOException {
+                     int n = super.read(b, off, len);
+                     if (n > 0 && p[1] == 0) {
+                         p[0] = b[off];
+                     }
+                     p[1] += Math.max(n, 0);
+                     return n;
+                 }
+             } : m) {
+            CryptoService.writeCryptogram("application", target.toPath(), compress ? CompressedCryptogram.HEADER : null,
+                    in, encryption);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (compress) {
+            printCompression(file.length(), (int) p[0], p[1]);
+        }
+        System.out.println("File encrypted at: " + target.getAbsolutePath());
+    }
+
+    // Use to inflate p once its tag is verified; a corrupt or truncated body reads as a failed decryption
+    private static byte[] decompressed(byte[] p) {
+        try {
+            return CompressedCryptogram.decompress(p);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Use to encrypt a file for the selected public key and any number of additional recipients
+    private static void encryptMultiRecipient(byte[] m, EllipticCurve V) {
+        ArrayList<EllipticCurve> recipients = new ArrayList<>();
+        recipients.add(V);
+        System.out.print("How many additional recipients? ");
+        while (!input.hasNextInt()) {
+            System.out.print("How many additional recipients? ");
+            input.next();
+        }
+        int more = input.nextInt();
+        for (int i = 0; i < more; i++) {
+            EllipticCurve key = selectPublicKey("the elliptic key file of recipient " + (i + 2));
+            if (key == null) {
+                return;
+            }
+            recipients.add(key);
+        }
+
+        // cryptogram: (header, n, (fingerprint, Zx, Zy, w) per recipient, c, t)
+        byte[][] body = MultiRecipientCryptogram.encrypt(recipients.toArray(new EllipticCurve[0]), m);
+        String response = saveFile(MultiRecipientCryptogram.HEADER.getBytes(), false);
+        System.out.println("****************************************** Result *******************************************\n");
+        if (response.equals("")) {
+            System.out.println("Cryptogram unable to be saved");
+        } else {
+            writeToFile(BigInteger.valueOf(recipients.size()).toByteArray(), response);
+            for (byte[] part : body) {
+                writeToFile(part, response);
+            }
+            System.out.println("File encrypted for " + recipients.size() + " recipients at: " + response);
+        }
+    }
+
+    // Use to decrypt a multi-recipient cryptogram: find our entry by fingerprint, then decrypt the payload
+    private static void decryptMultiRecipient(String[] line, BigInteger s) {
+        int n = new BigInteger(convertHexToByte(line[1])).intValue();
+        int entries = 2;
+        int payload = entries + MultiRecipientCryptogram.ENTRY_LINES * n;
+        if (n < 0 || line.length < payload + 2) {
+            System.out.println("****************************************** Result *******************************************\n");
+            System.out.println("The selected file is not a valid multi-recipient cryptogram.");
+            return;
+        }
+        byte[][] fingerprints = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            fingerprints[i] = convertHexToByte(line[entries + MultiRecipientCryptogram.ENTRY_LINES * i]);
+        }
+
+        // V = s*G identifies our entry
+        EllipticCurve V = EllipticCurve.generator().mulByScalar(s);
+        int i = MultiRecipientCryptogram.findRecipient(fingerprints, V);
+        if (i < 0) {
+            System.out.println("****************************************** Result *******************************************\n");
+            System.out.println("Wrong password -> This key is not a recipient of the cryptogram!!");
+            return;
+        }
+        int entry = entries + MultiRecipientCryptogram.ENTRY_LINES * i;
+        EllipticCurve Z = new EllipticCurve(new BigInteger(convertHexToByte(line[entry + 1])), new BigInteger(convertHexToByte(line[entry + 2])));
+        byte[] m = MultiRecipientCryptogram.decrypt(s, Z, convertHexToByte(line[entry + 3]),
+                convertHexToByte(line[payload]), convertHexToByte(line[payload + 1]));
+        printDecrypted(m);
+    }
+
+    // Ask which hash to compute: 1 = KMACXOF256, 2 = ParallelHash256 (multi-core), 3 = KangarooTwelve,
+    // 4 = Merkle tree, 5 = Merkle tree trusting its sidecar index
+    private static int selectHashMode() {
+        System.out.println("Please select the hash mode:");
+        System.out.println("\t1. KMACXOF256");
+        System.out.println("\t2. ParallelHash256 (multi-core, for large files)");
+        System.out.println("\t3. KangarooTwelve (fast 12-round integrity hash, multi-core)");
+        System.out.println("\t4. Merkle tree (multi-core, writes a .merkle index)");
+        System.out.println("\t5. Merkle tree, incremental (trusts the .merkle index: only for files you control)");
+        System.out.print("Enter your option (1-5): ");
+        while (!input.hasNextInt()) {
+            System.out.print("Enter your option (1-5): ");
+            input.next();
+        }
+        int mode = input.nextInt();
+        return (mode >= 2 && mode <= 5) ? mode : 1;
+    }
+
+    // Ask which signature to produce: 1 = standard, 2 = prehashed (one streaming pass, constant memory)
+    private static int selectSignatureMode() {
+        System.out.println("Please select the signature mode:");
+        System.out.println("\t1. Standard signature");
+        System.out.println("\t2. Prehashed signature (one streaming pass, for large files)");
+        System.out.print("Enter your option (1-2): ");
+        while (!input.hasNextInt()) {
+            System.out.print("Enter your option (1-2): ");
+            input.next();
+        }
+        int mode = input.nextInt();
+        return (mode == 2) ? 2 : 1;
+    }
+
+    // Use to print and save the result of a decryption, or report a tag mismatch (m = null)
+    private static void printDecrypted(byte[] m) {
+        System.out.println("****************************************** Result *******************************************\n");
+        if (m != null) {
+            System.out.println("Decrypted/Original Text: ");
+            System.out.println(new String(m));
+            String outputFile = saveFile(m, false);
+            System.out.println("Saved decrypted file at: " + outputFile);
+        } else {
+            System.out.println("Wrong password -> Error decrypting the text!!");
+        }
+    }
+
+    // Use to write a chunked cryptogram: the header and key lines, then the body, encrypted as the file is read
+    private static void encryptChunked(File file, byte[] keka, byte[] keLabel, byte[] kaLabel, byte[]... prefix) {
+        byte[] ke = Arrays.copyOfRange(keka, 0, 64);
+        byte[] ka = Arrays.copyOfRange(keka, 64, keka.length);
+        System.out.println("Save file as: ");
+        File target = chooseFile("Save as", FileDialog.SAVE);
+        System.out.println("****************************************** Result *******************************************\n");
+        if (target == null) {
+            System.out.println("\nSave file operation was cancelled!! ");
+            return;
+        }
+        try (InputStream in = new FileInputStream(file);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+            ChunkedCryptogram.writePrefix(out, prefix);
+            ChunkedCryptogram.encrypt(ke, ka, in, out, ChunkedCryptogram.CHUNK_SIZE, keLabel, kaLabel);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        System.out.println("File encrypted at: " + target.getAbsolutePath());
+    }
+
+    // Use to decrypt a chunked cryptogram, whole or a byte range, once (ke || ka) is known; the channel is at
+    // the body, and only the tags and the chunks of the range are read
+    private static void decryptChunked(FileChannel channel, byte[] keka, byte[] keLabel, byte[] kaLabel)
+            throws IOException {
+        byte[] ke = Arrays.copyOfRange(keka, 0, 64);
+        byte[] ka = Arrays.copyOfRange(keka, 64, keka.length);
+        long body = channel.position();
+        long length = ChunkedCryptogram.length(channel, body);
+        if (length < 0) {
+            System.out.println("****************************************** Result *******************************************\n");
+            System.out.println("The selected file is not a valid chunked cryptogram.");
+            return;
+        }
+
+        System.out.println("The file holds " + length + " bytes.");
+        System.out.println("Enter the byte range to decrypt as \"start end\", or \"all\" for the whole file: ");
+        long start = 0;
+        long end = length;
+        String from = input.next();
+        boolean range = true;
+        if (!from.equalsIgnoreCase("all")) {
             try {
-                FileInputStream inStream = new FileInputStream(file);
-                Scanner lineScan = new Scanner(inStream);
-                String[] lines = new String[4];
-                int i = 0;
-                while (lineScan.hasNextLine()) {
-                    lines[i++] = lineScan.next();
-                }
-                inStream.close();
-                lineScan.close();
-                return lines;
-            } catch (IOException e) {
-                e.printStackTrace();
+                start = Long.parseLong(from);
+                end = Long.parseLong(input.next());
+            } catch (NumberFormatException e) {
+                range = false;
             }
         }
-        return null;
+        boolean valid = false;
+        File target = null;
+        if (range && start >= 0 && start <= end && end <= length) {
+            System.out.println("Save file as: ");
+            target = chooseFile("Save as", FileDialog.SAVE);
+            if (target == null) {
+                System.out.println("\nSave file operation was cancelled!! ");
+                return;
+            }
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+                valid = ChunkedCryptogram.decryptRange(ke, ka, channel, body, start, end, keLabel, kaLabel, out);
+            }
+            if (!valid) {
+                // no partial plaintext is left behind
+                target.delete();
+            }
+        }
+
+        System.out.println("****************************************** Result *******************************************\n");
+        if (valid) {
+            System.out.println("Saved decrypted file at: " + target.getAbsolutePath());
+        } else {
+            System.out.println("Wrong password or byte range -> Error decrypting the file!!");
+        }
+    }
+
+    // Use to read a file the service needs in memory, or null after saying why
+    private static byte[] readInput(File file) {
+        try {
+            return readFile(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
     // Use to convert hex string back to byte array to decrypt
@@ -851,6 +1130,7 @@ public class Application {
 
     // Use to write c and t in the same file as z
     private static void writeToFile(byte[] input, String response) {
+        CryptoEvents.ServicePhase phase = CryptoStats.phase("application", "write");
         File file = new File(response);
         try {
             FileOutputStream output = new FileOutputStream(file, true);
@@ -863,23 +1143,18 @@ public class Application {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        CryptoStats.end(phase, input.length);
     }
 
     // Use to open the file
     private static byte[] openFile() {
-        System.out.println("Open file: ");
-        FileDialog fd = new FileDialog(new JFrame(), "Open", FileDialog.LOAD);
-        fd.setVisible(true);
-        if (fd.getFile() == null) {
+        File file = openFilePath();
+        if (file == null) {
             //System.out.print("\nSave file operation was cancelled!! ");
             return null;
         } else {
-            File file = new File(fd.getDirectory() + fd.getFile());
             try {
-                FileInputStream inStream = new FileInputStream(file);
-                byte[] result = inStream.readAllBytes();
-                inStream.close();
-                return result;
+                return readFile(file);
             } catch (IOException e) {
             e.printStackTrace();
         }
@@ -887,16 +1162,46 @@ public class Application {
         }
     }
 
+    // Use to select a file without reading it, for the services that stream their input
+    private static File openFilePath() {
+        System.out.println("Open file: ");
+        return chooseFile("Open", FileDialog.LOAD);
+    }
+
+    // Use to choose a file: a file dialog, or the path typed on the console when the JVM is headless
+    private static File chooseFile(String title, int mode) {
+        if (GraphicsEnvironment.isHeadless()) {
+            System.out.print(title + " (path, or - to cancel): ");
+            String path = input.next();
+            return path.equals("-") ? null : new File(path);
+        }
+        if (dialogOwner == null) {
+            dialogOwner = new Frame();
+        }
+        FileDialog fd = new FileDialog(dialogOwner, title, mode);
+        fd.setVisible(true);
+        if (fd.getFile() == null) {
+            return null;
+        }
+        return new File(fd.getDirectory() + fd.getFile());
+    }
+
+    // Use to read the whole content of a file
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream inStream = new FileInputStream(file);
+        byte[] result = inStream.readAllBytes();
+        inStream.close();
+        return result;
+    }
+
     // Use to save the output into file
     private static String saveFile(byte[] result, boolean isHex) {
         System.out.println("Save file as: ");
-        FileDialog fd = new FileDialog(new JFrame(), "Save as", FileDialog.SAVE);
-        fd.setVisible(true);
-        if (fd.getFile() == null) {
+        File file = chooseFile("Save as", FileDialog.SAVE);
+        if (file == null) {
             System.out.println("\nSave file operation was cancelled!! ");
             return "";
         } else {
-            File file = new File(fd.getDirectory() + fd.getFile());
             try {
                 FileOutputStream output = new FileOutputStream(file);
                 if (isHex) {
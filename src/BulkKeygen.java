@@ -0,0 +1,222 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * The bulk key generation, for provisioning many identities at once
+ * Reads one identity per line, [alias<TAB>]secret, where the secret is a passphrase or, with --seeds, a hex seed
+ * (used as the passphrase bytes). Each batch derives the private keys and computes the public keys in parallel
+ * with the shared table of G (CryptoService.publicKeys: projective points, one inversion per batch), then adds
+ * them to a keyring with one sync and/or writes one key file per identity in the format of service 6.
+ * Usage: keygen <input file> [--seeds] [--keyring <name>] [--out <directory>] [--prefix <alias prefix>]
+ *        [--batch <n>]
+ * Without --out the keys go to the keyring (the default one unless --keyring is given).
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class BulkKeygen {
+
+    // Identities per batch: one inversion and one keyring sync each
+    private static final int BATCH = 4096;
+
+    private final CryptoService service = new CryptoService();
+    private final Keyring keyring;
+    private final Path out;
+    private final String comment;
+
+    // Aliases, and digests of the secrets, seen so far, to skip repeated lines. The secrets themselves are
+    // not kept: each is a KMAC under a key drawn for this run, so the set is no dictionary of passphrases.
+    private final Set<String> aliases = new HashSet<>();
+    private final Set<String> secrets = new HashSet<>();
+    private final byte[] secretKey = new byte[32];
+
+    private int generated;
+    private int skipped;
+
+    /**
+     * Set up a bulk key generation.
+     * @param keyring, the keyring to add the keys to (or null)
+     * @param out, the directory of the key files (or null)
+     * @param comment, the comment of the keyring entries
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public BulkKeygen(Keyring keyring, Path out, String comment) {
+        this.keyring = keyring;
+        this.out = out;
+        this.comment = comment;
+        new SecureRandom().nextBytes(secretKey);
+    }
+
+    // getter of the number of keys generated
+    public int getGenerated() {
+        return generated;
+    }
+
+    // getter of the number of lines skipped
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Generate the keys of one batch and store them.
+     * @param names, the aliases
+     * @param pws, the passphrases (or seeds), zeroed once used
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void generate(List<String> names, List<byte[]> pws) throws IOException {
+        EllipticCurve[] V = service.publicKeys(pws.toArray(new byte[0][]));
+        for (byte[] pw : pws) {
+            Arrays.fill(pw, (byte) 0);
+        }
+        List<EllipticCurve> keep = new ArrayList<>();
+        List<String> keepNames = new ArrayList<>();
+        for (int i = 0; i < V.length; i++) {
+            String name = names.get(i);
+            // by alias only: an alias that looks like a fingerprint prefix is still an alias here
+            if (keyring != null && (keyring.resolveAlias(name) != null
+                    || keyring.resolve(CryptoService.toHex(V[i].fingerprint())) != null)) {
+                System.out.println("Skipped " + name + ": alias or key already in the keyring");
+                skipped++;
+                continue;
+            }
+            keep.add(V[i]);
+            keepNames.add(name);
+        }
+        if (keyring != null) {
+            keyring.addAll(keep.toArray(new EllipticCurve[0]), keepNames.toArray(new String[0]), comment);
+        }
+        if (out != null) {
+            for (int i = 0; i < keep.size(); i++) {
+                writeKeyFile(out.resolve(keepNames.get(i)), keep.get(i));
+            }
+        }
+        generated += keep.size();
+    }
+
+    // Parse one input line into the batch, or skip it
+    private void parse(String line, int number, String prefix, boolean seeds, List<String> names, List<byte[]> pws) {
+        int tab = line.indexOf('\t');
+        String name = tab < 0 ? prefix + number : line.substring(0, tab).trim();
+        String secret = tab < 0 ? line : line.substring(tab + 1);
+        if (name.isEmpty() || !name.equals(name.replaceAll("\\s", "")) || name.contains("/")) {
+            System.out.println("Skipped line " + number + ": invalid alias “" + name + "”");
+            skipped++;
+            return;
+        }
+        if (seeds && !secret.trim().matches("([0-9A-Fa-f]{2})+")) {
+            System.out.println("Skipped line " + number + ": not a hex seed");
+            skipped++;
+            return;
+        }
+        byte[] pw = seeds ? CryptoService.fromHex(secret.trim()) : secret.getBytes(StandardCharsets.UTF_8);
+        String digest = CryptoService.toHex(KMACXOF256.KMACXOF256_cal(secretKey, pw, 256, "KG".getBytes()));
+        if (!aliases.add(name) || !secrets.add(digest)) {
+            Arrays.fill(pw, (byte) 0);
+            System.out.println("Skipped line " + number + ": alias or secret repeated");
+            skipped++;
+            return;
+        }
+        names.add(name);
+        pws.add(pw);
+    }
+
+    // Write a public key file of service 6: Vx and Vy as hex lines
+    static void writeKeyFile(Path file, EllipticCurve V) throws IOException {
+        String text = CryptoService.toHex(V.getX().toByteArray()) + System.getProperty("line.separator")
+                + CryptoService.toHex(V.getY().toByteArray());
+        Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Use to generate key pairs in bulk from the command line
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: keygen <input file> [--seeds] [--keyring <name>] [--out <directory>]"
+                    + " [--prefix <alias prefix>] [--batch <n>]");
+            System.out.println("  one identity per line: [alias<TAB>]passphrase, or [alias<TAB>]hex seed with --seeds");
+            System.exit(2);
+        }
+        Path input = Paths.get(args[0]);
+        boolean seeds = false;
+        Path name = null;
+        Path out = null;
+        String prefix = "key-";
+        int batch = BATCH;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seeds":
+                    seeds = true;
+                    break;
+                case "--keyring":
+                    name = Paths.get(args[++i]);
+                    break;
+                case "--out":
+                    out = Paths.get(args[++i]);
+                    break;
+                case "--prefix":
+                    prefix = args[++i];
+                    break;
+                case "--batch":
+                    batch = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if (name == null && out == null) {
+            name = Keyring.defaultName();
+        }
+        if (out != null) {
+            Files.createDirectories(out);
+        }
+        long start = System.nanoTime();
+        Keyring keyring = name == null ? null : new Keyring(name);
+        try {
+            BulkKeygen keygen = new BulkKeygen(keyring, out, "keygen " + input.getFileName());
+            List<String> names = new ArrayList<>();
+            List<byte[]> pws = new ArrayList<>();
+            int number = 0;
+            // line by line, so the lines (and their secrets) of the batches already done can be collected
+            try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    number++;
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    keygen.parse(line, number, prefix, seeds, names, pws);
+                    if (names.size() == batch) {
+                        keygen.generate(names, pws);
+                        names.clear();
+                        pws.clear();
+                    }
+                }
+            }
+            if (!names.isEmpty()) {
+                keygen.generate(names, pws);
+            }
+            if (keyring != null) {
+                keyring.reindex();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d keys generated, %d lines skipped, in %.2f s (%.0f keys/s)%n",
+                    keygen.getGenerated(), keygen.getSkipped(), seconds, keygen.getGenerated() / seconds);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        } finally {
+            if (keyring != null) {
+                keyring.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,448 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * The bulk directory mode
+ * Runs service 1 (hash), 5 (MAC), 7 (encrypt) or 12 (verify) over every file of a directory tree
+ * on a work-stealing pool sized to the cores, and writes one manifest line per file:
+ * <hex result>  <path relative to the root>
+ * Small files are batched into one task, and the hash and MAC reuse one precomputed (keyed)
+ * KMACXOF256 sponge copied per file. The bytes of the files in flight are bounded.
+ * Usage: bulk <hash|hash-parallel|hash-k12|hash-merkle|mac|encrypt|verify> <directory> <manifest>
+ *        [--pw-file <file|->] [--key <public key file>] [--out <directory>] [--memory <MiB>]
+ *        [--index <hash index>] [--rehash] [--compress] [--incremental]
+ * The MAC passphrase is the first line of the --pw-file (of standard input for -), else it is asked on the
+ * console; it is never taken on the command line, where the process list would show it.
+ * With --compress, encrypt writes compressed cryptograms (see CompressedCryptogram).
+ * With --incremental, hash-merkle trusts the <file>.merkle sidecars (see MerkleHash).
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class BulkProcessor {
+
+    // Files below this size are batched together, up to BATCH_BYTES per task
+    private static final long SMALL_FILE = 64 * 1024;
+    private static final long BATCH_BYTES = 1024 * 1024;
+
+    // The largest --memory, in MiB, whose KiB still count in an int of permits
+    public static final int MAX_MEMORY = Integer.MAX_VALUE / 1024;
+
+    private final String operation;
+    private final byte[] pw;
+    private final EllipticCurve V;
+    private final Path out;
+    private final Semaphore memory;
+    // Files already run on every core, so each operation keeps its steps on one thread
+    private final CryptoService service = CryptoService.sequential();
+    private final int memoryPermits;
+
+    // Optional hash index: unchanged files are answered without being read, unless rehash
+    private HashIndex index;
+    private boolean rehash;
+
+    // Deflate each file before encrypting it
+    private boolean compress;
+
+    // Let hash-merkle reuse the unchanged blocks of the <file>.merkle sidecars (opt-in, trusts them)
+    private boolean incremental;
+
+    // Precomputed KMACXOF256 sponge: (“”, “D”) for the hash, (pw, “T”) for the MAC
+    private final Sha3 context;
+
+    /**
+     * Set up a bulk run.
+     * @param operation, hash, hash-parallel, hash-k12, hash-merkle, mac, encrypt or verify
+     * @param pw, the passphrase of the MAC (or null)
+     * @param V, the public key to encrypt to or verify with (or null)
+     * @param out, the directory of the cryptograms when encrypting (or null)
+     * @param memoryMiB, the bound on the bytes of the files in flight, in MiB (clamped to 1..MAX_MEMORY)
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public BulkProcessor(String operation, byte[] pw, EllipticCurve V, Path out, int memoryMiB) {
+        this.operation = operation;
+        this.pw = pw;
+        this.V = V;
+        this.out = out;
+        this.memoryPermits = Math.max(1, Math.min(MAX_MEMORY, memoryMiB)) * 1024;
+        this.memory = new Semaphore(memoryPermits);
+        if (operation.equals("hash")) {
+            context = KMACXOF256.KMACXOF256_init("".getBytes(), "D".getBytes());
+        } else if (operation.equals("mac")) {
+            context = KMACXOF256.KMACXOF256_init(pw, "T".getBytes());
+        } else {
+            context = null;
+        }
+    }
+
+    /**
+     * Answer the hash of unchanged files from the index, and record the others in it.
+     * @param index, the hash index (or null)
+     * @param rehash, true to read and hash every file anyway, ignoring the index and the Merkle sidecars
+     *                (both are still updated), even with setIncremental
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void useIndex(HashIndex index, boolean rehash) {
+        this.index = index;
+        this.rehash = rehash;
+    }
+
+    /**
+     * Write compressed cryptograms when encrypting: each file is deflated before encryption,
+     * unless its start turns out to be incompressible.
+     * @param compress, true to compress
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Let hash-merkle re-hash only the blocks whose CRC32C changed since the <file>.merkle sidecar was written.
+     * The sidecars are not authenticated: only use this on files and sidecars nobody else can write.
+     * @param incremental, true to trust the sidecars
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Walk the tree under root and write the manifest.
+     * @param root, the directory to process
+     * @param manifest, the manifest file to write
+     * @return the number of files that failed (unreadable, or a signature that does not verify)
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public int run(Path root, Path manifest) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(p -> !operation.equals("verify") || !p.toString().endsWith(".sig"))
+                    .filter(p -> !operation.equals("hash-merkle") || !p.toString().endsWith(".merkle"))
+                    .filter(p -> !p.toAbsolutePath().equals(manifest.toAbsolutePath()))
+                    .collect(Collectors.toList());
+        }
+
+        // batch the small files, one task per large file
+        List<List<Path>> batches = new ArrayList<>();
+        List<Path> batch = new ArrayList<>();
+        long batchBytes = 0;
+        for (Path file : files) {
+            long size = Files.size(file);
+            if (size >= SMALL_FILE) {
+                batches.add(List.of(file));
+                continue;
+            }
+            batch.add(file);
+            batchBytes += size;
+            if (batchBytes >= BATCH_BYTES) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+
+        Map<String, String> results = new ConcurrentSkipListMap<>();
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (List<Path> b : batches) {
+                tasks.add(pool.submit(() -> {
+                    for (Path file : b) {
+                        results.put(root.relativize(file).toString(), process(root, file));
+                    }
+                }));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        int failed = 0;
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(manifest))) {
+            writer.println("# " + operation + " " + root.toAbsolutePath());
+            for (Map.Entry<String, String> entry : results.entrySet()) {
+                if (entry.getValue().startsWith("ERROR") || entry.getValue().startsWith("FAILED")) {
+                    failed++;
+                }
+                writer.println(entry.getValue() + "  " + entry.getKey());
+            }
+        }
+        return failed;
+    }
+
+    // Process one file, holding its size (up to the whole budget) against the memory bound.
+    // The wait for the permits is a managed block, so the pool adds a thread instead of starving
+    // the other tasks, and the nested parallel hashes, of the workers it blocks.
+    private String process(Path root, Path file) {
+        BasicFileAttributes attrs = null;
+        if (index != null && operation.equals("hash")) {
+            try {
+                attrs = HashIndex.attributes(file);
+                byte[] h = rehash ? null : index.lookup(file.toAbsolutePath().toString(), attrs);
+                if (h != null) {
+                    return CryptoService.toHex(h);
+                }
+            } catch (IOException e) {
+                return "ERROR " + e.getMessage();
+            }
+        }
+        int permits = 1;
+        try {
+            permits = (int) Math.min(memoryPermits, Math.max(1, Files.size(file) / 1024));
+            int held = permits;
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                private boolean acquired;
+
+                @Override
+                public boolean block() throws InterruptedException {
+                    if (!acquired) {
+                        memory.acquire(held);
+                        acquired = true;
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return acquired || (acquired = memory.tryAcquire(held));
+                }
+            });
+        } catch (IOException e) {
+            return "ERROR " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "ERROR interrupted";
+        }
+        try {
+            switch (operation) {
+                case "hash":
+                    return CryptoService.toHex(hash(file, attrs));
+                case "mac":
+                    return CryptoService.toHex(streamKmac(file));
+                case "hash-parallel":
+                    return CryptoService.toHex(KMACXOF256.ParallelHash256_file(file.toFile(), KMACXOF256.PARALLEL_HASH_BLOCK, 512, "D".getBytes(), false));
+                case "hash-k12":
+                    return CryptoService.toHex(KangarooTwelve.KT128_file(file.toFile(), "D".getBytes(), 512));
+                case "hash-merkle":
+                    return CryptoService.toHex(new MerkleHash(file, MerkleHash.BLOCK_SIZE).hash(incremental && !rehash));
+                case "encrypt":
+                    return encrypt(root, file);
+                case "verify":
+                    return verify(file);
+                default:
+                    return "ERROR unknown operation " + operation;
+            }
+        } catch (IOException | RuntimeException e) {
+            return "ERROR " + e.getMessage();
+        } finally {
+            memory.release(permits);
+        }
+    }
+
+    // Service 1 for one file, recorded in the index if the file did not change while it was read
+    private byte[] hash(Path file, BasicFileAttributes before) throws IOException {
+        byte[] h = streamKmac(file);
+        if (index != null) {
+            BasicFileAttributes after = HashIndex.attributes(file);
+            if (after.size() == before.size() && after.lastModifiedTime().equals(before.lastModifiedTime())) {
+                index.record(file.toAbsolutePath().toString(), before, h);
+            }
+        }
+        return h;
+    }
+
+    // h <- KMACXOF256(“”, m, 512, “D”) or t <- KMACXOF256(pw, m, 512, “T”), from a copy of the shared context
+    private byte[] streamKmac(Path file) throws IOException {
+        return CryptoService.absorb(context.copy(), file);
+    }
+
+    // Service 7 for one file: writes the (Z, c, t) cryptogram under out, returns t.
+    // The file is streamed through the encryption, so it is never held in memory whatever its size.
+    private String encrypt(Path root, Path file) throws IOException {
+        Path target = out.resolve(root.relativize(file).toString() + ".cryptogram");
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        // p = flag || Deflate(m), deflated as the file is read
+        try (InputStream m = Files.newInputStream(file);
+             InputStream p = compress ? CompressedCryptogram.compressing(m) : m) {
+            byte[][] zt = CryptoService.writeCryptogram("encrypt", target, compress ? CompressedCryptogram.HEADER : null,
+                    p, (in, c) -> service.encrypt(V, in, c));
+            return CryptoService.toHex(zt[2]);
+        }
+    }
+
+    // Service 12 for one file, against the signature file <file>.sig (standard or prehashed)
+    private String verify(Path file) throws IOException {
+        Path sig = Paths.get(file.toString() + ".sig");
+        if (!Files.exists(sig)) {
+            return "FAILED no signature";
+        }
+        List<String> lines = readLines(sig);
+        boolean prehash = lines.get(0).equals("SCHNORR-PREHASH-V1");
+        int first = prehash ? 1 : 0;
+        byte[][] signature = {CryptoService.fromHex(lines.get(first)), CryptoService.fromHex(lines.get(first + 1))};
+        boolean valid;
+        if (prehash) {
+            try (InputStream in = Files.newInputStream(file)) {
+                valid = service.verifyPrehashed(V, signature, in);
+            }
+        } else {
+            valid = service.verify(V, signature, file);
+        }
+        return valid ? "OK" : "FAILED";
+    }
+
+    // The non-empty, trimmed lines of a text file (key, signature and cryptogram files)
+    static List<String> readLines(Path file) throws IOException {
+        return Files.readAllLines(file).stream().map(String::trim).filter(l -> !l.isEmpty()).collect(Collectors.toList());
+    }
+
+    // Read a passphrase: the first line of file (of standard input for "-"), or from the console if file is null.
+    // Standard input is read a byte at a time, so what follows the line is left for the caller.
+    static byte[] readPassphrase(String file) throws IOException {
+        if (file == null) {
+            if (System.console() == null) {
+                throw new IOException("No console to ask the passphrase on: give it with --pw-file <file|->");
+            }
+            char[] pw = System.console().readPassword("Passphrase: ");
+            if (pw == null) {
+                throw new IOException("No passphrase given");
+            }
+            byte[] bytes = new String(pw).getBytes();
+            Arrays.fill(pw, '\0');
+            return bytes;
+        }
+        if (!file.equals("-")) {
+            List<String> lines = Files.readAllLines(Paths.get(file));
+            return lines.isEmpty() ? new byte[0] : lines.get(0).getBytes();
+        }
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b = System.in.read(); b >= 0 && b != '\n'; b = System.in.read()) {
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int len = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return Arrays.copyOf(bytes, len);
+    }
+
+    // Use to run the bulk mode from the command line: see the usage above
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: bulk <hash|hash-parallel|hash-k12|hash-merkle|mac|encrypt|verify> <directory> <manifest>"
+                    + " [--pw-file <file|->] [--key <public key file>] [--out <directory>] [--memory <MiB>]"
+                    + " [--index <hash index>] [--rehash] [--compress] [--incremental]");
+            System.exit(2);
+        }
+        String operation = args[0];
+        String pwFile = null;
+        EllipticCurve V = null;
+        Path out = null;
+        int memoryMiB = 256;
+        Path indexName = null;
+        boolean rehash = false;
+        boolean compress = false;
+        boolean incremental = false;
+        for (int i = 3; i < args.length; i += 2) {
+            if (args[i].equals("--rehash") || args[i].equals("--compress") || args[i].equals("--incremental")) {
+                rehash |= args[i].equals("--rehash");
+                compress |= args[i].equals("--compress");
+                incremental |= args[i].equals("--incremental");
+                i--;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                System.out.println("Missing the value of " + args[i]);
+                System.exit(2);
+            }
+            switch (args[i]) {
+                case "--pw-file":
+                    pwFile = args[i + 1];
+                    break;
+                case "--key":
+                    List<String> key = readLines(Paths.get(args[i + 1]));
+                    V = new EllipticCurve(new BigInteger(CryptoService.fromHex(key.get(0))), new BigInteger(CryptoService.fromHex(key.get(1))));
+                    break;
+                case "--out":
+                    out = Paths.get(args[i + 1]);
+                    break;
+                case "--memory":
+                    try {
+                        memoryMiB = Integer.parseInt(args[i + 1]);
+                    } catch (NumberFormatException e) {
+                        memoryMiB = 0;
+                    }
+                    if (memoryMiB < 1 || memoryMiB > MAX_MEMORY) {
+                        System.out.println("--memory must be from 1 to " + MAX_MEMORY + " MiB");
+                        System.exit(2);
+                    }
+                    break;
+                case "--index":
+                    indexName = Paths.get(args[i + 1]);
+                    break;
+                case "--pw":
+                    System.out.println("--pw is not accepted, the process list would show the passphrase:"
+                            + " use --pw-file <file|-> or the console prompt");
+                    System.exit(2);
+                    break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if (((operation.equals("encrypt") || operation.equals("verify")) && V == null)
+                || (operation.equals("encrypt") && out == null)) {
+            System.out.println("Missing --key or --out for " + operation);
+            System.exit(2);
+        }
+        byte[] pw = null;
+        if (operation.equals("mac")) {
+            try {
+                pw = readPassphrase(pwFile);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                System.exit(2);
+            }
+        }
+
+        long start = System.nanoTime();
+        BulkProcessor bulk = new BulkProcessor(operation, pw, V, out, memoryMiB);
+        bulk.setCompress(compress);
+        bulk.setIncremental(incremental);
+        int failed;
+        if (indexName != null) {
+            try (HashIndex index = new HashIndex(indexName)) {
+                bulk.useIndex(index, rehash);
+                failed = bulk.run(Paths.get(args[1]), Paths.get(args[2]));
+            }
+        } else {
+            bulk.useIndex(null, rehash);
+            failed = bulk.run(Paths.get(args[1]), Paths.get(args[2]));
+        }
+        System.out.println("Manifest written to " + args[2] + " in " + (System.nanoTime() - start) / 1000000 + " ms"
+                + (failed > 0 ? ", " + failed + " failed" : ""));
+        System.exit(failed > 0 ? 1 : 0);
+    }
+}
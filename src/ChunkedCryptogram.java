@@ -0,0 +1,311 @@
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/*
+ * The chunked (seekable) cryptogram format
+ * The payload is split into fixed-size chunks. Each chunk i has its own keystream and tag:
+ * c_i <- KMACXOF256(ke, left_encode(i), |m_i|, “SKE”) xor m_i
+ * t_i <- KMACXOF256(ka, left_encode(i) || m_i, 512, “SKA”)
+ * T <- KMACXOF256(ka, t_0 || ... || t_n-1 || right_encode(chunk size) || right_encode(|m|) || right_encode(n), 512, “SKAF”)
+ * with the big-endian left_encode and right_encode of SP 800-185, on 64-bit i and |m|.
+ * The file is text lines (the header, then z, or Zx and Zy) followed by a binary body:
+ * chunk size (4 bytes) || c_0 || t_0 || ... || c_n-1 || t_n-1 || |m| (8 bytes) || T
+ * Every record c_i || t_i but the last is chunk size + 64 bytes long, so chunk i is found by a seek; a file
+ * is encrypted from a stream, and a byte range is decrypted by reading the tags and the chunks of the range
+ * only. T binds the chunk size and |m|, so a file cut, padded or read with another chunk size is rejected.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class ChunkedCryptogram {
+
+    // Cryptogram identifier, written as the first line of a chunked cryptogram file
+    public static final String HEADER = "KMACXOF256-CHUNKED-V3";
+
+    // Default chunk size: 1 MiB
+    public static final int CHUNK_SIZE = 1 << 20;
+
+    // Suffix of the customization string used for the final tag
+    private static final byte[] FINAL_TAG = "F".getBytes();
+
+    // Size of t_i and T, and of the trailer |m| || T
+    private static final int TAG = 64;
+    private static final int TRAILER = 8 + TAG;
+
+    // Longest text part (header and key lines) read before the body
+    private static final int MAX_PREFIX = 4096;
+
+    /**
+     * Write the text part of a chunked cryptogram file: the header, then each field as a hex line.
+     * @param out, the file
+     * @param fields, z, or Zx and Zy
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static void writePrefix(OutputStream out, byte[]... fields) throws IOException {
+        StringBuilder prefix = new StringBuilder(HEADER).append('\n');
+        for (byte[] field : fields) {
+            prefix.append(CryptoService.toHex(field)).append('\n');
+        }
+        out.write(prefix.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Read the text part of a chunked cryptogram file and leave the channel at the start of the body.
+     * @param channel, the file
+     * @param fields, the number of hex lines after the header
+     * @return the fields, or null if the file does not start with the header
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[][] readPrefix(FileChannel channel, int fields) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(MAX_PREFIX, channel.size()));
+        readFully(channel, buf, 0);
+        List<String> lines = new ArrayList<>();
+        int from = 0;
+        for (int i = 0; i < buf.limit() && lines.size() <= fields; i++) {
+            if (buf.get(i) == '\n') {
+                lines.add(new String(buf.array(), from, i - from, StandardCharsets.US_ASCII).trim());
+                from = i + 1;
+            }
+        }
+        if (lines.size() <= fields || !lines.get(0).equals(HEADER)) {
+            return null;
+        }
+        byte[][] result = new byte[fields][];
+        for (int i = 0; i < fields; i++) {
+            if (!lines.get(i + 1).matches("([0-9A-Fa-f]{2})+")) {
+                return null;
+            }
+            result[i] = CryptoService.fromHex(lines.get(i + 1));
+        }
+        channel.position(from);
+        return result;
+    }
+
+    /**
+     * Encrypt a stream chunk by chunk, a batch of chunks at a time on the common fork-join pool,
+     * and write the body: chunk size, the records c_i || t_i, |m| and T. Memory is bounded by the batch.
+     * @param ke, the encryption key
+     * @param ka, the authentication key
+     * @param in, the plaintext m, read once
+     * @param out, receives the body (not closed)
+     * @param chunkSize, the size of each chunk in bytes (the last chunk may be shorter)
+     * @param keLabel, the keystream customization string (“SKE” or “PKE”)
+     * @param kaLabel, the tag customization string (“SKA” or “PKA”)
+     * @return |m|
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static long encrypt(byte[] ke, byte[] ka, InputStream in, OutputStream out, int chunkSize,
+                               byte[] keLabel, byte[] kaLabel) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be positive");
+        }
+        Sha3 keystream = KMACXOF256.KMACXOF256_init(ke, keLabel);
+        Sha3 mac = KMACXOF256.KMACXOF256_init(ka, kaLabel);
+        Sha3 last = KMACXOF256.KMACXOF256_init(ka, KMACXOF256.concat(kaLabel, FINAL_TAG));
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(chunkSize);
+
+        byte[][] records = new byte[batchSize(chunkSize)][chunkSize + TAG];
+        int[] lengths = new int[records.length];
+        long length = 0;
+        long n = 0;
+        boolean end = false;
+        while (!end) {
+            int k = 0;
+            while (k < records.length && !end) {
+                lengths[k] = in.readNBytes(records[k], 0, chunkSize);
+                end = lengths[k] < chunkSize;
+                if (lengths[k] > 0) {
+                    k++;
+                }
+            }
+            long first = n;
+            IntStream.range(0, k).parallel().forEach(j -> {
+                // t_i over m_i, then c_i over m_i in place, then t_i after it
+                byte[] t_i = chunkTag(mac, first + j, records[j], lengths[j]);
+                xorKeystream(keystream, first + j, records[j], lengths[j]);
+                System.arraycopy(t_i, 0, records[j], lengths[j], TAG);
+            });
+            for (int j = 0; j < k; j++) {
+                data.write(records[j], 0, lengths[j] + TAG);
+                last.SHAKE256_update(records[j], lengths[j], TAG);
+                length += lengths[j];
+                n++;
+            }
+        }
+        data.writeLong(length);
+        data.write(finalTag(last, chunkSize, length, n));
+        data.flush();
+        return length;
+    }
+
+    /**
+     * |m| of the body that starts at the given position of the file.
+     * @param channel, the file
+     * @param body, the position of the body (see readPrefix)
+     * @return |m|, or -1 if the size of the file is not the one the chunk size and |m| imply
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static long length(FileChannel channel, long body) throws IOException {
+        long size = channel.size();
+        if (body < 0 || size - body < 4 + TRAILER) {
+            return -1;
+        }
+        int chunkSize = readInt(channel, body);
+        long length = readLong(channel, size - TRAILER);
+        if (chunkSize <= 0 || length < 0 || length > size) {
+            return -1;
+        }
+        long n = chunkCount(length, chunkSize);
+        return body + 4 + length + n * TAG + TRAILER == size ? length : -1;
+    }
+
+    /**
+     * Decrypt and verify only the chunks covering the byte range [start, end), writing the range to out.
+     * T is checked first over the chunk size, |m| and the chunk tags, which are read from their records;
+     * then each chunk of the range is read with a seek, and written only once its own tag matches.
+     * If a chunk fails, what was written before it is verified plaintext of the range, but out is incomplete.
+     * @param ke, the encryption key
+     * @param ka, the authentication key
+     * @param channel, the file
+     * @param body, the position of the body (see readPrefix)
+     * @param start, the first byte of the range (inclusive)
+     * @param end, the last byte of the range (exclusive)
+     * @param keLabel, the keystream customization string
+     * @param kaLabel, the tag customization string
+     * @param out, receives the plaintext of the range
+     * @return true, or false if a tag does not match, the file is malformed or the range is invalid
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static boolean decryptRange(byte[] ke, byte[] ka, FileChannel channel, long body, long start, long end,
+                                       byte[] keLabel, byte[] kaLabel, OutputStream out) throws IOException {
+        long length = length(channel, body);
+        if (length < 0 || start < 0 || start > end || end > length) {
+            return false;
+        }
+        int chunkSize = readInt(channel, body);
+        long n = chunkCount(length, chunkSize);
+        long record = (long) chunkSize + TAG;
+
+        // T <- KMACXOF256(ka, t_0 || ... || t_n-1 || ..., 512, kaLabel || “F”)
+        Sha3 last = KMACXOF256.KMACXOF256_init(ka, KMACXOF256.concat(kaLabel, FINAL_TAG));
+        ByteBuffer t = ByteBuffer.allocate(TAG);
+        for (long i = 0; i < n; i++) {
+            t.clear();
+            readFully(channel, t, body + 4 + i * record + chunkLength(i, n, chunkSize, length));
+            last.SHAKE256_update(t.array(), 0, TAG);
+        }
+        ByteBuffer T = ByteBuffer.allocate(TAG);
+        readFully(channel, T, channel.size() - TAG);
+        if (!Arrays.equals(T.array(), finalTag(last, chunkSize, length, n))) {
+            return false;
+        }
+        if (start == end) {
+            return true;
+        }
+
+        Sha3 keystream = KMACXOF256.KMACXOF256_init(ke, keLabel);
+        Sha3 mac = KMACXOF256.KMACXOF256_init(ka, kaLabel);
+        byte[][] records = new byte[batchSize(chunkSize)][(int) record];
+        int[] lengths = new int[records.length];
+        boolean[] valid = new boolean[records.length];
+        long lastChunk = (end - 1) / chunkSize;
+        for (long first = start / chunkSize; first <= lastChunk; first += records.length) {
+            int k = (int) Math.min(records.length, lastChunk - first + 1);
+            for (int j = 0; j < k; j++) {
+                lengths[j] = chunkLength(first + j, n, chunkSize, length);
+                readFully(channel, ByteBuffer.wrap(records[j], 0, lengths[j] + TAG), body + 4 + (first + j) * record);
+            }
+            long batch = first;
+            IntStream.range(0, k).parallel().forEach(j -> {
+                xorKeystream(keystream, batch + j, records[j], lengths[j]);
+                valid[j] = Arrays.equals(Arrays.copyOfRange(records[j], lengths[j], lengths[j] + TAG),
+                        chunkTag(mac, batch + j, records[j], lengths[j]));
+            });
+            for (int j = 0; j < k; j++) {
+                if (!valid[j]) {
+                    return false;
+                }
+                long at = (first + j) * chunkSize;
+                int from = (int) Math.max(0, start - at);
+                int to = (int) Math.min(lengths[j], end - at);
+                out.write(records[j], from, to - from);
+            }
+        }
+        return true;
+    }
+
+    // Number of chunks needed to hold len bytes
+    public static long chunkCount(long len, int chunkSize) {
+        return (len + chunkSize - 1) / chunkSize;
+    }
+
+    // |m_i|: every chunk but the last is chunkSize bytes long, the last one holds the rest of m
+    private static int chunkLength(long i, long n, int chunkSize, long length) {
+        return (int) (i < n - 1 ? chunkSize : length - (n - 1) * chunkSize);
+    }
+
+    // As many chunks per batch as the pool has workers, within 64 MiB
+    private static int batchSize(int chunkSize) {
+        int workers = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+        return (int) Math.max(1, Math.min(workers, (64L << 20) / ((long) chunkSize + TAG)));
+    }
+
+    // c_i <- KMACXOF256(ke, left_encode(i), |m_i|, keLabel) xor m_i, in place, from a copy of the keyed sponge
+    private static void xorKeystream(Sha3 keystream, long i, byte[] data, int len) {
+        Sha3 sha = keystream.copy();
+        byte[] index = KMACXOF256.nist_left_encode(i);
+        sha.SHAKE256_update(index, 0, index.length);
+        KMACXOF256.KMACXOF256_xof(sha);
+        sha.SHAKE_xor(data, 0, len);
+    }
+
+    // t_i <- KMACXOF256(ka, left_encode(i) || m_i, 512, kaLabel), from a copy of the keyed sponge
+    private static byte[] chunkTag(Sha3 mac, long i, byte[] m_i, int len) {
+        Sha3 sha = mac.copy();
+        byte[] index = KMACXOF256.nist_left_encode(i);
+        sha.SHAKE256_update(index, 0, index.length);
+        sha.SHAKE256_update(m_i, 0, len);
+        return KMACXOF256.KMACXOF256_final(sha, 512);
+    }
+
+    // T, once t_0 .. t_n-1 are absorbed: right_encode(chunk size) || right_encode(|m|) || right_encode(n)
+    private static byte[] finalTag(Sha3 last, int chunkSize, long length, long n) {
+        byte[] tail = KMACXOF256.concat(KMACXOF256.concat(KMACXOF256.nist_right_encode(chunkSize),
+                KMACXOF256.nist_right_encode(length)), KMACXOF256.nist_right_encode(n));
+        last.SHAKE256_update(tail, 0, tail.length);
+        return KMACXOF256.KMACXOF256_final(last, 512);
+    }
+
+    private static int readInt(FileChannel channel, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        readFully(channel, buf, position);
+        return buf.getInt(0);
+    }
+
+    private static long readLong(FileChannel channel, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        readFully(channel, buf, position);
+        return buf.getLong(0);
+    }
+
+    // Positional read of buf, from its position 0, at position of the file
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException("Chunked cryptogram cut short");
+            }
+        }
+    }
+}
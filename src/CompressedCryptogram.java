@@ -0,0 +1,136 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/*
+ * The compressed cryptogram
+ * A standard cryptogram, (z, c, t) or (Z, c, t), behind a header line, whose plaintext is p <- flag || payload:
+ * flag 1: payload = Deflate(m) (raw, java.util.zip); flag 0: payload = m as is.
+ * The deflate stage runs as a stream ahead of the keystream and the MAC, so they (and the hex output) only
+ * handle the compressed bytes. It is bypassed (flag 0) when the first 64 KiB of m do not shrink by an eighth:
+ * already compressed, encrypted or random data is not deflated again.
+ * The flag is under the keystream and the tag, so it is authenticated along with m.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class CompressedCryptogram {
+
+    // Cryptogram identifier, written as the first line of a compressed cryptogram file
+    public static final String HEADER = "KMACXOF256-DEFLATE-V1";
+
+    // First byte of p
+    static final byte STORED = 0;
+    static final byte DEFLATED = 1;
+
+    // Bytes of m sampled to decide whether to deflate
+    static final int SAMPLE = 1 << 16;
+
+    /**
+     * Stream p <- flag || payload out of m, deflating m on the fly unless its start is incompressible.
+     * @param in, m
+     * @return p, to encrypt instead of m
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static InputStream compressing(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, SAMPLE);
+        buffered.mark(SAMPLE);
+        byte[] sample = buffered.readNBytes(SAMPLE);
+        buffered.reset();
+        boolean deflate = worthDeflating(sample);
+        InputStream payload = buffered;
+        if (deflate) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            payload = new DeflaterInputStream(buffered, deflater) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+        return new SequenceInputStream(new ByteArrayInputStream(new byte[] {deflate ? DEFLATED : STORED}), payload);
+    }
+
+    /**
+     * p <- flag || payload for a message in memory.
+     * @param m, the message
+     * @return p
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] compress(byte[] m) {
+        try (InputStream p = compressing(new ByteArrayInputStream(m))) {
+            return p.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // not thrown by in-memory streams
+        }
+    }
+
+    /**
+     * Stream m back out of p.
+     * @param in, p
+     * @return m
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static InputStream decompressing(InputStream in) throws IOException {
+        int flag = in.read();
+        if (flag == DEFLATED) {
+            return new InflaterInputStream(in, new Inflater(true));
+        }
+        if (flag != STORED) {
+            throw new IOException("Not a compressed cryptogram payload");
+        }
+        return in;
+    }
+
+    /**
+     * m out of p, once the tag of the cryptogram is verified.
+     * @param p, flag || payload, or null if the tag did not verify
+     * @return m, or null if p is null
+     * @throws IllegalArgumentException if p is not a valid payload
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] decompress(byte[] p) {
+        if (p == null) {
+            return null;
+        }
+        if (p.length > 0 && p[0] == STORED) {
+            return Arrays.copyOfRange(p, 1, p.length);
+        }
+        try (InputStream m = decompressing(new ByteArrayInputStream(p))) {
+            return m.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid compressed payload: " + e.getMessage());
+        }
+    }
+
+    // Deflate the sample; worth it if it shrinks by at least an eighth
+    private static boolean worthDeflating(byte[] sample) {
+        if (sample.length == 0) {
+            return false;
+        }
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] out = new byte[sample.length];
+            int size = 0;
+            while (!deflater.finished() && size < out.length) {
+                size += deflater.deflate(out, size, out.length - size);
+            }
+            return deflater.finished() && size <= sample.length - sample.length / 8;
+        } finally {
+            deflater.end();
+        }
+    }
+}
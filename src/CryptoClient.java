@@ -0,0 +1,200 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * The thin client of the crypto daemon
+ * Sends file paths (read by the daemon; over --port, the file bytes) or standard input ("-") and prints the result in the hex-line
+ * formats of the application: a cryptogram is Zx, Zy, c, t and a signature is h, z.
+ * Usage: client [--socket <path> | --port <port>] [--pw-file <file|->] <operation> ...
+ *        hash <file|->
+ *        mac <file|->
+ *        encrypt <public key file> <file|->
+ *        decrypt <cryptogram file>
+ *        sign <file|->
+ *        verify <public key file> <signature file> <file|->
+ * The passphrase of mac, decrypt and sign is the first line of the --pw-file (of standard input for -, the
+ * message then being the rest of it), else it is asked on the console; it is never taken on the command line.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class CryptoClient implements AutoCloseable {
+
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private int status;
+
+    /**
+     * Connect to the daemon.
+     * @param address, the UnixDomainSocketAddress or loopback InetSocketAddress of the daemon
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public CryptoClient(SocketAddress address) throws IOException {
+        channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+        channel.connect(address);
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    /**
+     * Send one request and wait for its response.
+     * @param op, the operation (CryptoDaemon.HASH ... VERIFY, possibly with CryptoDaemon.FILE)
+     * @param args, its arguments
+     * @return the fields of the response; status() tells OK, REJECTED or ERROR
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[][] call(int op, byte[]... args) throws IOException {
+        out.writeByte(CryptoDaemon.VERSION);
+        out.writeByte(op);
+        out.writeShort(args.length);
+        for (byte[] arg : args) {
+            out.writeInt(arg.length);
+            out.write(arg);
+        }
+        out.flush();
+
+        status = in.readUnsignedByte();
+        byte[][] fields = new byte[in.readUnsignedShort()][];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new byte[in.readInt()];
+            in.readFully(fields[i]);
+        }
+        if (status == CryptoDaemon.ERROR) {
+            throw new IOException("Daemon error: " + new String(fields[0], StandardCharsets.UTF_8));
+        }
+        return fields;
+    }
+
+    /**
+     * @return the status of the last response
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public int status() {
+        return status;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // The message argument: the absolute path (with the FILE flag), or the bytes of standard input, or over
+    // the loopback port, where the daemon reads no files, the bytes of the file
+    private static byte[] message(String arg, boolean local) throws IOException {
+        if (arg.equals("-")) {
+            return System.in.readAllBytes();
+        }
+        return local ? Paths.get(arg).toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8)
+                : Files.readAllBytes(Paths.get(arg));
+    }
+
+    private static int withFile(int op, String arg, boolean local) {
+        return arg.equals("-") || !local ? op : op | CryptoDaemon.FILE;
+    }
+
+    // Use to run the client from the command line: see the usage above
+    public static void main(String[] args) throws IOException {
+        SocketAddress address = UnixDomainSocketAddress.of(CryptoDaemon.defaultSocket());
+        String pwFile = null;
+        int i = 0;
+        for (; i + 1 < args.length && args[i].startsWith("--"); i += 2) {
+            if (args[i].equals("--socket")) {
+                address = UnixDomainSocketAddress.of(args[i + 1]);
+            } else if (args[i].equals("--port")) {
+                address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[i + 1]));
+            } else if (args[i].equals("--pw-file")) {
+                pwFile = args[i + 1];
+            } else {
+                System.out.println("Unknown option " + args[i]);
+                System.exit(2);
+            }
+        }
+        if (args.length < i + 2) {
+            System.out.println("Usage: client [--socket <path> | --port <port>] [--pw-file <file|->]"
+                    + " <hash|mac|encrypt|decrypt|sign|verify> ...");
+            System.exit(2);
+        }
+        String op = args[i];
+        String[] a = Arrays.copyOfRange(args, i + 1, args.length);
+        boolean local = address instanceof UnixDomainSocketAddress;
+        byte[] pw = null;
+        if (op.equals("mac") || op.equals("decrypt") || op.equals("sign")) {
+            try {
+                pw = BulkProcessor.readPassphrase(pwFile);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                System.exit(2);
+            }
+        }
+
+        try (CryptoClient client = new CryptoClient(address)) {
+            byte[][] result;
+            switch (op) {
+                case "hash":
+                    result = client.call(withFile(CryptoDaemon.HASH, a[0], local), message(a[0], local));
+                    break;
+                case "mac":
+                    result = client.call(withFile(CryptoDaemon.MAC, a[0], local), pw, message(a[0], local));
+                    break;
+                case "encrypt": {
+                    List<String> key = BulkProcessor.readLines(Paths.get(a[0]));
+                    result = client.call(withFile(CryptoDaemon.ENCRYPT, a[1], local), CryptoService.fromHex(key.get(0)),
+                            CryptoService.fromHex(key.get(1)), message(a[1], local));
+                    break;
+                }
+                case "decrypt": {
+                    List<String> c = BulkProcessor.readLines(Paths.get(a[0]));
+                    result = client.call(CryptoDaemon.DECRYPT, pw, CryptoService.fromHex(c.get(0)),
+                            CryptoService.fromHex(c.get(1)), CryptoService.fromHex(c.get(2)), CryptoService.fromHex(c.get(3)));
+                    if (client.status() == CryptoDaemon.OK) {
+                        System.out.write(result[0]);
+                        System.out.flush();
+                        return;
+                    }
+                    break;
+                }
+                case "sign":
+                    result = client.call(withFile(CryptoDaemon.SIGN, a[0], local), pw, message(a[0], local));
+                    break;
+                case "verify": {
+                    List<String> key = BulkProcessor.readLines(Paths.get(a[0]));
+                    List<String> sig = BulkProcessor.readLines(Paths.get(a[1]));
+                    result = client.call(withFile(CryptoDaemon.VERIFY, a[2], local), CryptoService.fromHex(key.get(0)),
+                            CryptoService.fromHex(key.get(1)), CryptoService.fromHex(sig.get(0)),
+                            CryptoService.fromHex(sig.get(1)), message(a[2], local));
+                    System.out.println(client.status() == CryptoDaemon.OK ? "OK" : "FAILED");
+                    System.exit(client.status() == CryptoDaemon.OK ? 0 : 1);
+                    return;
+                }
+                default:
+                    System.out.println("Unknown operation " + op);
+                    System.exit(2);
+                    return;
+            }
+            if (client.status() == CryptoDaemon.REJECTED) {
+                System.out.println("Wrong password -> Error decrypting the text!!");
+                System.exit(1);
+            }
+            for (byte[] field : result) {
+                System.out.println(CryptoService.toHex(field));
+            }
+        }
+    }
+}
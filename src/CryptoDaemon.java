@@ -0,0 +1,347 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/*
+ * The crypto daemon
+ * A long-running process that serves hash, MAC, elliptic encrypt/decrypt, sign and verify (services 1, 5,
+ * 7, 8, 11 and 12) over a Unix domain socket, or over a loopback TCP port when started with --port, so the
+ * class loading, JIT warm-up and curve setup are paid once.
+ * The socket is created inside a directory only its owner can enter (0700), so no other local user can
+ * connect. The loopback port is open to every local user: it serves messages sent with the request only,
+ * never the FILE operations, which would read files with the rights of the daemon.
+ * Each connection is served on a virtual thread when the JVM has them, else on a cached thread pool.
+ * At most MAX_CONNECTIONS are served at once (the others wait in the listen backlog), and the arguments
+ * buffered by all of them together are bounded by MAX_IN_FLIGHT: a request that would exceed it is refused
+ * as busy and its connection closed. Public keys sent by a client must be points of E521 other than O.
+ * The fixed-base table of G and those of recently used public keys stay warm in the CryptoService.
+ *
+ * Protocol (all integers big-endian), any number of requests per connection:
+ * request:  version (1 byte), op (1 byte), argument count (2 bytes), arguments
+ * response: status (1 byte: OK, REJECTED or ERROR), field count (2 bytes), fields
+ * argument/field: length (4 bytes), bytes
+ * With the FILE flag on the op, the last argument (the message m) is a path the daemon reads itself
+ * (Unix domain socket only). A request holds at most 8 arguments and 256 MiB in all: larger messages go by FILE.
+ * Usage: daemon [--socket <path> | --port <port>]
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class CryptoDaemon {
+
+    public static final int VERSION = 1;
+
+    // Operations: arguments -> fields
+    public static final int HASH = 1;       // m -> h
+    public static final int MAC = 2;        // pw, m -> t
+    public static final int ENCRYPT = 3;    // Vx, Vy, m -> Zx, Zy, c, t
+    public static final int DECRYPT = 4;    // pw, Zx, Zy, c, t -> m (REJECTED if t’ ≠ t)
+    public static final int SIGN = 5;       // pw, m -> h, z
+    public static final int VERIFY = 6;     // Vx, Vy, h, z, m -> (REJECTED if the signature does not verify)
+    public static final int FILE = 0x40;
+
+    // Response status
+    public static final int OK = 0;
+    public static final int REJECTED = 1;
+    public static final int ERROR = 2;
+
+    // Most arguments in a request (an operation takes at most 5)
+    private static final int MAX_ARGUMENTS = 8;
+
+    // Largest request accepted, all arguments together, in bytes
+    private static final int MAX_REQUEST = 1 << 28;
+
+    // Most connections served at once
+    private static final int MAX_CONNECTIONS = 64;
+
+    // Most request bytes buffered over all connections, counted in KiB permits (1 GiB)
+    private static final int MAX_IN_FLIGHT = 1 << 20;
+    private static final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+    // Default loopback port
+    public static final int PORT = 7521;
+
+    // The service every request delegates to; its fixed-base tables stay warm between requests
+    private static final CryptoService service = new CryptoService();
+
+    /**
+     * The default Unix domain socket of the daemon, in an owner-only directory of the temporary directory.
+     * @return the socket path
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static Path defaultSocket() {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "cryptoapp-" + System.getProperty("user.name"), "daemon.sock");
+    }
+
+    /**
+     * Serve requests until the process is stopped.
+     * @param socket, the Unix domain socket to listen on (or null for the loopback port)
+     * @param port, the loopback port, used if socket is null
+     * @throws IOException if the socket cannot be made owner-only, or Unix domain sockets are unavailable
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static void serve(Path socket, int port) throws IOException {
+        ServerSocketChannel server;
+        SocketAddress address;
+        boolean local = socket != null;
+        if (local) {
+            try {
+                server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            } catch (UnsupportedOperationException e) {
+                throw new IOException("Unix domain sockets are unavailable: start the daemon with --port");
+            }
+            socket = socket.toAbsolutePath();
+            ownerOnlyDirectory(socket.getParent());
+            Files.deleteIfExists(socket);
+            address = UnixDomainSocketAddress.of(socket);
+            server.bind(address);
+        } else {
+            server = ServerSocketChannel.open();
+            address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+            server.bind(address);
+        }
+        warmUp();
+        System.out.println("Crypto daemon listening on " + address
+                + (local ? "" : " (any local user can connect: FILE operations are refused)"));
+
+        ExecutorService executor = newExecutor();
+        Semaphore connections = new Semaphore(MAX_CONNECTIONS);
+        while (true) {
+            try {
+                connections.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a connection slot");
+            }
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                connections.release();
+                throw e;
+            }
+            executor.submit(() -> {
+                try (SocketChannel c = channel) {
+                    serveConnection(c, local);
+                } catch (IOException e) {
+                    // the client went away
+                } finally {
+                    connections.release();
+                }
+            });
+        }
+    }
+
+    // Create the directory of the socket as owner-only (0700), or check that it is, before the socket is bound
+    private static void ownerOnlyDirectory(Path directory) throws IOException {
+        Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rwx------");
+        try {
+            if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+                Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(ownerOnly));
+            }
+            // created by us, or already there: either way it must be ours and closed to everyone else
+            if (!Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS).getName().equals(System.getProperty("user.name"))
+                    || !Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS).equals(ownerOnly)) {
+                throw new IOException("The socket directory " + directory + " must belong to "
+                        + System.getProperty("user.name") + " with permissions rwx------");
+            }
+        } catch (UnsupportedOperationException e) {
+            throw new IOException("Cannot restrict the socket directory " + directory + " to its owner on this file system");
+        }
+    }
+
+    // A virtual thread per task on a JVM that has them, else a cached thread pool
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // Read requests and write responses until the client closes the connection; files only for local clients.
+    // The arguments of a request hold their KiB against MAX_IN_FLIGHT until its response is written.
+    private static void serveConnection(SocketChannel channel, boolean local) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        while (true) {
+            int version;
+            try {
+                version = in.readUnsignedByte();
+            } catch (EOFException e) {
+                return;
+            }
+            int op = in.readUnsignedByte();
+            int count = in.readUnsignedShort();
+            if (count > MAX_ARGUMENTS) {
+                writeResponse(out, ERROR, new byte[][] {"Too many arguments".getBytes()});
+                return;
+            }
+            byte[][] args = new byte[count][];
+            long total = 0;
+            int held = 0;
+            try {
+                for (int i = 0; i < args.length; i++) {
+                    int len = in.readInt();
+                    total += len;
+                    if (len < 0 || total > MAX_REQUEST) {
+                        writeResponse(out, ERROR, new byte[][] {"Request too large".getBytes()});
+                        return;
+                    }
+                    // never wait for room here: two half-read requests would wait on each other
+                    int permits = (int) ((len + 1023L) / 1024);
+                    if (!inFlight.tryAcquire(permits)) {
+                        writeResponse(out, ERROR, new byte[][] {"Daemon busy, retry later".getBytes()});
+                        return;
+                    }
+                    held += permits;
+                    // grows with the bytes that actually arrive, not with the announced length
+                    args[i] = in.readNBytes(len);
+                    if (args[i].length != len) {
+                        return;
+                    }
+                }
+                int status;
+                byte[][] fields;
+                try {
+                    if (version != VERSION) {
+                        throw new IllegalArgumentException("Unsupported protocol version " + version);
+                    }
+                    if ((op & FILE) != 0 && !local) {
+                        throw new IllegalArgumentException("FILE operations are only served over the Unix domain socket");
+                    }
+                    fields = handle(op, args);
+                    status = fields == null ? REJECTED : OK;
+                } catch (IOException | RuntimeException e) {
+                    status = ERROR;
+                    fields = new byte[][] {String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8)};
+                }
+                writeResponse(out, status, fields == null ? new byte[0][] : fields);
+            } finally {
+                inFlight.release(held);
+            }
+        }
+    }
+
+    private static void writeResponse(DataOutputStream out, int status, byte[][] fields) throws IOException {
+        out.writeByte(status);
+        out.writeShort(fields.length);
+        for (byte[] field : fields) {
+            out.writeInt(field.length);
+            out.write(field);
+        }
+        out.flush();
+    }
+
+    /**
+     * Run one operation.
+     * @param op, the operation, possibly with the FILE flag
+     * @param args, its arguments
+     * @return the fields of the result, or null if a tag or signature does not verify
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    static byte[][] handle(int op, byte[][] args) throws IOException {
+        boolean file = (op & FILE) != 0;
+        switch (op & ~FILE) {
+            case HASH:
+                expect(args, 1);
+                return new byte[][] {file ? service.hash(path(args[0])) : service.hash(args[0])};
+            case MAC:
+                expect(args, 2);
+                return new byte[][] {file ? service.mac(args[0], path(args[1])) : service.mac(args[0], args[1])};
+            case ENCRYPT:
+                expect(args, 3);
+                EllipticCurve V = publicKey(args[0], args[1]);
+                return file ? service.encrypt(V, path(args[2])) : service.encrypt(V, args[2]);
+            case DECRYPT: {
+                expect(args, 5);
+                byte[] m = service.decrypt(args[0], Arrays.copyOfRange(args, 1, 5));
+                return m == null ? null : new byte[][] {m};
+            }
+            case SIGN:
+                expect(args, 2);
+                return file ? service.sign(args[0], path(args[1])) : service.sign(args[0], args[1]);
+            case VERIFY: {
+                expect(args, 5);
+                EllipticCurve key = publicKey(args[0], args[1]);
+                byte[][] signature = {args[2], args[3]};
+                boolean valid = file ? service.verify(key, signature, path(args[4])) : service.verify(key, signature, args[4]);
+                return valid ? new byte[0][] : null;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown operation " + op);
+        }
+    }
+
+    private static void expect(byte[][] args, int count) {
+        if (args.length != count) {
+            throw new IllegalArgumentException("Expected " + count + " arguments, got " + args.length);
+        }
+    }
+
+    // A public key sent by a client: refused unless it is a point of E521 other than O
+    private static EllipticCurve publicKey(byte[] x, byte[] y) {
+        EllipticCurve V = new EllipticCurve(new BigInteger(x), new BigInteger(y));
+        if (!V.isOnCurve() || V.equals(new EllipticCurve())) {
+            throw new IllegalArgumentException("The public key is not a point of E521");
+        }
+        return V;
+    }
+
+    private static Path path(byte[] arg) {
+        return Paths.get(new String(arg, StandardCharsets.UTF_8));
+    }
+
+    // Run every operation a few times, so the first client does not pay for the JIT
+    private static void warmUp() {
+        byte[] pw = "warm-up".getBytes();
+        EllipticCurve V = service.publicKey(pw);
+        byte[] m = new byte[4096];
+        for (int i = 0; i < 3; i++) {
+            service.decrypt(pw, service.encrypt(V, m));
+            service.verify(V, service.sign(pw, m), m);
+            service.mac(pw, m);
+            service.hash(m);
+        }
+    }
+
+    // Use to run the daemon from the command line: see the usage above
+    public static void main(String[] args) throws IOException {
+        Path socket = defaultSocket();
+        int port = PORT;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--socket")) {
+                socket = Paths.get(args[i + 1]);
+            } else if (args[i].equals("--port")) {
+                socket = null;
+                port = Integer.parseInt(args[i + 1]);
+            }
+        }
+        serve(socket, port);
+    }
+}
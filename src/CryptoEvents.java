@@ -0,0 +1,84 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * The Flight Recorder events of the crypto hot paths
+ * Emitted only when CryptoStats.ENABLED is set (-Dcrypto.instrument=true) and a recording is running, e.g.
+ * jcmd <pid> JFR.start name=crypto settings=profile filename=crypto.jfr
+ * Each event has the duration of what it covers; they show under “Cryptographic Application” in JMC.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public final class CryptoEvents {
+
+    private CryptoEvents() {
+    }
+
+    @Name("cryptoapp.KeccakBatch")
+    @Label("Keccak Batch")
+    @Description("One absorb or squeeze call on a sponge, with the permutations it ran")
+    @Category("Cryptographic Application")
+    @StackTrace(false)
+    public static final class KeccakBatch extends Event {
+        @Label("Squeeze")
+        public boolean squeeze;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Permutations")
+        public long permutations;
+    }
+
+    @Name("cryptoapp.Kmac")
+    @Label("KMACXOF256")
+    @Description("One KMACXOF256_cal call")
+    @Category("Cryptographic Application")
+    public static final class Kmac extends Event {
+        @Label("Customization")
+        public String customization;
+
+        @Label("Input")
+        @DataAmount
+        public long input;
+
+        @Label("Output Bits")
+        public long outputBits;
+    }
+
+    @Name("cryptoapp.ScalarMultiplication")
+    @Label("Scalar Multiplication")
+    @Description("One multiplication of an E521 point by a scalar")
+    @Category("Cryptographic Application")
+    public static final class ScalarMultiplication extends Event {
+        @Label("Scalar Bits")
+        public int bits;
+
+        @Label("Fixed Base")
+        @Description("True if a powersOfTwo table was used")
+        public boolean fixedBase;
+    }
+
+    @Name("cryptoapp.ServicePhase")
+    @Label("Service Phase")
+    @Description("One phase of a service: read, derive, keystream, mac or write")
+    @Category("Cryptographic Application")
+    public static final class ServicePhase extends Event {
+        @Label("Service")
+        public String service;
+
+        @Label("Phase")
+        public String phase;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+}
@@ -0,0 +1,834 @@
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/*
+ * The crypto service: the library facade of the application services
+ * Every flow of the application (hash, MAC, symmetric cryptogram, ECIES, Schnorr sign/verify and the key
+ * derivation from a passphrase) over byte arrays, streams and paths, without any console or file dialog.
+ * The blocking methods run on the caller’s thread; the ...Async variants run on the executor of the
+ * service (virtual threads where the JVM has them, else the common fork-join pool, unless one is given).
+ * Cryptograms and signatures are the byte[][] of their lines in the application’s file formats:
+ * symmetric (z, c, t), elliptic (Zx, Zy, c, t), signature (h, z).
+ * Within one operation the independent steps form a small task graph on a fork-join pool: k*V beside k*G,
+ * z*G beside h*V, and the keystream beside the MAC (on decryption the MAC follows the keystream segment by
+ * segment). A sequential service runs the same steps one after the other, for comparison.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class CryptoService {
+
+    private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
+
+    // Scalars are at most 521 bits (z mod r, and 4 times a 512-bit value)
+    private static final int TABLE_BITS = 528;
+
+    // Number of public key tables kept warm
+    private static final int KEY_CACHE = 64;
+
+    // Read buffer of the streaming methods
+    private static final int BUFFER = 1 << 16;
+
+    // Messages shorter than this keep the keystream and the MAC on one thread
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    // Part of m the decryption keystream hands to the MAC at a time
+    private static final int SEGMENT = 1 << 16;
+
+    // Files at least this large are mapped and absorbed in place; smaller ones are read into a direct buffer
+    private static final long MAP_THRESHOLD = 1 << 20;
+
+    // Largest part of a file mapped at a time
+    private static final long MAP_WINDOW = 1 << 30;
+
+    // Direct (off-heap) read buffer of each thread, reused by all its file operations
+    private static final ThreadLocal<ByteBuffer> DIRECT_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER));
+
+    // KMACXOF256 sponge after (“”, “D”): copied by every hash instead of absorbing the prefix again
+    private static final Sha3 HASH_CONTEXT = KMACXOF256.KMACXOF256_init("".getBytes(), "D".getBytes());
+
+    // Fixed-base table of G, built on first use
+    private static final class Generator {
+        static final EllipticCurve[] TABLE = EllipticCurve.generator().powersOfTwo(TABLE_BITS);
+    }
+
+    // Fixed-base tables of recently used public keys
+    private final Map<BigInteger, EllipticCurve[]> keyTables = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BigInteger, EllipticCurve[]> eldest) {
+            return size() > KEY_CACHE;
+        }
+    };
+
+    private final Executor executor;
+
+    // Runs the independent steps of one operation, or null to run them one after the other
+    private final ForkJoinPool pool;
+
+    // Keeps the keys derived from passphrases, or null to derive them on every call
+    private volatile IdentityCache identities = IdentityCache.shared();
+
+    /**
+     * A service whose asynchronous methods run on virtual threads, or on the common fork-join pool
+     * on a JVM without them; the steps of each operation run in parallel on the common pool.
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public CryptoService() {
+        this(defaultExecutor());
+    }
+
+    /**
+     * A service whose asynchronous methods run on the given executor.
+     * @param executor, the executor of the ...Async methods
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public CryptoService(Executor executor) {
+        this(executor, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * A service whose asynchronous methods run on the given executor and whose steps run on the given pool.
+     * @param executor, the executor of the ...Async methods
+     * @param pool, the pool of the steps of one operation, or null to run them sequentially
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public CryptoService(Executor executor, ForkJoinPool pool) {
+        this.executor = executor;
+        this.pool = pool;
+    }
+
+    /**
+     * A service that runs the steps of each operation one after the other, as the application always did.
+     * Suits callers that already keep every core busy with operations of their own (e.g. the bulk mode).
+     * @return the sequential service
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static CryptoService sequential() {
+        return new CryptoService(defaultExecutor(), null);
+    }
+
+    /**
+     * @return true if the steps of one operation run in parallel
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public boolean isParallel() {
+        return pool != null;
+    }
+
+    /**
+     * Keep the keys derived from passphrases (by decrypt, sign and publicKey) in the given cache.
+     * By default the service uses the cache of -Dcrypto.identityCache, if any.
+     * @param cache, the identity cache, or null to derive the keys on every call
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void setIdentityCache(IdentityCache cache) {
+        identities = cache;
+    }
+
+    // A virtual thread per task on a JVM that has them, else the common fork-join pool
+    static Executor defaultExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return ForkJoinPool.commonPool();
+        }
+    }
+
+    /////////////////////////////////////////////////////////
+    ////////////////////// Hash and MAC /////////////////////
+    /////////////////////////////////////////////////////////
+
+    /**
+     * Service 1: h <- KMACXOF256(“”, m, 512, “D”)
+     * @param m, the message
+     * @return h
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[] hash(byte[] m) {
+        Sha3 sha = HASH_CONTEXT.copy();
+        sha.SHAKE256_update(m, 0, m.length);
+        return KMACXOF256.KMACXOF256_final(sha, 512);
+    }
+
+    public byte[] hash(InputStream in) throws IOException {
+        return absorb(HASH_CONTEXT.copy(), in);
+    }
+
+    public byte[] hash(Path file) throws IOException {
+        return absorb(HASH_CONTEXT.copy(), file);
+    }
+
+    /**
+     * Service 5: t <- KMACXOF256(pw, m, 512, “T”)
+     * @param pw, the passphrase
+     * @param m, the message
+     * @return t
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[] mac(byte[] pw, byte[] m) {
+        return KMACXOF256.KMACXOF256_cal(pw, m, 512, "T".getBytes());
+    }
+
+    public byte[] mac(byte[] pw, InputStream in) throws IOException {
+        return absorb(KMACXOF256.KMACXOF256_init(pw, "T".getBytes()), in);
+    }
+
+    public byte[] mac(byte[] pw, Path file) throws IOException {
+        return absorb(KMACXOF256.KMACXOF256_init(pw, "T".getBytes()), file);
+    }
+
+    // Absorb a stream into a started KMACXOF256 and squeeze 512 bits
+    private static byte[] absorb(Sha3 sha, InputStream in) throws IOException {
+        byte[] buf = new byte[BUFFER];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            sha.SHAKE256_update(buf, 0, n);
+        }
+        return KMACXOF256.KMACXOF256_final(sha, 512);
+    }
+
+    /**
+     * Absorb a file into a started KMACXOF256 and squeeze 512 bits. The file goes from the page cache to the
+     * sponge without a copy on the heap: mapped if it is large, otherwise read into the direct buffer of the thread.
+     * @param sha, the started sponge
+     * @param file, the file
+     * @return the 512-bit output
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    static byte[] absorb(Sha3 sha, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                for (long position = 0; position < size; position += MAP_WINDOW) {
+                    sha.SHAKE256_update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAP_WINDOW, size - position)));
+                }
+            } else {
+                // also the path of pipes and devices, whose size is 0
+                ByteBuffer buf = DIRECT_BUFFER.get();
+                buf.clear();
+                while (channel.read(buf) >= 0) {
+                    buf.flip();
+                    sha.SHAKE256_update(buf);
+                    buf.clear();
+                }
+            }
+        }
+        return KMACXOF256.KMACXOF256_final(sha, 512);
+    }
+
+    /////////////////////////////////////////////////////////
+    ///////////////////// Key derivation ////////////////////
+    /////////////////////////////////////////////////////////
+
+    /**
+     * s <- KMACXOF256(pw, “”, 512, “K”); s <- 4s
+     * @param pw, the passphrase
+     * @return the private key s
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static BigInteger privateKey(byte[] pw) {
+        byte[] s = KMACXOF256.KMACXOF256_cal(pw, "".getBytes(), 512, "K".getBytes());
+        return new BigInteger(1, s).multiply(BigInteger.valueOf(4));
+    }
+
+    /**
+     * Service 6: V <- s*G
+     * @param pw, the passphrase
+     * @return the public key V
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public EllipticCurve publicKey(byte[] pw) {
+        IdentityCache cache = identities;
+        if (cache == null) {
+            return mulG(privateKey(pw));
+        }
+        IdentityCache.Identity identity = cache.acquire(pw);
+        try {
+            EllipticCurve V = identity.getPublicKey();
+            if (V == null) {
+                V = mulG(identity.getSecret());
+                identity.setPublicKey(V);
+            }
+            return V;
+        } finally {
+            cache.release(identity);
+        }
+    }
+
+    /**
+     * s for the passphrase, as privateKey, taken from the identity cache of the service when it has one.
+     * @param pw, the passphrase
+     * @return the private key s
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public BigInteger cachedPrivateKey(byte[] pw) {
+        IdentityCache cache = identities;
+        if (cache == null) {
+            return privateKey(pw);
+        }
+        IdentityCache.Identity identity = cache.acquire(pw);
+        try {
+            return identity.getSecret();
+        } finally {
+            cache.release(identity);
+        }
+    }
+
+    /**
+     * Service 6 over a batch: V_i <- s_i*G for every passphrase (or seed) of the list.
+     * The multiplications share the table of G and stay projective, in parallel on the pool of the service;
+     * then all the points are normalized together with a single inversion.
+     * @param pws, the passphrases
+     * @return the public keys, in the order of the passphrases
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public EllipticCurve[] publicKeys(byte[][] pws) {
+        BigInteger[][] points = new BigInteger[pws.length][];
+        IntStream range = IntStream.range(0, pws.length);
+        if (pool == null) {
+            range.forEach(i -> points[i] = EllipticCurve.mulByTableProjective(Generator.TABLE, privateKey(pws[i])));
+        } else {
+            pool.submit(() -> range.parallel().forEach(i ->
+                    points[i] = EllipticCurve.mulByTableProjective(Generator.TABLE, privateKey(pws[i])))).join();
+        }
+        return EllipticCurve.normalize(points);
+    }
+
+    // scalar*G with the table of G
+    static EllipticCurve mulG(BigInteger scalar) {
+        return EllipticCurve.mulByTable(Generator.TABLE, scalar);
+    }
+
+    // scalar*V with the warm table of V, built on first use
+    EllipticCurve mulPublicKey(EllipticCurve V, BigInteger scalar) {
+        EllipticCurve[] table;
+        synchronized (keyTables) {
+            table = keyTables.get(V.getX());
+        }
+        boolean hit = table != null && table[0].equals(V);
+        if (CryptoStats.ENABLED) {
+            CryptoStats.keyTable(hit);
+        }
+        if (!hit) {
+            table = V.powersOfTwo(TABLE_BITS);
+            synchronized (keyTables) {
+                keyTables.put(V.getX(), table);
+            }
+        }
+        return EllipticCurve.mulByTable(table, scalar);
+    }
+
+    /////////////////////////////////////////////////////////
+    ////////////////// Symmetric cryptogram /////////////////
+    /////////////////////////////////////////////////////////
+
+    /**
+     * Service 3: z <- Random(512); (ke || ka) <- KMACXOF256(z || pw, “”, 1024, “S”)
+     * c <- KMACXOF256(ke, “”, |m|, “SKE”) xor m; t <- KMACXOF256(ka, m, 512, “SKA”)
+     * @param pw, the passphrase
+     * @param m, the message
+     * @return the cryptogram (z, c, t)
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[][] encryptSymmetric(byte[] pw, byte[] m) {
+        CryptoEvents.ServicePhase derive = CryptoStats.phase("encryptSymmetric", "derive");
+        byte[] z = new byte[64];
+        KeccakDRBG.current().nextBytes(z);
+        byte[] keka = KMACXOF256.KMACXOF256_cal(KMACXOF256.concat(z, pw), new byte[0], 1024, "S".getBytes());
+        CryptoStats.end(derive, 0);
+        byte[][] ct = encryptAndTag("encryptSymmetric", keka, m, "SKE", "SKA");
+        return new byte[][] {z, ct[0], ct[1]};
+    }
+
+    /**
+     * Service 4: decrypt the cryptogram (z, c, t); accept if, and only if, t’ = t
+     * @param pw, the passphrase
+     * @param cryptogram, (z, c, t)
+     * @return m, or null if t’ ≠ t
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[] decryptSymmetric(byte[] pw, byte[][] cryptogram) {
+        CryptoEvents.ServicePhase derive = CryptoStats.phase("decryptSymmetric", "derive");
+        byte[] keka = KMACXOF256.KMACXOF256_cal(KMACXOF256.concat(cryptogram[0], pw), new byte[0], 1024, "S".getBytes());
+        CryptoStats.end(derive, 0);
+        return decryptAndVerify("decryptSymmetric", keka, cryptogram[1], cryptogram[2], "SKE", "SKA");
+    }
+
+    /**
+     * Service 3 in one streaming pass: c is written to out as it is computed, in constant memory.
+     * @param pw, the passphrase
+     * @param in, the message
+     * @param out, receives c
+     * @return (z, t)
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[][] encryptSymmetric(byte[] pw, InputStream in, OutputStream out) throws IOException {
+        byte[] z = new byte[64];
+        KeccakDRBG.current().nextBytes(z);
+        byte[] keka = KMACXOF256.KMACXOF256_cal(KMACXOF256.concat(z, pw), new byte[0], 1024, "S".getBytes());
+        return new byte[][] {z, encryptStream(keka, in, out, "SKE", "SKA")};
+    }
+
+    /////////////////////////////////////////////////////////
+    ////////////////////////// ECIES ////////////////////////
+    /////////////////////////////////////////////////////////
+
+    /**
+     * Service 7: k <- Random(512); k <- 4k; W <- k*V; Z <- k*G; (ke || ka) <- KMACXOF256(Wx, “”, 1024, “P”)
+     * c <- KMACXOF256(ke, “”, |m|, “PKE”) xor m; t <- KMACXOF256(ka, m, 512, “PKA”)
+     * @param V, the public key
+     * @param m, the message
+     * @return the cryptogram (Zx, Zy, c, t)
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[][] encrypt(EllipticCurve V, byte[] m) {
+        // k -> (k*G | k*V -> keka -> (c | t))
+        CryptoEvents.ServicePhase derive = CryptoStats.phase("encrypt", "derive");
+        BigInteger k = nonce();
+        CompletableFuture<EllipticCurve> Z = fork(true, () -> mulG(k));
+        EllipticCurve W = mulPublicKey(V, k);
+        byte[] keka = KMACXOF256.KMACXOF256_cal(W.getX().toByteArray(), new byte[0], 1024, "P".getBytes());
+        CryptoStats.end(derive, 0);
+        byte[][] ct = encryptAndTag("encrypt", keka, m, "PKE", "PKA");
+        return new byte[][] {Z.join().getX().toByteArray(), Z.join().getY().toByteArray(), ct[0], ct[1]};
+    }
+
+    public byte[][] encrypt(EllipticCurve V, Path file) throws IOException {
+        return encrypt(V, read("encrypt", file));
+    }
+
+    /**
+     * Service 7 in one streaming pass: c is written to out as it is computed, in constant memory.
+     * @param V, the public key
+     * @param in, the message
+     * @param out, receives c
+     * @return (Zx, Zy, t)
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[][] encrypt(EllipticCurve V, InputStream in, OutputStream out) throws IOException {
+        EllipticCurve[] WZ = ephemeral(V);
+        byte[] keka = KMACXOF256.KMACXOF256_cal(WZ[0].getX().toByteArray(), new byte[0], 1024, "P".getBytes());
+        byte[] t = encryptStream(keka, in, out, "PKE", "PKA");
+        return new byte[][] {WZ[1].getX().toByteArray(), WZ[1].getY().toByteArray(), t};
+    }
+
+    // c <- keystream xor m written to out as m is read, t <- the MAC of m; returns t
+    private static byte[] encryptStream(byte[] keka, InputStream in, OutputStream out, String keLabel, String kaLabel)
+            throws IOException {
+        // KMACXOF256 output does not depend on L, so the keystream is squeezed block by block
+        Sha3 keystream = KMACXOF256.KMACXOF256_init(Arrays.copyOfRange(keka, 0, 64), keLabel.getBytes());
+        KMACXOF256.KMACXOF256_xof(keystream);
+        Sha3 mac = KMACXOF256.KMACXOF256_init(Arrays.copyOfRange(keka, 64, 128), kaLabel.getBytes());
+
+        byte[] buf = new byte[BUFFER];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            mac.SHAKE256_update(buf, 0, n);
+            keystream.SHAKE_xor(buf, 0, n);
+            out.write(buf, 0, n);
+        }
+        return KMACXOF256.KMACXOF256_final(mac, 512);
+    }
+
+    /**
+     * Service 8: W <- s*Z; decrypt (Zx, Zy, c, t); accept if, and only if, t’ = t
+     * @param pw, the passphrase
+     * @param cryptogram, (Zx, Zy, c, t)
+     * @return m, or null if t’ ≠ t
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[] decrypt(byte[] pw, byte[][] cryptogram) {
+        return decrypt(cachedPrivateKey(pw), cryptogram);
+    }
+
+    public byte[] decrypt(BigInteger s, byte[][] cryptogram) {
+        EllipticCurve Z = new EllipticCurve(new BigInteger(cryptogram[0]), new BigInteger(cryptogram[1]));
+        CryptoEvents.ServicePhase derive = CryptoStats.phase("decrypt", "derive");
+        EllipticCurve W = Z.mulByScalar(s);
+        byte[] keka = KMACXOF256.KMACXOF256_cal(W.getX().toByteArray(), new byte[0], 1024, "P".getBytes());
+        CryptoStats.end(derive, 0);
+        return decryptAndVerify("decrypt", keka, cryptogram[2], cryptogram[3], "PKE", "PKA");
+    }
+
+    // k <- Random(512); k <- 4k
+    private static BigInteger nonce() {
+        byte[] byte_k = new byte[64];
+        KeccakDRBG.current().nextBytes(byte_k);
+        return new BigInteger(1, byte_k).multiply(BigInteger.valueOf(4));
+    }
+
+    /**
+     * k <- Random(512); k <- 4k; (W, Z) <- (k*V, k*G), the two products computed side by side.
+     * For the cryptogram formats that derive their own keys from Wx.
+     * @param V, the public key
+     * @return (W, Z)
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    EllipticCurve[] ephemeral(EllipticCurve V) {
+        BigInteger k = nonce();
+        CompletableFuture<EllipticCurve> Z = fork(true, () -> mulG(k));
+        EllipticCurve W = mulPublicKey(V, k);
+        return new EllipticCurve[] {W, Z.join()};
+    }
+
+    /////////////////////////////////////////////////////////
+    //////////////////// Parallel steps /////////////////////
+    /////////////////////////////////////////////////////////
+
+    // Start a step on the pool; run it at once when the service is sequential or the step is not worth a task
+    private <T> CompletableFuture<T> fork(boolean worth, Supplier<T> step) {
+        if (pool == null || !worth) {
+            return CompletableFuture.completedFuture(step.get());
+        }
+        return CompletableFuture.supplyAsync(step, pool);
+    }
+
+    // (c, t): the keystream on the caller’s thread and the MAC over m beside it
+    private byte[][] encryptAndTag(String service, byte[] keka, byte[] m, String keLabel, String kaLabel) {
+        CompletableFuture<byte[]> t = fork(m.length >= PARALLEL_THRESHOLD, () -> tag(service, keka, m, kaLabel));
+        byte[] c = xorKeystream(service, keka, m, keLabel);
+        return new byte[][] {c, t.join()};
+    }
+
+    // m, or null if t’ ≠ t. The MAC needs m, so in parallel it trails the keystream one segment behind:
+    // each segment of m, once deciphered, is absorbed by a task chained after the previous segment’s.
+    private byte[] decryptAndVerify(String service, byte[] keka, byte[] c, byte[] t, String keLabel, String kaLabel) {
+        if (pool == null || c.length < PARALLEL_THRESHOLD) {
+            byte[] m = xorKeystream(service, keka, c, keLabel);
+            return Arrays.equals(t, tag(service, keka, m, kaLabel)) ? m : null;
+        }
+        CryptoEvents.ServicePhase phase = CryptoStats.phase(service, "keystream");
+        Sha3 keystream = KMACXOF256.KMACXOF256_init(Arrays.copyOfRange(keka, 0, 64), keLabel.getBytes());
+        KMACXOF256.KMACXOF256_xof(keystream);
+        Sha3 mac = KMACXOF256.KMACXOF256_init(Arrays.copyOfRange(keka, 64, 128), kaLabel.getBytes());
+
+        byte[] m = c.clone();
+        CompletableFuture<Void> absorbed = CompletableFuture.completedFuture(null);
+        for (int off = 0; off < c.length; off += SEGMENT) {
+            int start = off;
+            int n = Math.min(SEGMENT, c.length - off);
+            keystream.SHAKE_xor(m, start, n);
+            absorbed = absorbed.thenRunAsync(() -> mac.SHAKE256_update(m, start, n), pool);
+        }
+        CryptoStats.end(phase, c.length);
+        // only the part of the MAC still behind the keystream shows as its phase
+        phase = CryptoStats.phase(service, "mac");
+        absorbed.join();
+        byte[] t_prime = KMACXOF256.KMACXOF256_final(mac, 512);
+        CryptoStats.end(phase, c.length);
+        return Arrays.equals(t, t_prime) ? m : null;
+    }
+
+    // KMACXOF256(ke, “”, |x|, label) xor x, with ke the first half of keka
+    private static byte[] xorKeystream(String service, byte[] keka, byte[] x, String label) {
+        CryptoEvents.ServicePhase phase = CryptoStats.phase(service, "keystream");
+        byte[] out = KMACXOF256.KMACXOF256_cal(Arrays.copyOfRange(keka, 0, 64), new byte[0], x.length * 8, label.getBytes());
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) (out[i] ^ x[i]);
+        }
+        CryptoStats.end(phase, x.length);
+        return out;
+    }
+
+    // KMACXOF256(ka, m, 512, label), with ka the second half of keka
+    private static byte[] tag(String service, byte[] keka, byte[] m, String label) {
+        CryptoEvents.ServicePhase phase = CryptoStats.phase(service, "mac");
+        byte[] t = KMACXOF256.KMACXOF256_cal(Arrays.copyOfRange(keka, 64, keka.length), m, 512, label.getBytes());
+        CryptoStats.end(phase, m.length);
+        return t;
+    }
+
+    // Read a whole file, as the read phase of a service
+    private static byte[] read(String service, Path file) throws IOException {
+        CryptoEvents.ServicePhase phase = CryptoStats.phase(service, "read");
+        byte[] m = Files.readAllBytes(file);
+        CryptoStats.end(phase, m.length);
+        return m;
+    }
+
+    /////////////////////////////////////////////////////////
+    ///////////////// Schnorr sign and verify ///////////////
+    /////////////////////////////////////////////////////////
+
+    /**
+     * Service 11: k <- KMACXOF256(s, m, 512, “N”); k <- 4k; U <- k*G;
+     * h <- KMACXOF256(Ux, m, 512, “T”); z <- (k – hs) mod r
+     * @param pw, the passphrase
+     * @param m, the message
+     * @return the signature (h, z)
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[][] sign(byte[] pw, byte[] m) {
+        return sign(pw, m, "N", "T");
+    }
+
+    public byte[][] sign(byte[] pw, Path file) throws IOException {
+        return sign(pw, read("sign", file));
+    }
+
+    /**
+     * Service 11, prehashed: signs d <- KMACXOF256(“”, m, 512, “PH”) with “PN” and “PT”, streaming m once.
+     * @param pw, the passphrase
+     * @param in, the message
+     * @return the signature (h, z); its file starts with the SCHNORR-PREHASH-V1 line
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[][] signPrehashed(byte[] pw, InputStream in) throws IOException {
+        return sign(pw, prehash(in), "PN", "PT");
+    }
+
+    // With the identity cache, s and its keyed nonce sponge come from the cache instead of KMACXOF256 calls
+    private byte[][] sign(byte[] pw, byte[] m, String nonceLabel, String tagLabel) {
+        IdentityCache cache = identities;
+        if (cache == null) {
+            BigInteger s = privateKey(pw);
+            return sign(s, KMACXOF256.KMACXOF256_init(s.toByteArray(), nonceLabel.getBytes()), m, tagLabel);
+        }
+        IdentityCache.Identity identity = cache.acquire(pw);
+        try {
+            return sign(identity.getSecret(), identity.getNonceSponge(nonceLabel), m, tagLabel);
+        } finally {
+            cache.release(identity);
+        }
+    }
+
+    // nonce: the KMACXOF256(s, ·, ·, nonceLabel) sponge, yet to absorb m
+    private static byte[][] sign(BigInteger s, Sha3 nonce, byte[] m, String tagLabel) {
+        nonce.SHAKE256_update(m, 0, m.length);
+        BigInteger k = new BigInteger(1, KMACXOF256.KMACXOF256_final(nonce, 512)).multiply(BigInteger.valueOf(4));
+        EllipticCurve U = mulG(k);
+        BigInteger h = new BigInteger(1, KMACXOF256.KMACXOF256_cal(U.getX().toByteArray(), m, 512, tagLabel.getBytes()));
+        BigInteger z = k.subtract(h.multiply(s)).mod(EllipticCurve.r);
+        return new byte[][] {h.toByteArray(), z.toByteArray()};
+    }
+
+    /**
+     * Service 12: U <- z*G + h*V; accept if, and only if, KMACXOF256(Ux, m, 512, “T”) = h
+     * @param V, the public key
+     * @param signature, (h, z)
+     * @param m, the message
+     * @return true if the signature verifies
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public boolean verify(EllipticCurve V, byte[][] signature, byte[] m) {
+        return verify(V, signature, m, "T");
+    }
+
+    public boolean verify(EllipticCurve V, byte[][] signature, Path file) throws IOException {
+        return verify(V, signature, read("verify", file));
+    }
+
+    /**
+     * Service 12, prehashed: verifies against d <- KMACXOF256(“”, m, 512, “PH”) with “PT”, streaming m once.
+     * @param V, the public key
+     * @param signature, (h, z)
+     * @param in, the message
+     * @return true if the signature verifies
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public boolean verifyPrehashed(EllipticCurve V, byte[][] signature, InputStream in) throws IOException {
+        return verify(V, signature, prehash(in), "PT");
+    }
+
+    private boolean verify(EllipticCurve V, byte[][] signature, byte[] m, String tagLabel) {
+        BigInteger h = new BigInteger(signature[0]);
+        BigInteger z = new BigInteger(signature[1]);
+        CompletableFuture<EllipticCurve> zG = fork(true, () -> mulG(z));
+        EllipticCurve hV = mulPublicKey(V, h);
+        EllipticCurve U = zG.join().sum(hV);
+        byte[] h_bar = KMACXOF256.KMACXOF256_cal(U.getX().toByteArray(), m, 512, tagLabel.getBytes());
+        return new BigInteger(1, h_bar).equals(h);
+    }
+
+    // d <- KMACXOF256(“”, m, 512, “PH”)
+    private static byte[] prehash(InputStream in) throws IOException {
+        return KMACXOF256.KMACXOF256_stream("".getBytes(), in, 512, "PH".getBytes());
+    }
+
+    /////////////////////////////////////////////////////////
+    ///////////////////// Asynchronous API //////////////////
+    /////////////////////////////////////////////////////////
+
+    public CompletableFuture<byte[]> hashAsync(byte[] m) {
+        return CompletableFuture.supplyAsync(() -> hash(m), executor);
+    }
+
+    public CompletableFuture<byte[]> hashAsync(Path file) {
+        return async(() -> hash(file));
+    }
+
+    public CompletableFuture<byte[]> macAsync(byte[] pw, byte[] m) {
+        return CompletableFuture.supplyAsync(() -> mac(pw, m), executor);
+    }
+
+    public CompletableFuture<byte[]> macAsync(byte[] pw, Path file) {
+        return async(() -> mac(pw, file));
+    }
+
+    public CompletableFuture<byte[][]> encryptSymmetricAsync(byte[] pw, byte[] m) {
+        return CompletableFuture.supplyAsync(() -> encryptSymmetric(pw, m), executor);
+    }
+
+    public CompletableFuture<byte[]> decryptSymmetricAsync(byte[] pw, byte[][] cryptogram) {
+        return CompletableFuture.supplyAsync(() -> decryptSymmetric(pw, cryptogram), executor);
+    }
+
+    public CompletableFuture<byte[][]> encryptAsync(EllipticCurve V, byte[] m) {
+        return CompletableFuture.supplyAsync(() -> encrypt(V, m), executor);
+    }
+
+    public CompletableFuture<byte[][]> encryptAsync(EllipticCurve V, Path file) {
+        return async(() -> encrypt(V, file));
+    }
+
+    public CompletableFuture<byte[]> decryptAsync(byte[] pw, byte[][] cryptogram) {
+        return CompletableFuture.supplyAsync(() -> decrypt(pw, cryptogram), executor);
+    }
+
+    public CompletableFuture<byte[][]> signAsync(byte[] pw, byte[] m) {
+        return CompletableFuture.supplyAsync(() -> sign(pw, m), executor);
+    }
+
+    public CompletableFuture<byte[][]> signAsync(byte[] pw, Path file) {
+        return async(() -> sign(pw, file));
+    }
+
+    public CompletableFuture<Boolean> verifyAsync(EllipticCurve V, byte[][] signature, byte[] m) {
+        return CompletableFuture.supplyAsync(() -> verify(V, signature, m), executor);
+    }
+
+    public CompletableFuture<Boolean> verifyAsync(EllipticCurve V, byte[][] signature, Path file) {
+        return async(() -> verify(V, signature, file));
+    }
+
+    // Run an I/O task on the executor; an IOException completes the future exceptionally
+    private <T> CompletableFuture<T> async(Callable<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /////////////////////////////////////////////////////////
+    ///////////////////////// Hex lines /////////////////////
+    /////////////////////////////////////////////////////////
+
+    // The hex form of the lines of the application’s files
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xFF;
+            hex[2 * i] = HEX_ARRAY[v >>> 4];
+            hex[2 * i + 1] = HEX_ARRAY[v & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    // A streaming encryption, e.g. of service 3 or 7: m from in, c to out; returns the key material, then t
+    public interface StreamEncryption {
+        byte[][] encrypt(InputStream in, OutputStream out) throws IOException;
+    }
+
+    /**
+     * Write a cryptogram file of hex lines, [header,] key material, c, t, encrypting m as it is read, so m is
+     * never held in memory. c is hex-encoded into a temporary file beside target first, because the key
+     * material written ahead of it is only returned once the encryption is done.
+     * @param service, the service the write phase is counted under (see CryptoStats)
+     * @param target, the cryptogram file
+     * @param header, the header line, or null
+     * @param in, m
+     * @param encryption, e.g. (i, o) -> encrypt(V, i, o)
+     * @return what the encryption returned: the key material, then t
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[][] writeCryptogram(String service, Path target, String header, InputStream in,
+                                           StreamEncryption encryption) throws IOException {
+        Path c = Paths.get(target + ".tmp");
+        try {
+            byte[][] result;
+            try (OutputStream hex = hexOutput(new BufferedOutputStream(Files.newOutputStream(c)))) {
+                result = encryption.encrypt(in, hex);
+            }
+            CryptoEvents.ServicePhase phase = CryptoStats.phase(service, "write");
+            String separator = System.getProperty("line.separator");
+            StringBuilder head = new StringBuilder();
+            if (header != null) {
+                head.append(header).append(separator);
+            }
+            for (int i = 0; i < result.length - 1; i++) {
+                head.append(toHex(result[i])).append(separator);
+            }
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target))) {
+                out.write(head.toString().getBytes());
+                Files.copy(c, out);
+                out.write((separator + toHex(result[result.length - 1])).getBytes());
+            }
+            CryptoStats.end(phase, Files.size(c) / 2);
+            return result;
+        } finally {
+            Files.deleteIfExists(c);
+        }
+    }
+
+    // Write the hex form of what is written to it, for a line too long to hold (the c of a large file)
+    public static OutputStream hexOutput(OutputStream out) {
+        return new FilterOutputStream(out) {
+            private final byte[] hex = new byte[2 * BUFFER];
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    int n = Math.min(len, BUFFER);
+                    for (int i = 0; i < n; i++) {
+                        int v = b[off + i] & 0xFF;
+                        hex[2 * i] = (byte) HEX_ARRAY[v >>> 4];
+                        hex[2 * i + 1] = (byte) HEX_ARRAY[v & 0x0F];
+                    }
+                    out.write(hex, 0, 2 * n);
+                    off += n;
+                    len -= n;
+                }
+            }
+        };
+    }
+
+    public static byte[] fromHex(String s) {
+        int len = s.length();
+        byte[] data = new byte[len / 2];
+        for (int i = 0; i < len; i += 2) {
+            data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
+                    + Character.digit(s.charAt(i + 1), 16));
+        }
+        return data;
+    }
+}
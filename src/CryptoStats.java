@@ -0,0 +1,270 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ * The crypto counters and the gate of the instrumentation
+ * Off unless the JVM is started with -Dcrypto.instrument=true. ENABLED is a static final constant, so when it
+ * is false the JIT folds every guarded call away and the hot paths run as before.
+ * When on, the counters are LongAdders (no contention between threads), published through JMX as
+ * CryptographicApplication:type=CryptoStats, and the hot paths emit the Flight Recorder events of CryptoEvents.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public final class CryptoStats implements CryptoStatsMXBean {
+
+    public static final boolean ENABLED = Boolean.getBoolean("crypto.instrument");
+
+    public static final String OBJECT_NAME = "CryptographicApplication:type=CryptoStats";
+
+    private static final CryptoStats INSTANCE = new CryptoStats();
+
+    private final LongAdder permutations = new LongAdder();
+    private final LongAdder bytesAbsorbed = new LongAdder();
+    private final LongAdder bytesSqueezed = new LongAdder();
+    private final LongAdder scalarMultiplications = new LongAdder();
+    private final LongAdder tableMultiplications = new LongAdder();
+    private final LongAdder inversions = new LongAdder();
+    private final LongAdder keyTableHits = new LongAdder();
+    private final LongAdder keyTableMisses = new LongAdder();
+    private final LongAdder hashIndexHits = new LongAdder();
+    private final LongAdder hashIndexMisses = new LongAdder();
+    private final LongAdder identityCacheHits = new LongAdder();
+    private final LongAdder identityCacheMisses = new LongAdder();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                System.err.println("CryptoStats not registered: " + e);
+            }
+        }
+    }
+
+    private CryptoStats() {
+    }
+
+    /**
+     * @return the counters (all 0 while the instrumentation is off)
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static CryptoStats get() {
+        return INSTANCE;
+    }
+
+    /////////////////////////////////////////////////////////
+    /////////////// Recording, from the hot paths ///////////
+    /////////////////////////////////////////////////////////
+    // Callers test ENABLED first, so none of this runs while the instrumentation is off
+
+    static void permutation() {
+        INSTANCE.permutations.increment();
+    }
+
+    // Start the event of one absorb or squeeze call
+    static CryptoEvents.KeccakBatch beginBatch() {
+        CryptoEvents.KeccakBatch event = new CryptoEvents.KeccakBatch();
+        event.begin();
+        return event;
+    }
+
+    // Finish it: count the bytes and commit the event if a recording wants it
+    static void endBatch(CryptoEvents.KeccakBatch event, boolean squeeze, long bytes, long permutations) {
+        (squeeze ? INSTANCE.bytesSqueezed : INSTANCE.bytesAbsorbed).add(bytes);
+        event.end();
+        if (event.shouldCommit()) {
+            event.squeeze = squeeze;
+            event.bytes = bytes;
+            event.permutations = permutations;
+            event.commit();
+        }
+    }
+
+    static CryptoEvents.Kmac beginKmac() {
+        CryptoEvents.Kmac event = new CryptoEvents.Kmac();
+        event.begin();
+        return event;
+    }
+
+    static void endKmac(CryptoEvents.Kmac event, byte[] S, long input, long outputBits) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.customization = new String(S);
+            event.input = input;
+            event.outputBits = outputBits;
+            event.commit();
+        }
+    }
+
+    static CryptoEvents.ScalarMultiplication beginMultiplication() {
+        CryptoEvents.ScalarMultiplication event = new CryptoEvents.ScalarMultiplication();
+        event.begin();
+        return event;
+    }
+
+    static void endMultiplication(CryptoEvents.ScalarMultiplication event, int bits, boolean fixedBase) {
+        INSTANCE.scalarMultiplications.increment();
+        if (fixedBase) {
+            INSTANCE.tableMultiplications.increment();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.bits = bits;
+            event.fixedBase = fixedBase;
+            event.commit();
+        }
+    }
+
+    static void inversions(int n) {
+        INSTANCE.inversions.add(n);
+    }
+
+    static void keyTable(boolean hit) {
+        (hit ? INSTANCE.keyTableHits : INSTANCE.keyTableMisses).increment();
+    }
+
+    static void hashIndex(boolean hit) {
+        (hit ? INSTANCE.hashIndexHits : INSTANCE.hashIndexMisses).increment();
+    }
+
+    static void identityCache(boolean hit) {
+        (hit ? INSTANCE.identityCacheHits : INSTANCE.identityCacheMisses).increment();
+    }
+
+    /**
+     * Start a service phase: read, derive, keystream, mac or write.
+     * @param service, the service, e.g. "encrypt"
+     * @param phase, the phase
+     * @return the started event, or null while the instrumentation is off
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    static CryptoEvents.ServicePhase phase(String service, String phase) {
+        if (!ENABLED) {
+            return null;
+        }
+        CryptoEvents.ServicePhase event = new CryptoEvents.ServicePhase();
+        event.service = service;
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Finish a service phase.
+     * @param event, the event returned by phase (null while the instrumentation is off)
+     * @param bytes, the bytes the phase handled
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    static void end(CryptoEvents.ServicePhase event, long bytes) {
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    /////////////////////////////////////////////////////////
+    ////////////////////// MXBean view //////////////////////
+    /////////////////////////////////////////////////////////
+
+    @Override
+    public long getPermutations() {
+        return permutations.sum();
+    }
+
+    @Override
+    public long getBytesAbsorbed() {
+        return bytesAbsorbed.sum();
+    }
+
+    @Override
+    public long getBytesSqueezed() {
+        return bytesSqueezed.sum();
+    }
+
+    @Override
+    public long getScalarMultiplications() {
+        return scalarMultiplications.sum();
+    }
+
+    @Override
+    public long getTableMultiplications() {
+        return tableMultiplications.sum();
+    }
+
+    @Override
+    public long getInversions() {
+        return inversions.sum();
+    }
+
+    @Override
+    public long getKeyTableHits() {
+        return keyTableHits.sum();
+    }
+
+    @Override
+    public long getKeyTableMisses() {
+        return keyTableMisses.sum();
+    }
+
+    @Override
+    public double getKeyTableHitRate() {
+        return rate(keyTableHits.sum(), keyTableMisses.sum());
+    }
+
+    @Override
+    public long getHashIndexHits() {
+        return hashIndexHits.sum();
+    }
+
+    @Override
+    public long getHashIndexMisses() {
+        return hashIndexMisses.sum();
+    }
+
+    @Override
+    public double getHashIndexHitRate() {
+        return rate(hashIndexHits.sum(), hashIndexMisses.sum());
+    }
+
+    @Override
+    public long getIdentityCacheHits() {
+        return identityCacheHits.sum();
+    }
+
+    @Override
+    public long getIdentityCacheMisses() {
+        return identityCacheMisses.sum();
+    }
+
+    @Override
+    public double getIdentityCacheHitRate() {
+        return rate(identityCacheHits.sum(), identityCacheMisses.sum());
+    }
+
+    private static double rate(long hits, long misses) {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder adder : new LongAdder[] {permutations, bytesAbsorbed, bytesSqueezed, scalarMultiplications,
+                tableMultiplications, inversions, keyTableHits, keyTableMisses, hashIndexHits, hashIndexMisses,
+                identityCacheHits, identityCacheMisses}) {
+            adder.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "permutations=" + getPermutations() + " absorbed=" + getBytesAbsorbed() + " squeezed=" + getBytesSqueezed()
+                + " scalarMultiplications=" + getScalarMultiplications() + " (table " + getTableMultiplications() + ")"
+                + " inversions=" + getInversions() + " keyTableHitRate=" + getKeyTableHitRate()
+                + " hashIndexHitRate=" + getHashIndexHitRate() + " identityCacheHitRate=" + getIdentityCacheHitRate();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * The management interface of the crypto counters
+ * Registered as CryptographicApplication:type=CryptoStats when the counters are enabled
+ * (-Dcrypto.instrument=true); all values are cumulative since start or the last reset.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public interface CryptoStatsMXBean {
+
+    // Keccak-f permutations, of every sponge
+    long getPermutations();
+
+    // Bytes absorbed into and squeezed out of the sponges
+    long getBytesAbsorbed();
+
+    long getBytesSqueezed();
+
+    // Multiplications of an E521 point by a scalar, and those served by a fixed-base table
+    long getScalarMultiplications();
+
+    long getTableMultiplications();
+
+    // Modular inversions of the point arithmetic
+    long getInversions();
+
+    // Lookups of the public key tables of the CryptoService
+    long getKeyTableHits();
+
+    long getKeyTableMisses();
+
+    double getKeyTableHitRate();
+
+    // Lookups of the persistent hash index of the bulk mode
+    long getHashIndexHits();
+
+    long getHashIndexMisses();
+
+    double getHashIndexHitRate();
+
+    // Lookups of the identity cache (-Dcrypto.identityCache)
+    long getIdentityCacheHits();
+
+    long getIdentityCacheMisses();
+
+    double getIdentityCacheHitRate();
+
+    // Set every counter back to 0
+    void reset();
+}
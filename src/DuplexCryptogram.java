@@ -0,0 +1,69 @@
+import java.util.Arrays;
+
+/*
+ * The single-pass duplex cryptogram
+ * Authenticated encryption on the Keccak duplex: the sponge absorbs
+ * bytepad(encode_string(“DUPLEX”) || encode_string(S), 136) || bytepad(encode_string(key), 136),
+ * then each rate block of plaintext is absorbed and the ciphertext squeezed by the same
+ * permutation, followed by a 512-bit tag. Half the permutations of the (c, t) KMAC construction.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class DuplexCryptogram {
+
+    // Cryptogram identifier, written as the first line of a duplex cryptogram file
+    public static final String HEADER = "KECCAK-DUPLEX-V1";
+
+    private static final byte[] DUPLEX_N = "DUPLEX".getBytes();
+
+    /**
+     * Encrypt and authenticate m in a single pass.
+     * @param key, the key (must be fresh for every message)
+     * @param S, the customization string (“SKD” or “PKD”)
+     * @param m, the plaintext
+     * @return the cryptogram body: c, t
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[][] encrypt(byte[] key, byte[] S, byte[] m) {
+        Sha3 sha = start(key, S);
+        byte[] c = new byte[m.length];
+        sha.duplex_encrypt(m, c, m.length);
+        byte[] t = new byte[64];
+        sha.duplex_tag(t, t.length);
+        return new byte[][] {c, t};
+    }
+
+    /**
+     * Decrypt c in a single pass and verify the tag.
+     * @param key, the key
+     * @param S, the customization string (“SKD” or “PKD”)
+     * @param c, the ciphertext
+     * @param t, the tag
+     * @return the plaintext, or null if t’ ≠ t
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] decrypt(byte[] key, byte[] S, byte[] c, byte[] t) {
+        Sha3 sha = start(key, S);
+        byte[] m = new byte[c.length];
+        sha.duplex_decrypt(c, m, c.length);
+        byte[] t_prime = new byte[64];
+        sha.duplex_tag(t_prime, t_prime.length);
+        if (!Arrays.equals(t, t_prime)) {
+            Arrays.fill(m, (byte) 0);
+            return null;
+        }
+        return m;
+    }
+
+    // Absorb the function name, the customization string and the key, then switch to duplexing
+    private static Sha3 start(byte[] key, byte[] S) {
+        Sha3 sha = new Sha3(32);
+        byte[] prefix = KMACXOF256.concat(
+                KMACXOF256.bytepad(KMACXOF256.concat(KMACXOF256.encode_string(DUPLEX_N), KMACXOF256.encode_string(S)), 136),
+                KMACXOF256.bytepad(KMACXOF256.encode_string(key), 136));
+        sha.SHAKE256_update(prefix, prefix.length);
+        sha.duplex_start();
+        return sha;
+    }
+}
@@ -8,20 +8,28 @@ import java.math.BigInteger;
 
 public class EllipticCurve {
 
+    // The constants are hex literals, so loading the class computes nothing (ConformanceTests checks them
+    // against the formulas of the reference).
+
     // p := 2^521 −1, a Mersenne prime defining the finite field 𝔽𝑝.
-    // https://stackoverflow.com/questions/4582277/biginteger-powbiginteger
-    public static final BigInteger p = BigInteger.TWO.pow(521).subtract(BigInteger.ONE);
+    public static final BigInteger p = new BigInteger(
+            "1FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF", 16);
 
     // d =−376014
     // curve equation: x^2 + y^2 = 1 + d x^2 y^2 with d = −376014.
-    // https://javatutorialhq.com/java/math/biginteger-class/negate-method-example/
-    public static final BigInteger d = new BigInteger("376014").negate();
+    public static final BigInteger d = BigInteger.valueOf(-376014);
 
     // The number of points 𝑛 on any Edwards curve is always a multiple of 4, and for
     // E521 that number is n := 4r, where:
     // r= 2^519 − 337554763258501705789107630418782636071904961214051226618635150085779108655765.
-    public static final BigInteger r = BigInteger.TWO.pow(519).subtract(
-            new BigInteger("337554763258501705789107630418782636071904961214051226618635150085779108655765"));
+    public static final BigInteger r = new BigInteger(
+            "7FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFD15B6C64746FC85F736B8AF5E7EC53F04FBD8C4569A8F1F4540EA2435F5180D6B", 16);
+
+    // G = (4, y) with y even, as new EllipticCurve(4) finds it, but without the square root; built on first use
+    private static final class Generator {
+        static final EllipticCurve G = new EllipticCurve(BigInteger.valueOf(4), new BigInteger(
+                "11DD4B4952F9B741BDB15C806D24013B3EBF3BE43295904D1E4050B3C80F5920A145616EBB481557D7BFA955CBFB1CFD4E064B0DE40F93E22F8BCDFB41D0093B10C", 16));
+    }
 
     // y coordinate of the curve
     private final BigInteger x;
@@ -41,6 +49,14 @@ public class EllipticCurve {
         this.y = y;
     }
 
+    /**
+     * @return the base point G = (4, y), y even
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static EllipticCurve generator() {
+        return Generator.G;
+    }
+
     // getter of x
     public BigInteger getX() {
         return x;
@@ -60,13 +76,34 @@ public class EllipticCurve {
      */
     public EllipticCurve(BigInteger x) {
         this.x = x;
-        this.y = leastSigBitY(x);
+        this.y = leastSigBitY(x, false);
     }
 
-    private static BigInteger leastSigBitY(BigInteger x) {
+    /**
+     * Decompress a point: the point (x, y) whose y has the given least significant bit.
+     * @param x, the x coordinate, in [0, p)
+     * @param lsb, the least significant bit of y
+     * @throws IllegalArgumentException if no point of the curve has this x
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public EllipticCurve(BigInteger x, boolean lsb) {
+        if (x.signum() < 0 || x.compareTo(p) >= 0) {
+            throw new IllegalArgumentException("x out of range");
+        }
+        this.x = x;
+        this.y = leastSigBitY(x, lsb);
+        if (this.y == null) {
+            throw new IllegalArgumentException("No point of E521 has this x");
+        }
+    }
+
+    private static BigInteger leastSigBitY(BigInteger x, boolean lsb) {
+        if (CryptoStats.ENABLED) {
+            CryptoStats.inversions(1);
+        }
         BigInteger numerator = BigInteger.ONE.subtract(x.pow(2));;
         BigInteger denominator = BigInteger.ONE.subtract(d.multiply(x.pow(2)));
-        return sqrt(numerator.multiply(denominator.modInverse(p)), p, false);
+        return sqrt(numerator.multiply(denominator.modInverse(p)), p, lsb);
     }
 
     /**
@@ -110,6 +147,9 @@ public class EllipticCurve {
         return addTwoPoints(point2);
     }
     private EllipticCurve addTwoPoints(EllipticCurve point2) {
+        if (CryptoStats.ENABLED) {
+            CryptoStats.inversions(2);
+        }
         BigInteger newNumX = x.multiply(point2.y).add(y.multiply(point2.x)).mod(p);
         BigInteger newNumY = y.multiply(point2.y).subtract(x.multiply(point2.x)).mod(p);
         BigInteger newDenX = BigInteger.ONE.add(d.multiply(x).multiply(point2.x).multiply(y).multiply(point2.y)).mod(p).modInverse(p);
@@ -134,6 +174,7 @@ public class EllipticCurve {
         if (scalar.equals(BigInteger.ZERO)) {
             return new EllipticCurve(BigInteger.ZERO, BigInteger.ONE);
         }
+        CryptoEvents.ScalarMultiplication event = CryptoStats.ENABLED ? CryptoStats.beginMultiplication() : null;
         EllipticCurve V = new EllipticCurve(x, y);
         for (int i = scalar.bitLength() - 2; i >= 0; i--) {
             V = V.sum(V);
@@ -141,9 +182,185 @@ public class EllipticCurve {
                 V = V.sum(this);
             }
         }
+        if (CryptoStats.ENABLED) {
+            CryptoStats.endMultiplication(event, scalar.bitLength(), false);
+        }
         return V;
     }
 
+    /**
+     * Precompute the fixed-base table P, 2*P, 4*P, ..., 2^(bits-1)*P of this point P, so that later
+     * multiplications by a scalar of up to bits bits take additions only (no doublings).
+     * @param bits, the largest scalar bit length the table serves
+     * @return the table
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public EllipticCurve[] powersOfTwo(int bits) {
+        // doubled in projective form and normalized at the end: one inversion for the table, not one per entry
+        BigInteger[][] points = new BigInteger[bits][];
+        points[0] = new BigInteger[] {x, y, BigInteger.ONE};
+        for (int i = 1; i < bits; i++) {
+            points[i] = doubleProjective(points[i - 1]);
+        }
+        EllipticCurve[] table = normalize(points);
+        table[0] = this;
+        return table;
+    }
+
+    /**
+     * Multiply the base point of a powersOfTwo table by a scalar: the sum of 2^i*P over the set bits i.
+     * Gives the same point as mulByScalar; scalars too long for the table (or negative) fall back to it.
+     * @param table, the powersOfTwo table of P
+     * @param scalar, the scalar
+     * @return scalar*P
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static EllipticCurve mulByTable(EllipticCurve[] table, BigInteger scalar) {
+        if (scalar.signum() < 0 || scalar.bitLength() > table.length) {
+            return table[0].mulByScalar(scalar);
+        }
+        // summed in projective form: one inversion in all, not one per addition
+        return normalize(new BigInteger[][] {mulByTableProjective(table, scalar)})[0];
+    }
+
+    /////////////////////////////////////////////////////////
+    /////////// Projective coordinates, for batches /////////
+    /////////////////////////////////////////////////////////
+    // A point (X : Y : Z) stands for (X/Z, Y/Z). Sums in this form need no inversion, so a batch of
+    // multiplications keeps its points projective and normalizes them all at the end with one inversion.
+
+    /**
+     * Multiply the base point of a powersOfTwo table by a scalar, as mulByTable, but leave the result projective.
+     * @param table, the powersOfTwo table of P
+     * @param scalar, the scalar
+     * @return scalar*P as {X, Y, Z}; normalize it with normalize
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static BigInteger[] mulByTableProjective(EllipticCurve[] table, BigInteger scalar) {
+        if (scalar.signum() < 0 || scalar.bitLength() > table.length) {
+            EllipticCurve V = table[0].mulByScalar(scalar);
+            return new BigInteger[] {V.x, V.y, BigInteger.ONE};
+        }
+        CryptoEvents.ScalarMultiplication event = CryptoStats.ENABLED ? CryptoStats.beginMultiplication() : null;
+        BigInteger[] V = {BigInteger.ZERO, BigInteger.ONE, BigInteger.ONE};
+        for (int i = 0; i < scalar.bitLength(); i++) {
+            if (scalar.testBit(i)) {
+                V = addProjective(V, table[i]);
+            }
+        }
+        if (CryptoStats.ENABLED) {
+            CryptoStats.endMultiplication(event, scalar.bitLength(), true);
+        }
+        return V;
+    }
+
+    /**
+     * Sum of a projective point (X1 : Y1 : Z1) and an affine point (x2, y2), without inversion:
+     * A = Z1, B = A^2, C = X1*x2, D = Y1*y2, E = d*C*D, F = B − E, G = B + E
+     * X3 = A*F*((X1 + Y1)(x2 + y2) − C − D), Y3 = A*G*(D − C), Z3 = F*G
+     * (the Edwards addition formula with the denominators kept in Z).
+     * @param P, {X1, Y1, Z1}
+     * @param Q, the affine point
+     * @return P + Q as {X3, Y3, Z3}
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    static BigInteger[] addProjective(BigInteger[] P, EllipticCurve Q) {
+        BigInteger A = P[2];
+        BigInteger B = A.multiply(A).mod(p);
+        BigInteger C = P[0].multiply(Q.x).mod(p);
+        BigInteger D = P[1].multiply(Q.y).mod(p);
+        BigInteger E = d.multiply(C).multiply(D).mod(p);
+        BigInteger F = B.subtract(E).mod(p);
+        BigInteger G = B.add(E).mod(p);
+        BigInteger X = A.multiply(F).multiply(P[0].add(P[1]).multiply(Q.x.add(Q.y)).subtract(C).subtract(D)).mod(p);
+        BigInteger Y = A.multiply(G).multiply(D.subtract(C)).mod(p);
+        return new BigInteger[] {X, Y, F.multiply(G).mod(p)};
+    }
+
+    /**
+     * Double of a projective point (X1 : Y1 : Z1), without inversion:
+     * B = (X1 + Y1)^2, C = X1^2, D = Y1^2, E = C + D, H = Z1^2, J = E − 2*H
+     * X3 = (B − E)*J, Y3 = E*(C − D), Z3 = E*J
+     * (the Edwards doubling formula, the curve equation folded into the denominators).
+     * @param P, {X1, Y1, Z1}
+     * @return 2*P as {X3, Y3, Z3}
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    static BigInteger[] doubleProjective(BigInteger[] P) {
+        BigInteger B = P[0].add(P[1]).pow(2).mod(p);
+        BigInteger C = P[0].multiply(P[0]).mod(p);
+        BigInteger D = P[1].multiply(P[1]).mod(p);
+        BigInteger E = C.add(D).mod(p);
+        BigInteger J = E.subtract(P[2].multiply(P[2]).shiftLeft(1)).mod(p);
+        BigInteger X = B.subtract(E).multiply(J).mod(p);
+        BigInteger Y = E.multiply(C.subtract(D)).mod(p);
+        return new BigInteger[] {X, Y, E.multiply(J).mod(p)};
+    }
+
+    /**
+     * Normalize projective points to (X/Z, Y/Z) with a single inversion (Montgomery's trick): invert the
+     * product of all the Z, then peel each 1/Z off it with two multiplications.
+     * @param points, the {X, Y, Z} of each point
+     * @return the affine points, in the same order
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static EllipticCurve[] normalize(BigInteger[][] points) {
+        int n = points.length;
+        EllipticCurve[] out = new EllipticCurve[n];
+        if (n == 0) {
+            return out;
+        }
+        // prefix[i] = Z_0 * .. * Z_i
+        BigInteger[] prefix = new BigInteger[n];
+        BigInteger product = BigInteger.ONE;
+        for (int i = 0; i < n; i++) {
+            product = product.multiply(points[i][2]).mod(p);
+            prefix[i] = product;
+        }
+        if (CryptoStats.ENABLED) {
+            CryptoStats.inversions(1);
+        }
+        BigInteger inverse = product.modInverse(p); // 1/(Z_0 * .. * Z_n-1)
+        for (int i = n - 1; i >= 0; i--) {
+            BigInteger zInverse = i == 0 ? inverse : inverse.multiply(prefix[i - 1]).mod(p);
+            inverse = inverse.multiply(points[i][2]).mod(p);
+            out[i] = new EllipticCurve(points[i][0].multiply(zInverse).mod(p), points[i][1].multiply(zInverse).mod(p));
+        }
+        return out;
+    }
+
+    /**
+     * Key fingerprint of a public key V:
+     * KMACXOF256(“”, Vx || Vy, 256, “FP”), with Vx and Vy as 66-byte big-endian integers.
+     * @return the 256-bit fingerprint
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[] fingerprint() {
+        byte[] xy = new byte[132];
+        byte[] xb = x.toByteArray();
+        byte[] yb = y.toByteArray();
+        int xl = Math.min(xb.length, 66);
+        int yl = Math.min(yb.length, 66);
+        System.arraycopy(xb, xb.length - xl, xy, 66 - xl, xl);
+        System.arraycopy(yb, yb.length - yl, xy, 132 - yl, yl);
+        return KMACXOF256.KMACXOF256_cal(new byte[0], xy, 256, "FP".getBytes());
+    }
+
+    /**
+     * Check that the point is on E521: x and y in [0, p) and x^2 + y^2 = 1 + d x^2 y^2 mod p.
+     * A public key from outside must pass this before it is multiplied by a secret scalar.
+     * @return true if the point is on the curve
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public boolean isOnCurve() {
+        if (x.signum() < 0 || x.compareTo(p) >= 0 || y.signum() < 0 || y.compareTo(p) >= 0) {
+            return false;
+        }
+        BigInteger x2 = x.multiply(x).mod(p);
+        BigInteger y2 = y.multiply(y).mod(p);
+        return x2.add(y2).mod(p).equals(BigInteger.ONE.add(d.multiply(x2).multiply(y2)).mod(p));
+    }
+
     /////////////////////////////////////////////////////////
     /////////////////// Test All Methods ////////////////////
     /////////////////////////////////////////////////////////
@@ -0,0 +1,412 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/*
+ * The persistent hash index
+ * Records (path, size, mtime, file key) -> KMACXOF256(“”, m, 512, “D”) so that an unchanged file
+ * is answered without being read. Two files make up an index <name>:
+ * <name>.log   - append-only log of records, each [length][CRC32][payload]; a torn tail is dropped on open
+ * <name>.table - compacted, memory-mapped open-addressed table of the latest record of every path,
+ *                replaced atomically (write, fsync, rename) so readers never see a partial table
+ * Records are looked up in the entries replayed from the log first, then in the table.
+ * One process writes at a time (file lock on <name>.lock); other processes open the index read-only.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class HashIndex implements AutoCloseable {
+
+    // "HIDX" and the table format version
+    private static final int MAGIC = 0x48494458;
+    private static final int VERSION = 1;
+
+    // Table header: magic, version, capacity, count
+    private static final int HEADER = 16;
+
+    // Compact on close once the log holds this many records, or an eighth of the table
+    private static final int COMPACT_MIN = 1024;
+
+    private final Path log;
+    private final Path table;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private FileChannel logChannel;
+    private volatile MappedByteBuffer mapped;
+    private int capacity;
+    private int count;
+
+    // The records of the log, newest per path
+    private final Map<String, Entry> recent = new ConcurrentHashMap<>();
+
+    // One record of the index
+    public static final class Entry {
+        final String path;
+        final long size;
+        final long mtime;
+        final String fileKey;
+        final byte[] digest;
+
+        Entry(String path, long size, long mtime, String fileKey, byte[] digest) {
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+            this.fileKey = fileKey;
+            this.digest = digest;
+        }
+
+        boolean matches(long size, long mtime, String fileKey) {
+            return this.size == size && this.mtime == mtime && this.fileKey.equals(fileKey);
+        }
+    }
+
+    /**
+     * Open (or create) the index with the given name. The first process to open it may write to it.
+     * @param name, the path of the index without the .log/.table extension
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public HashIndex(Path name) throws IOException {
+        this.log = Paths.get(name + ".log");
+        this.table = Paths.get(name + ".table");
+        Path lockFile = Paths.get(name + ".lock");
+        if (lockFile.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(lockFile.toAbsolutePath().getParent());
+        }
+        lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // already open for writing in this process
+            acquired = null;
+        }
+        lock = acquired;
+        mapTable();
+        replayLog();
+    }
+
+    /**
+     * @return false if another process is writing to the index: lookups work, records are dropped
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public boolean isWritable() {
+        return lock != null;
+    }
+
+    /**
+     * The attributes a digest is valid for: size, mtime in nanoseconds, and the file key (device and inode).
+     * @param file, the file
+     * @return the attributes of the file, not following symbolic links
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static BasicFileAttributes attributes(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    /**
+     * Look up the digest of a file.
+     * @param path, the absolute path of the file
+     * @param attrs, its current attributes
+     * @return the recorded digest if the size, mtime and file key are unchanged, else null
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[] lookup(String path, BasicFileAttributes attrs) {
+        long size = attrs.size();
+        long mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        String fileKey = String.valueOf(attrs.fileKey());
+        Entry entry = recent.get(path);
+        if (entry == null) {
+            entry = lookupTable(path);
+        }
+        boolean hit = entry != null && entry.matches(size, mtime, fileKey);
+        if (CryptoStats.ENABLED) {
+            CryptoStats.hashIndex(hit);
+        }
+        return hit ? entry.digest.clone() : null;
+    }
+
+    /**
+     * Record the digest of a file: appended to the log, visible to lookups at once.
+     * @param path, the absolute path of the file
+     * @param attrs, its attributes when it was read
+     * @param digest, its KMACXOF256 “D” digest
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void record(String path, BasicFileAttributes attrs, byte[] digest) throws IOException {
+        Entry entry = new Entry(path, attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                String.valueOf(attrs.fileKey()), digest.clone());
+        ByteBuffer record = ByteBuffer.wrap(encode(entry));
+        synchronized (this) {
+            recent.put(path, entry);
+            if (lock == null) {
+                return;
+            }
+            while (record.hasRemaining()) {
+                logChannel.write(record);
+            }
+        }
+    }
+
+    /**
+     * Make the recorded digests durable.
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public synchronized void flush() throws IOException {
+        if (lock != null) {
+            logChannel.force(false);
+        }
+    }
+
+    /**
+     * Rewrite the table with the latest record of every path and empty the log.
+     * The new table is written beside the old one, fsync’d and renamed over it; a crash before the log is
+     * emptied only replays records the table already holds.
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public synchronized void compact() throws IOException {
+        if (lock == null) {
+            return;
+        }
+        Map<String, Entry> all = new ConcurrentHashMap<>();
+        for (int slot = 0; slot < capacity; slot++) {
+            long offset = mapped.getLong(HEADER + slot * 8);
+            if (offset != 0) {
+                Entry entry = readMapped(offset);
+                if (entry != null) {
+                    all.put(entry.path, entry);
+                }
+            }
+        }
+        all.putAll(recent);
+
+        int newCapacity = Integer.highestOneBit(Math.max(16, all.size() * 2)) * 2;
+        long[] slots = new long[newCapacity];
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        long base = HEADER + (long) newCapacity * 8;
+        for (Entry entry : all.values()) {
+            int slot = slotOf(entry.path, newCapacity);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (newCapacity - 1);
+            }
+            slots[slot] = base + data.size();
+            data.write(encode(entry));
+        }
+
+        Path tmp = Paths.get(table + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate((int) base);
+            header.putInt(MAGIC).putInt(VERSION).putInt(newCapacity).putInt(all.size());
+            for (long offset : slots) {
+                header.putLong(offset);
+            }
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            ByteBuffer body = ByteBuffer.wrap(data.toByteArray());
+            while (body.hasRemaining()) {
+                channel.write(body);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, table, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        logChannel.truncate(0);
+        logChannel.force(true);
+        recent.clear();
+        mapTable();
+    }
+
+    /**
+     * Flush, compact if the log has grown, and release the write lock.
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (lock != null) {
+                flush();
+                if (recent.size() >= Math.max(COMPACT_MIN, count / 8)) {
+                    compact();
+                }
+                lock.release();
+            }
+        } finally {
+            if (logChannel != null) {
+                logChannel.close();
+            }
+            lockChannel.close();
+        }
+    }
+
+    // Map the current table, if any. The mapping stays valid after the file is renamed over.
+    private void mapTable() throws IOException {
+        mapped = null;
+        capacity = 0;
+        count = 0;
+        if (!Files.exists(table)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(table, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.limit() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+                return;
+            }
+            // a corrupt or truncated table is ignored, as if there were none: its slots must fit in the file
+            int cap = buf.getInt(8);
+            if (cap <= 0 || Integer.bitCount(cap) != 1 || HEADER + (long) cap * 8 > buf.limit()) {
+                return;
+            }
+            mapped = buf;
+            capacity = buf.getInt(8);
+            count = buf.getInt(12);
+        }
+    }
+
+    // Replay the log into recent, dropping (and, if writable, truncating) a torn or corrupt tail
+    private void replayLog() throws IOException {
+        long good = 0;
+        if (Files.exists(log)) {
+            try (InputStream in = Files.newInputStream(log);
+                 DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+                while (true) {
+                    int length = data.readInt();
+                    int crc = data.readInt();
+                    if (length <= 0 || length > (1 << 20)) {
+                        break;
+                    }
+                    byte[] payload = new byte[length];
+                    data.readFully(payload);
+                    if (crc32(payload) != crc) {
+                        break;
+                    }
+                    Entry entry = decode(payload);
+                    recent.put(entry.path, entry);
+                    good += 8 + length;
+                }
+            } catch (EOFException e) {
+                // torn tail: keep the records before it
+            }
+        }
+        if (lock != null) {
+            logChannel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (logChannel.size() > good) {
+                logChannel.truncate(good);
+                logChannel.force(true);
+            }
+            logChannel.position(good);
+        }
+    }
+
+    // Probe the mapped table for path
+    private Entry lookupTable(String path) {
+        MappedByteBuffer buf = mapped;
+        if (buf == null) {
+            return null;
+        }
+        int cap = buf.getInt(8);
+        int slot = slotOf(path, cap);
+        for (int i = 0; i < cap; i++) {
+            long offset = buf.getLong(HEADER + slot * 8);
+            if (offset == 0) {
+                return null;
+            }
+            Entry entry = readMapped(buf, offset);
+            if (entry != null && entry.path.equals(path)) {
+                return entry;
+            }
+            slot = (slot + 1) & (cap - 1);
+        }
+        return null;
+    }
+
+    private Entry readMapped(long offset) {
+        return readMapped(mapped, offset);
+    }
+
+    // Read the record at offset of the mapped table; absolute reads, so safe for concurrent readers.
+    // An offset or length outside the table (a corrupt or truncated file) reads as no record.
+    private static Entry readMapped(MappedByteBuffer buf, long offset) {
+        if (offset < HEADER || offset > buf.limit() - 8) {
+            return null;
+        }
+        int at = (int) offset;
+        int length = buf.getInt(at);
+        int crc = buf.getInt(at + 4);
+        if (length < 0 || length > buf.limit() - 8 - at) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buf.get(at + 8, payload);
+        if (crc32(payload) != crc) {
+            return null;
+        }
+        try {
+            return decode(payload);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Spread the hash of the path over the slots
+    private static int slotOf(String path, int cap) {
+        int h = path.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x45D9F3B;
+        h ^= (h >>> 16);
+        return h & (cap - 1);
+    }
+
+    // [length][CRC32][path, size, mtime, file key, digest]
+    private static byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeUTF(entry.path);
+        out.writeLong(entry.size);
+        out.writeLong(entry.mtime);
+        out.writeUTF(entry.fileKey);
+        out.writeShort(entry.digest.length);
+        out.write(entry.digest);
+        out.flush();
+        byte[] p = payload.toByteArray();
+        return ByteBuffer.allocate(8 + p.length).putInt(p.length).putInt(crc32(p)).put(p).array();
+    }
+
+    private static Entry decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String path = in.readUTF();
+        long size = in.readLong();
+        long mtime = in.readLong();
+        String fileKey = in.readUTF();
+        byte[] digest = new byte[in.readUnsignedShort()];
+        in.readFully(digest);
+        return new Entry(path, size, mtime, fileKey, digest);
+    }
+
+    private static int crc32(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+}
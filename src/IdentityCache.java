@@ -0,0 +1,275 @@
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The identity cache: passphrase-derived private keys kept for repeated decryption and signing
+ * Off unless the JVM is started with -Dcrypto.identityCache=<entries> (-Dcrypto.identityCache.ttl=<seconds>,
+ * default 300), or a CryptoService is given a cache of its own.
+ * An entry is found by a digest of the passphrase, KMACXOF256(salt, pw, 256, “IC”) under a random salt of the
+ * process, so the passphrase itself is never kept. It holds s <- 4*KMACXOF256(pw, “”, 512, “K”) and the
+ * KMACXOF256(s, ·, ·, “N”) and (s, ·, ·, “PN”) sponges of the signature nonce, already keyed. The cached copy
+ * lives in a direct buffer outside the Java heap, which is overwritten with zeros when the entry expires, is
+ * evicted or the cache is cleared. That is all it guarantees: every use still makes copies on the heap (s as
+ * an immutable BigInteger, the sponge states, the intermediates of the scalar multiplication) that cannot be
+ * wiped and stay until the garbage collector reuses their memory, as they would without the cache.
+ * Entries expire TTL after they were derived, used or not, and the least recently used is evicted past the
+ * size bound. The public key V is kept beside them once computed.
+ * An operation holds its entry until it is done, so an entry is never zeroed under a running operation.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public final class IdentityCache {
+
+    // Default time to live of an entry, in seconds
+    private static final long TTL = 300;
+
+    // Off-heap layout of an entry: length of s, s (at most 66 bytes), the two exported nonce sponges
+    private static final int SECRET = 1 + 66;
+    private static final int SPONGE = 206;
+    private static final int ENTRY = SECRET + 2 * SPONGE;
+
+    // Labels of the keyed nonce sponges, in the order of the layout
+    private static final String[] NONCE_LABELS = {"N", "PN"};
+
+    // The cache of -Dcrypto.identityCache, built on first use
+    private static final class Shared {
+        static final IdentityCache CACHE = Integer.getInteger("crypto.identityCache", 0) > 0
+                ? new IdentityCache(Integer.getInteger("crypto.identityCache"),
+                        TimeUnit.SECONDS.toMillis(Long.getLong("crypto.identityCache.ttl", TTL)))
+                : null;
+    }
+
+    private final int capacity;
+    private final long ttlMillis;
+
+    // KMACXOF256 sponge after (salt, “IC”): copied for the digest of each passphrase
+    private final Sha3 digestContext;
+
+    // Entries by passphrase digest, least recently used first
+    private final Map<String, Identity> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * One cached identity. Acquired from the cache by an operation and released when it is done.
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static final class Identity {
+        private final ByteBuffer secrets = ByteBuffer.allocateDirect(ENTRY);
+        private final long expires;
+        private volatile EllipticCurve V;
+        // guarded by the cache
+        private int users;
+        private boolean dropped;
+
+        private Identity(BigInteger s, long expires) {
+            this.expires = expires;
+            byte[] bytes = s.toByteArray();
+            secrets.put(0, (byte) bytes.length);
+            for (int i = 0; i < bytes.length; i++) {
+                secrets.put(1 + i, bytes[i]);
+            }
+            for (int j = 0; j < NONCE_LABELS.length; j++) {
+                byte[] state = KMACXOF256.KMACXOF256_init(bytes, NONCE_LABELS[j].getBytes()).exportState();
+                for (int i = 0; i < SPONGE; i++) {
+                    secrets.put(SECRET + j * SPONGE + i, state[i]);
+                }
+                Arrays.fill(state, (byte) 0);
+            }
+            Arrays.fill(bytes, (byte) 0);
+        }
+
+        /**
+         * @return the private key s, as a new BigInteger on the heap that cannot be wiped
+         * @author Kannika Armstrong, and Sam Viet Huynh
+         */
+        public BigInteger getSecret() {
+            byte[] bytes = new byte[secrets.get(0)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = secrets.get(1 + i);
+            }
+            BigInteger s = new BigInteger(bytes);
+            Arrays.fill(bytes, (byte) 0);
+            return s;
+        }
+
+        /**
+         * @param label, “N” or “PN”
+         * @return a KMACXOF256(s, ·, ·, label) sponge, ready to absorb the message
+         * @author Kannika Armstrong, and Sam Viet Huynh
+         */
+        public Sha3 getNonceSponge(String label) {
+            int j = label.equals(NONCE_LABELS[0]) ? 0 : 1;
+            byte[] state = new byte[SPONGE];
+            for (int i = 0; i < SPONGE; i++) {
+                state[i] = secrets.get(SECRET + j * SPONGE + i);
+            }
+            Sha3 sha = Sha3.importState(state);
+            Arrays.fill(state, (byte) 0);
+            return sha;
+        }
+
+        // getter of the public key, or null until computed
+        public EllipticCurve getPublicKey() {
+            return V;
+        }
+
+        // setter of the public key
+        void setPublicKey(EllipticCurve V) {
+            this.V = V;
+        }
+
+        private void wipe() {
+            for (int i = 0; i < ENTRY; i++) {
+                secrets.put(i, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * A cache of at most capacity identities, each kept for ttlMillis after its derivation.
+     * @param capacity, the size bound
+     * @param ttlMillis, the time to live of an entry, in milliseconds
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public IdentityCache(int capacity, long ttlMillis) {
+        if (capacity < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("The identity cache needs a capacity and a TTL");
+        }
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+        byte[] salt = new byte[32];
+        KeccakDRBG.current().nextBytes(salt);
+        digestContext = KMACXOF256.KMACXOF256_init(salt, "IC".getBytes());
+        // expired entries are zeroed even if the cache is not used again
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "identity-cache-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, ttlMillis / 4);
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the cache of -Dcrypto.identityCache, or null when it is off
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static IdentityCache shared() {
+        return Shared.CACHE;
+    }
+
+    /**
+     * Find the identity of a passphrase, deriving it on a miss. Release it when the operation is done.
+     * @param pw, the passphrase
+     * @return the identity, held until released
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public Identity acquire(byte[] pw) {
+        Sha3 sha = digestContext.copy();
+        sha.SHAKE256_update(pw, 0, pw.length);
+        String digest = CryptoService.toHex(KMACXOF256.KMACXOF256_final(sha, 256));
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Identity identity = entries.get(digest);
+            if (identity != null && identity.expires <= now) {
+                drop(entries.remove(digest));
+                identity = null;
+            }
+            if (CryptoStats.ENABLED) {
+                CryptoStats.identityCache(identity != null);
+            }
+            if (identity != null) {
+                identity.users++;
+                return identity;
+            }
+        }
+        // derive outside the lock; a racing thread may derive the same identity, and then ours is dropped
+        Identity derived = new Identity(CryptoService.privateKey(pw), now + ttlMillis);
+        synchronized (this) {
+            Identity identity = entries.get(digest);
+            if (identity != null) {
+                derived.wipe();
+            } else {
+                identity = derived;
+                entries.put(digest, identity);
+                Iterator<Identity> eldest = entries.values().iterator();
+                while (entries.size() > capacity) {
+                    drop(eldest.next());
+                    eldest.remove();
+                }
+            }
+            identity.users++;
+            return identity;
+        }
+    }
+
+    /**
+     * Release an identity acquired from the cache: zeroed now if it was dropped while in use.
+     * @param identity, the identity
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public synchronized void release(Identity identity) {
+        identity.users--;
+        if (identity.dropped && identity.users == 0) {
+            identity.wipe();
+        }
+    }
+
+    /**
+     * @return the number of identities in the cache
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Zero and drop every identity.
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public synchronized void clear() {
+        for (Identity identity : entries.values()) {
+            drop(identity);
+        }
+        entries.clear();
+    }
+
+    /**
+     * Zero and drop every identity, and stop the sweeper.
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void close() {
+        sweeper.shutdownNow();
+        clear();
+    }
+
+    // Zero and drop the expired identities
+    private synchronized void sweep() {
+        long now = System.currentTimeMillis();
+        Iterator<Identity> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Identity identity = it.next();
+            if (identity.expires <= now) {
+                drop(identity);
+                it.remove();
+            }
+        }
+    }
+
+    // Zero an identity at once, or when its last user releases it
+    private void drop(Identity identity) {
+        identity.dropped = true;
+        if (identity.users == 0) {
+            identity.wipe();
+        }
+    }
+}
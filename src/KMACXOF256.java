@@ -1,3 +1,12 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
 /*
  * The KMACXOF256
  * @author Kannika Armstrong, and Sam Viet Huynh
@@ -20,12 +29,78 @@ public class KMACXOF256 {
      * @author Kannika Armstrong, and Sam Viet Huynh
      */
     public static byte[] KMACXOF256_cal(byte[] K, byte[] X, int L, byte[] S) {
+        CryptoEvents.Kmac event = CryptoStats.ENABLED ? CryptoStats.beginKmac() : null;
         // Validity Conditions: len(K) <22040 and 0 ≤ L and len(S) < 22040
         // 1. newX = bytepad(encode_string(K), 136) || X || right_encode(0).
         byte[] newX = concat(concat(bytepad(encode_string(K),136), X), right_encode(0));
 
         // 2. return cSHAKE256(newX, L, “KMAC”, S).
-        return cSHAKE256(newX, L, "KMAC".getBytes(), S);
+        byte[] out = cSHAKE256(newX, L, "KMAC".getBytes(), S);
+        if (CryptoStats.ENABLED) {
+            CryptoStats.endKmac(event, S, X.length, L);
+        }
+        return out;
+    }
+
+    /**
+     * Start a streaming KMACXOF256: the returned sponge has absorbed the cSHAKE256 prefix and
+     * bytepad(encode_string(K), 136); absorb X with SHAKE256_update, then call KMACXOF256_final.
+     * @param K, a key bit string of any length, including zero
+     * @param S, an optional customization bit string of any length, including zero
+     * @return the sponge, ready to absorb X
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static Sha3 KMACXOF256_init(byte[] K, byte[] S) {
+        Sha3 sha = cSHAKE256_init("KMAC".getBytes(), S);
+        byte[] key = bytepad(encode_string(K), 136);
+        sha.SHAKE256_update(key, key.length);
+        return sha;
+    }
+
+    /**
+     * Finish a streaming KMACXOF256: absorb right_encode(0) and squeeze L bits.
+     * @param sha, the sponge returned by KMACXOF256_init, after X was absorbed
+     * @param L, an integer representing the requested output length in bits
+     * @return result of KMACXOF256
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] KMACXOF256_final(Sha3 sha, int L) {
+        KMACXOF256_xof(sha);
+        byte[] out = new byte[L/8];
+        sha.SHAKE_out(out, L/8);
+        return out;
+    }
+
+    /**
+     * Finish absorbing a streaming KMACXOF256 (right_encode(0)) and switch to squeezing: since the output
+     * does not depend on L, it can then be squeezed in pieces with SHAKE_out, e.g. as a keystream.
+     * @param sha, the sponge returned by KMACXOF256_init, after X was absorbed
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static void KMACXOF256_xof(Sha3 sha) {
+        byte[] tail = right_encode(0);
+        sha.SHAKE256_update(tail, tail.length);
+        sha.SHAKE256_xof(true);
+    }
+
+    /**
+     * Calculates the KMACXOF256 of a stream in constant memory; same result as KMACXOF256_cal
+     * over the whole stream content.
+     * @param K, a key bit string of any length, including zero
+     * @param in, the main input
+     * @param L, an integer representing the requested output length in bits
+     * @param S, an optional customization bit string of any length, including zero
+     * @return result of KMACXOF256
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] KMACXOF256_stream(byte[] K, InputStream in, int L, byte[] S) throws IOException {
+        Sha3 sha = KMACXOF256_init(K, S);
+        byte[] buf = new byte[1 << 16];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            sha.SHAKE256_update(buf, 0, n);
+        }
+        return KMACXOF256_final(sha, L);
     }
 
     /**
@@ -41,26 +116,236 @@ public class KMACXOF256 {
      * @return result of cSHAKE256
      * @author Kannika Armstrong, and Sam Viet Huynh
      */
-    private static byte[] cSHAKE256(byte[] X, int L, byte[] N, byte[] S) {
+    static byte[] cSHAKE256(byte[] X, int L, byte[] N, byte[] S) {
         // Validity Conditions: len(N)< 22040 and len(S)< 22040
         // 1. If N = "" and S = "":
         // return SHAKE256(X, L);
         // 2. Else:
         // return KECCAK[512](bytepad(encode_string(N) || encode_string(S), 136) || X || 00, L).
-        boolean canUseCShake = false;
-        Sha3 sha = new Sha3(32);
+        boolean canUseCShake = N.length != 0 || S.length != 0;
+        Sha3 sha = cSHAKE256_init(N, S);
         byte[] out = new byte[L/8];
-        if (N.length != 0 && S.length != 0) { // use cSHAKE
-            canUseCShake = true;
+        sha.SHAKE256_update(X, X.length);
+        sha.SHAKE256_xof(canUseCShake);
+        sha.SHAKE_out(out, L/8);
+        return out;
+    }
+
+    // Start a cSHAKE256 sponge: absorb bytepad(encode_string(N) || encode_string(S), 136) unless N = S = ""
+    private static Sha3 cSHAKE256_init(byte[] N, byte[] S) {
+        Sha3 sha = new Sha3(32);
+        if (N.length != 0 || S.length != 0) { // use cSHAKE
             byte[] bytepad= bytepad(concat(encode_string(N), encode_string(S)), 136);
             sha.SHAKE256_update(bytepad, bytepad.length);
         }
-        sha.SHAKE256_update(X, X.length);
-        sha.SHAKE256_xof(canUseCShake);
+        return sha;
+    }
+
+    /**
+     * Calculates the TupleHash256
+     * Reference: https://nvlpubs.nist.gov/nistpubs/SpecialPublications/NIST.SP.800-185.pdf
+     * Built on the encodings of the publication (see nist_left_encode), so it gives the published sample outputs.
+     * TupleHash256(X, L, S):
+     * @param X, the tuple of input bit strings, each of any length, including zero
+     * @param L, an integer representing the requested output length in bits
+     * @param S, an optional customization bit string of any length, including zero
+     * @return result of TupleHash256
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] TupleHash256(byte[][] X, int L, byte[] S) {
+        return tupleHash(X, L, S, false);
+    }
+
+    /**
+     * Calculates the TupleHashXOF256, the extendable-output variant of TupleHash256.
+     * TupleHashXOF256(X, L, S):
+     * @param X, the tuple of input bit strings, each of any length, including zero
+     * @param L, an integer representing the requested output length in bits
+     * @param S, an optional customization bit string of any length, including zero
+     * @return result of TupleHashXOF256
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] TupleHashXOF256(byte[][] X, int L, byte[] S) {
+        return tupleHash(X, L, S, true);
+    }
+
+    private static byte[] tupleHash(byte[][] X, int L, byte[] S, boolean xof) {
+        // 1. z = “”.
+        // 2. n = the number of input strings in the tuple X.
+        // 3. for i = 1 to n: z = z || encode_string(X[i]).
+        //    Each element is absorbed straight from its own buffer, behind left_encode(len(X[i])).
+        Sha3 sha = cSHAKE256_nist_init("TupleHash".getBytes(), S);
+        for (byte[] X_i : X) {
+            byte[] len = nist_left_encode(X_i.length * 8L);
+            sha.SHAKE256_update(len, len.length);
+            sha.SHAKE256_update(X_i, X_i.length);
+        }
+
+        // 4. newX = z || right_encode(L), where L = 0 for the XOF variant.
+        byte[] tail = nist_right_encode(xof ? 0 : L);
+        sha.SHAKE256_update(tail, tail.length);
+
+        // 5. return cSHAKE256(newX, L, “TupleHash”, S).
+        sha.SHAKE256_xof(true);
+        byte[] out = new byte[L/8];
         sha.SHAKE_out(out, L/8);
         return out;
     }
 
+    // Block size B (in bytes) of ParallelHash256 as used by the application
+    public static final int PARALLEL_HASH_BLOCK = 8192;
+
+    /**
+     * Calculates the ParallelHash256
+     * Reference: https://nvlpubs.nist.gov/nistpubs/SpecialPublications/NIST.SP.800-185.pdf
+     * Built on the encodings of the publication (see nist_left_encode), so it gives the published sample outputs.
+     * ParallelHash256(X, B, L, S):
+     * @param X, the main input bit string
+     * @param B, the block size in bytes
+     * @param L, an integer representing the requested output length in bits
+     * @param S, an optional customization bit string of any length, including zero
+     * @return result of ParallelHash256
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] ParallelHash256(byte[] X, int B, int L, byte[] S) {
+        return parallelHash(X, B, L, S, false);
+    }
+
+    /**
+     * Calculates the ParallelHashXOF256, the extendable-output variant of ParallelHash256.
+     * ParallelHashXOF256(X, B, L, S):
+     * @param X, the main input bit string
+     * @param B, the block size in bytes
+     * @param L, an integer representing the requested output length in bits
+     * @param S, an optional customization bit string of any length, including zero
+     * @return result of ParallelHashXOF256
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] ParallelHashXOF256(byte[] X, int B, int L, byte[] S) {
+        return parallelHash(X, B, L, S, true);
+    }
+
+    /**
+     * Calculates the ParallelHash256 (or ParallelHashXOF256) of a file, streaming it in batches of blocks.
+     * The leaves of a batch are hashed on the common fork-join pool while the next batch is read.
+     * @param file, the input file
+     * @param B, the block size in bytes
+     * @param L, an integer representing the requested output length in bits
+     * @param S, an optional customization bit string of any length, including zero
+     * @param xof, true for ParallelHashXOF256
+     * @return the hash of the file content
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] ParallelHash256_file(File file, int B, int L, byte[] S, boolean xof) throws IOException {
+        // Validity Conditions: 0 < B
+        // 1. n = ⌈ (len(X)/8) / B ⌉.
+        // 2. z = left_encode(B).
+        Sha3 sha = cSHAKE256_nist_init("ParallelHash".getBytes(), S);
+        byte[] z = nist_left_encode(B);
+        sha.SHAKE256_update(z, z.length);
+
+        // 3. for i = 0 to n−1: z = z || cSHAKE256(substring(X, i*B*8, (i+1)*B*8), 512, “”, “”).
+        int batch = B * ForkJoinPool.commonPool().getParallelism() * 16;
+        int n = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buf = in.readNBytes(batch);
+            while (buf.length > 0) {
+                byte[] current = buf;
+                ForkJoinTask<byte[]> leaves = ForkJoinPool.commonPool().submit(() -> hashLeaves(current, current.length, B));
+                buf = in.readNBytes(batch);
+                byte[] cv = leaves.join();
+                sha.SHAKE256_update(cv, cv.length);
+                n += cv.length / 64;
+            }
+        }
+
+        // 4. z = z || right_encode(n) || right_encode(L).
+        // 5. newX = cSHAKE256(z, L, “ParallelHash”, S).
+        return parallelHashFinal(sha, n, L, xof);
+    }
+
+    private static byte[] parallelHash(byte[] X, int B, int L, byte[] S, boolean xof) {
+        Sha3 sha = cSHAKE256_nist_init("ParallelHash".getBytes(), S);
+        byte[] z = nist_left_encode(B);
+        sha.SHAKE256_update(z, z.length);
+        byte[] cv = hashLeaves(X, X.length, B);
+        sha.SHAKE256_update(cv, cv.length);
+        return parallelHashFinal(sha, cv.length / 64, L, xof);
+    }
+
+    // cSHAKE256(block, 512, “”, “”) of every B-byte block of X[0 .. len), in parallel
+    private static byte[] hashLeaves(byte[] X, int len, int B) {
+        int n = (len + B - 1) / B;
+        byte[] cv = new byte[n * 64];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            Sha3 leaf = new Sha3(32);
+            leaf.SHAKE256_update(X, i * B, Math.min(B, len - i * B));
+            leaf.SHAKE256_xof(false);
+            byte[] out = new byte[64];
+            leaf.SHAKE_out(out, 64);
+            System.arraycopy(out, 0, cv, i * 64, 64);
+        });
+        return cv;
+    }
+
+    // z = z || right_encode(n) || right_encode(L), where L = 0 for the XOF variant
+    private static byte[] parallelHashFinal(Sha3 sha, int n, int L, boolean xof) {
+        byte[] tail = concat(nist_right_encode(n), nist_right_encode(xof ? 0 : L));
+        sha.SHAKE256_update(tail, tail.length);
+        sha.SHAKE256_xof(true);
+        byte[] out = new byte[L/8];
+        sha.SHAKE_out(out, L/8);
+        return out;
+    }
+
+    ///////////////////////////////////////////////////////////
+    //////// The encodings of SP 800-185, as published ////////
+    ///////////////////////////////////////////////////////////
+    // KMACXOF256 and cSHAKE256 above keep the application's own bytepad (a 4-byte count instead of zero
+    // padding) and little-endian left_encode, so that the keys and cryptograms made so far stay valid.
+    // TupleHash and ParallelHash have no such history and use these, which give the published samples.
+
+    // left_encode(x): the byte count n, then x as n big-endian bytes
+    static byte[] nist_left_encode(long x) {
+        int n = Math.max(1, (64 - Long.numberOfLeadingZeros(x) + 7) / 8);
+        byte[] out = new byte[n + 1];
+        out[0] = (byte) n;
+        for (int i = 1; i <= n; i++) {
+            out[i] = (byte) (x >>> (8 * (n - i)));
+        }
+        return out;
+    }
+
+    // right_encode(x): x as n big-endian bytes, then the byte count n
+    static byte[] nist_right_encode(long x) {
+        int n = Math.max(1, (64 - Long.numberOfLeadingZeros(x) + 7) / 8);
+        byte[] out = new byte[n + 1];
+        for (int i = 0; i < n; i++) {
+            out[i] = (byte) (x >>> (8 * (n - 1 - i)));
+        }
+        out[n] = (byte) n;
+        return out;
+    }
+
+    // encode_string(S) = left_encode(len(S)) || S
+    private static byte[] nist_encode_string(byte[] S) {
+        return concat(nist_left_encode(S.length * 8L), S);
+    }
+
+    // bytepad(X, w) = left_encode(w) || X, then zeros up to a multiple of w bytes
+    private static byte[] nist_bytepad(byte[] X, int w) {
+        byte[] z = concat(nist_left_encode(w), X);
+        return Arrays.copyOf(z, (z.length + w - 1) / w * w);
+    }
+
+    // Start a cSHAKE256 sponge with the encodings of the publication; N is never empty here
+    private static Sha3 cSHAKE256_nist_init(byte[] N, byte[] S) {
+        Sha3 sha = new Sha3(32);
+        byte[] prefix = nist_bytepad(concat(nist_encode_string(N), nist_encode_string(S)), 136);
+        sha.SHAKE256_update(prefix, prefix.length);
+        return sha;
+    }
+
     ///////////////////////////////////////////////////////////
     //////////////// The Internal Functions ///////////////////
     // as specified in the NIST Special Publication 800-185 ///
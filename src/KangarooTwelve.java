@@ -0,0 +1,212 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+/*
+ * TurboSHAKE128 and KangarooTwelve (KT128) on the 12-round Keccak-p[1600, 12] permutation of Sha3
+ * References:
+ * KangarooTwelve and TurboSHAKE: https://datatracker.ietf.org/doc/rfc9861/
+ * https://keccak.team/kangarootwelve.html
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class KangarooTwelve {
+
+    private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
+
+    // Chunk size of the KangarooTwelve tree: 8192 bytes
+    private static final int CHUNK = 8192;
+
+    // Rounds of the Keccak-p permutation used by TurboSHAKE
+    private static final int ROUNDS = 12;
+
+    /**
+     * Calculates the TurboSHAKE128
+     * TurboSHAKE128(M, D, L):
+     * @param M, the input message
+     * @param D, the domain separation byte, 0x01 to 0x7F
+     * @param L, an integer representing the requested output length in bits
+     * @return result of TurboSHAKE128
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] TurboSHAKE128(byte[] M, byte D, int L) {
+        return turboShake(M, 0, M.length, D, L);
+    }
+
+    /**
+     * Calculates the KangarooTwelve (KT128)
+     * KT128(M, C, L):
+     * @param M, the input message
+     * @param C, an optional customization string of any length, including zero
+     * @param L, an integer representing the requested output length in bits
+     * @return result of KT128
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] KT128(byte[] M, byte[] C, int L) {
+        try {
+            return KT128_stream(new ByteArrayInputStream(M), C, L);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // cannot happen on a byte array
+        }
+    }
+
+    /**
+     * Calculates the KangarooTwelve (KT128) of a file, streaming it.
+     * @param file, the input file
+     * @param C, an optional customization string of any length, including zero
+     * @param L, an integer representing the requested output length in bits
+     * @return result of KT128 over the file content
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] KT128_file(File file, byte[] C, int L) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return KT128_stream(in, C, L);
+        }
+    }
+
+    /**
+     * Calculates the KangarooTwelve (KT128) of a stream.
+     * The leaves (chunks after the first one) of a batch are hashed on the common fork-join pool
+     * while the next batch is read.
+     * @param in, the input message
+     * @param C, an optional customization string of any length, including zero
+     * @param L, an integer representing the requested output length in bits
+     * @return result of KT128 over the stream content
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] KT128_stream(InputStream in, byte[] C, int L) throws IOException {
+        // 1. S = M || C || length_encode(|C|)
+        InputStream S = new SequenceInputStream(in,
+                new ByteArrayInputStream(KMACXOF256.concat(C, length_encode(C.length))));
+
+        // 2. if |S| <= 8192: return TurboSHAKE128(S, 0x07, L)
+        byte[] S_0 = S.readNBytes(CHUNK);
+        byte[] next = S.readNBytes(CHUNK * ForkJoinPool.commonPool().getParallelism() * 16);
+        if (next.length == 0) {
+            return TurboSHAKE128(S_0, (byte) 0x07, L);
+        }
+
+        // 3. FinalNode = S_0 || 0x03 || 0x00^7
+        Sha3 finalNode = new Sha3(16, ROUNDS);
+        finalNode.SHAKE256_update(S_0, S_0.length);
+        byte[] marker = {0x03, 0, 0, 0, 0, 0, 0, 0};
+        finalNode.SHAKE256_update(marker, marker.length);
+
+        // 4. for each S_i, i > 0: FinalNode = FinalNode || TurboSHAKE128(S_i, 0x0B, 256)
+        long n = 0;
+        while (next.length > 0) {
+            byte[] current = next;
+            ForkJoinTask<byte[]> leaves = ForkJoinPool.commonPool().submit(() -> hashLeaves(current));
+            next = S.readNBytes(current.length);
+            byte[] cv = leaves.join();
+            finalNode.SHAKE256_update(cv, cv.length);
+            n += cv.length / 32;
+        }
+
+        // 5. FinalNode = FinalNode || length_encode(n − 1) || 0xFF || 0xFF
+        //    (n − 1 counts the chunks after S_0, which is n here)
+        byte[] tail = KMACXOF256.concat(length_encode(n), new byte[] {(byte) 0xFF, (byte) 0xFF});
+        finalNode.SHAKE256_update(tail, tail.length);
+
+        // 6. return TurboSHAKE128(FinalNode, 0x06, L)
+        finalNode.SHAKE_pad((byte) 0x06);
+        byte[] out = new byte[L / 8];
+        finalNode.SHAKE_out(out, out.length);
+        return out;
+    }
+
+    // TurboSHAKE128(S_i, 0x0B, 256) of every 8192-byte chunk of X, in parallel
+    private static byte[] hashLeaves(byte[] X) {
+        int n = (X.length + CHUNK - 1) / CHUNK;
+        byte[] cv = new byte[n * 32];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            byte[] out = turboShake(X, i * CHUNK, Math.min(CHUNK, X.length - i * CHUNK), (byte) 0x0B, 256);
+            System.arraycopy(out, 0, cv, i * 32, 32);
+        });
+        return cv;
+    }
+
+    private static byte[] turboShake(byte[] M, int off, int len, byte D, int L) {
+        // TurboSHAKE128: capacity 256 bits, rate 168 bytes, 12 rounds
+        Sha3 sha = new Sha3(16, ROUNDS);
+        sha.SHAKE256_update(M, off, len);
+        sha.SHAKE_pad(D);
+        byte[] out = new byte[L / 8];
+        sha.SHAKE_out(out, out.length);
+        return out;
+    }
+
+    /**
+     * length_encode(x): the big-endian encoding of x without leading zero bytes,
+     * followed by the number of bytes of that encoding (x = 0 encodes to 0x00).
+     * @param x, a non-negative integer
+     * @return length_encoded byte array
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    private static byte[] length_encode(long x) {
+        int n = 0;
+        while (n < 8 && (x >>> (8 * n)) != 0) {
+            n++;
+        }
+        byte[] bytes = new byte[n + 1];
+        for (int i = 0; i < n; i++) {
+            bytes[i] = (byte) (x >>> (8 * (n - 1 - i)));
+        }
+        bytes[n] = (byte) n;
+        return bytes;
+    }
+
+    /////////////////////////////////////////////////////////
+    /////////////////// Test All Methods ////////////////////
+    /////////////////////////////////////////////////////////
+
+    // ptn(n): the pattern 00 01 02 .. F9 FA 00 01 .. of length n used by the published test vectors
+    private static byte[] ptn(int n) {
+        byte[] bytes = new byte[n];
+        for (int i = 0; i < n; i++) {
+            bytes[i] = (byte) (i % 251);
+        }
+        return bytes;
+    }
+
+    private static void check(String name, byte[] result, String expected) {
+        StringBuilder str = new StringBuilder();
+        for (byte b: result) {
+            int v = b & 0xFF;
+            str.append(HEX_ARRAY[v >>> 4]);
+            str.append(HEX_ARRAY[v & 0x0F]);
+        }
+        String output = str.toString();
+        System.out.println(name + ": " + output.equals(expected.replace(" ", "")));
+    }
+
+    // Published KT128 and TurboSHAKE128 test vectors (RFC 9861, section 5)
+    private static void test_KangarooTwelve() {
+        check("TurboSHAKE128(``, 0x1F, 32)", TurboSHAKE128(new byte[0], (byte) 0x1F, 256),
+                "1E 41 5F 1C 59 83 AF F2 16 92 17 27 7D 17 BB 53 8C D9 45 A3 97 DD EC 54 1F 1C E4 1A F2 C1 B7 4C");
+        check("KT128(``, ``, 32)", KT128(new byte[0], new byte[0], 256),
+                "1A C2 D4 50 FC 3B 42 05 D1 9D A7 BF CA 1B 37 51 3C 08 03 57 7A C7 16 7F 06 FE 2C E1 F0 EF 39 E5");
+        check("KT128(ptn(17), ``, 32)", KT128(ptn(17), new byte[0], 256),
+                "6B F7 5F A2 23 91 98 DB 47 72 E3 64 78 F8 E1 9B 0F 37 12 05 F6 A9 A9 3A 27 3F 51 DF 37 12 28 88");
+        check("KT128(ptn(17^2), ``, 32)", KT128(ptn(17 * 17), new byte[0], 256),
+                "0C 31 5E BC DE DB F6 14 26 DE 7D CF 8F B7 25 D1 E7 46 75 D7 F5 32 7A 50 67 F3 67 B1 08 EC B6 7C");
+        check("KT128(ptn(17^3), ``, 32)", KT128(ptn(17 * 17 * 17), new byte[0], 256),
+                "CB 55 2E 2E C7 7D 99 10 70 1D 57 8B 45 7D DF 77 2C 12 E3 22 E4 EE 7F E4 17 F9 2C 75 8F 0D 59 D0");
+        check("KT128(ptn(17^4), ``, 32)", KT128(ptn(17 * 17 * 17 * 17), new byte[0], 256),
+                "87 01 04 5E 22 20 53 45 FF 4D DA 05 55 5C BB 5C 3A F1 A7 71 C2 B8 9B AE F3 7D B4 3D 99 98 B9 FE");
+        check("KT128(ptn(17^5), ``, 32)", KT128(ptn(17 * 17 * 17 * 17 * 17), new byte[0], 256),
+                "84 4D 61 09 33 B1 B9 96 3C BD EB 5A E3 B6 B0 5C C7 CB D6 7C EE DF 88 3E B6 78 A0 A8 E0 37 16 82");
+    }
+
+    // Use to test all methods: uncomment to test each method
+    public static void main(String[] args) {
+        // test_KangarooTwelve();
+    }
+}
@@ -0,0 +1,93 @@
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/*
+ * The KMACXOF256-based deterministic random bit generator (DRBG)
+ * Used for every random draw of the application (z, k and nonces) instead of java.util.Random.
+ * Each thread has its own instance, so there is no contention:
+ * - seed: key <- KMACXOF256(seed, “”, 512, “DRBG-SEED”), seed from the OS entropy source
+ * - generate: (key’ || out) <- KMACXOF256(key, left_encode(counter), 512 + 8|out|, “DRBG”); key <- key’
+ * - reseed: key <- KMACXOF256(key, fresh entropy, 512, “DRBG-SEED”), every RESEED_REQUESTS requests
+ *   or RESEED_BYTES bytes of output
+ * The key is replaced after every request, so earlier output cannot be recomputed from the state.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class KeccakDRBG {
+
+    // Reseed after this many requests, or this many bytes of output, whichever comes first
+    private static final int RESEED_REQUESTS = 1 << 16;
+    private static final long RESEED_BYTES = 1L << 30;
+
+    // Output is generated in blocks of at most 1 MiB per KMACXOF256 call
+    private static final int BLOCK = 1 << 20;
+
+    private static final byte[] DRBG = "DRBG".getBytes();
+    private static final byte[] DRBG_SEED = "DRBG-SEED".getBytes();
+
+    // The OS entropy source: non-blocking, only used to seed and reseed
+    private static final SecureRandom ENTROPY = new SecureRandom();
+
+    private static final ThreadLocal<KeccakDRBG> INSTANCE = ThreadLocal.withInitial(KeccakDRBG::new);
+
+    private byte[] key;
+    private int counter;
+    private int requests;
+    private long bytes;
+
+    // Constructor: seeded from the OS entropy source
+    private KeccakDRBG() {
+        key = new byte[0];
+        reseed();
+    }
+
+    /**
+     * The DRBG of the calling thread.
+     * @return the instance of the current thread
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static KeccakDRBG current() {
+        return INSTANCE.get();
+    }
+
+    /**
+     * Fill out with random bytes.
+     * @param out, the byte array to fill
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void nextBytes(byte[] out) {
+        for (int off = 0; off < out.length; off += BLOCK) {
+            generate(out, off, Math.min(BLOCK, out.length - off));
+        }
+    }
+
+    /**
+     * Mix fresh entropy from the OS into the key and reset the reseed counters.
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void reseed() {
+        byte[] seed = new byte[64];
+        ENTROPY.nextBytes(seed);
+        byte[] old = key;
+        key = KMACXOF256.KMACXOF256_cal(old, seed, 512, DRBG_SEED);
+        Arrays.fill(old, (byte) 0);
+        Arrays.fill(seed, (byte) 0);
+        requests = 0;
+        bytes = 0;
+    }
+
+    // (key’ || out) <- KMACXOF256(key, left_encode(counter), 512 + 8|out|, “DRBG”)
+    private void generate(byte[] out, int off, int len) {
+        if (requests >= RESEED_REQUESTS || bytes >= RESEED_BYTES) {
+            reseed();
+        }
+        byte[] r = KMACXOF256.KMACXOF256_cal(key, KMACXOF256.left_encode(counter++), (64 + len) * 8, DRBG);
+        Arrays.fill(key, (byte) 0);
+        key = Arrays.copyOfRange(r, 0, 64);
+        System.arraycopy(r, 64, out, off, len);
+        Arrays.fill(r, (byte) 0);
+        requests++;
+        bytes += len;
+    }
+}
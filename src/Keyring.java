@@ -0,0 +1,978 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/*
+ * The keyring
+ * A store of E521 public keys, each with an alias, found in O(1) by fingerprint (KMACXOF256(“”, Vx || Vy,
+ * 256, “FP”), see EllipticCurve.fingerprint) or by alias. Two files make up a keyring <name>:
+ * <name>.keys  - append-only file of records, each [length][CRC32][payload]: a key (fingerprint, compressed
+ *                point: Vx and the least significant bit of Vy, alias, creation time, comment) or the
+ *                revocation of a fingerprint; a torn tail is dropped on open
+ * <name>.index - memory-mapped open-addressed table, slots of [tag][offset of the record], one slot per
+ *                fingerprint (tag: its first 8 bytes) and one per alias (tag: KMACXOF256(“”, alias, 64, “KA”)),
+ *                over the live keys of the first <covered> bytes of the keys file; rebuilt atomically
+ * Records past the covered bytes are replayed into memory on open and looked up first. A key is only
+ * decompressed when it is used, so opening and resolving do not parse every key.
+ * Any number of threads and processes may read; one process writes at a time (file lock on <name>.lock).
+ * Compaction rewrites the keys file without revoked keys under a new generation number; an index of
+ * another generation is ignored, so a reader never pairs a keys file with the wrong index.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class Keyring implements AutoCloseable {
+
+    // "KRNG" and "KRIX", and the format version of both files
+    private static final int KEYS_MAGIC = 0x4B524E47;
+    private static final int INDEX_MAGIC = 0x4B524958;
+    private static final int VERSION = 1;
+
+    // Keys header: magic, version, generation. Index header: magic, version, capacity, count, generation, covered
+    private static final int KEYS_HEADER = 16;
+    private static final int INDEX_HEADER = 32;
+    private static final int SLOT = 16;
+
+    // Record types
+    private static final byte KEY = 1;
+    private static final byte REVOKE = 2;
+
+    // Length of a fingerprint, and of a compressed point: Vx as a 66-byte big-endian integer, then the lsb of Vy
+    private static final int FINGERPRINT = 32;
+    private static final int COMPRESSED = 67;
+
+    // Shortest fingerprint prefix accepted, in hex digits: the 8 bytes of the tag
+    public static final int MIN_PREFIX = 16;
+
+    // Reindex on close once this many records are past the index, or an eighth of it
+    private static final int REINDEX_MIN = 256;
+
+    private final Path keys;
+    private final Path index;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    // The files in use; replaced under the write lock by compact, reindex and refresh
+    private FileChannel keysChannel;
+    private long generation;
+    private MappedByteBuffer mapped;
+    private int count;
+    private long end;
+
+    // The records past the index: keys by fingerprint and alias, and the fingerprints revoked since
+    private final Map<String, Key> recentByFingerprint = new ConcurrentHashMap<>();
+    private final Map<String, Key> recentByAlias = new ConcurrentHashMap<>();
+    private final Set<String> revoked = ConcurrentHashMap.newKeySet();
+    private int recentRecords;
+
+    // Readers share the files; compaction, reindexing and reopening take them alone
+    private final ReadWriteLock files = new ReentrantReadWriteLock();
+
+    // One key of the keyring
+    public static final class Key {
+        final byte[] fingerprint;
+        final byte[] compressed;
+        final String alias;
+        final long created;
+        final String comment;
+        private volatile EllipticCurve V;
+
+        Key(byte[] fingerprint, byte[] compressed, String alias, long created, String comment) {
+            this.fingerprint = fingerprint;
+            this.compressed = compressed;
+            this.alias = alias;
+            this.created = created;
+            this.comment = comment;
+        }
+
+        // getter of the fingerprint, in hex
+        public String getFingerprint() {
+            return CryptoService.toHex(fingerprint);
+        }
+
+        // getter of the public key V, decompressed on first use
+        public EllipticCurve getPublicKey() {
+            if (V == null) {
+                V = decompress(compressed);
+            }
+            return V;
+        }
+
+        // getter of the alias
+        public String getAlias() {
+            return alias;
+        }
+
+        // getter of the creation time, in milliseconds since the epoch
+        public long getCreated() {
+            return created;
+        }
+
+        // getter of the comment
+        public String getComment() {
+            return comment;
+        }
+    }
+
+    /**
+     * Open (or create) the keyring with the given name for reading and, if no other process writes to it,
+     * for writing.
+     * @param name, the path of the keyring without the .keys/.index extension
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public Keyring(Path name) throws IOException {
+        this(name, true);
+    }
+
+    /**
+     * Open the keyring with the given name.
+     * @param name, the path of the keyring without the .keys/.index extension
+     * @param writable, false to only read it, leaving the write lock to other processes
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public Keyring(Path name, boolean writable) throws IOException {
+        this.keys = Paths.get(name + ".keys");
+        this.index = Paths.get(name + ".index");
+        Path lockFile = Paths.get(name + ".lock");
+        if (lockFile.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(lockFile.toAbsolutePath().getParent());
+        }
+        FileChannel channel = null;
+        FileLock acquired = null;
+        if (writable) {
+            channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                acquired = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // already open for writing in this process
+                acquired = null;
+            }
+        }
+        lockChannel = channel;
+        lock = acquired;
+        if (lock != null && !Files.exists(keys)) {
+            writeKeysFile(keys, newGeneration(), new ArrayList<>());
+        }
+        open();
+    }
+
+    /**
+     * The keyring of the application: -Dcrypto.keyring=<name>, by default ~/.cryptoapp/keyring
+     * @return its name
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static Path defaultName() {
+        return Paths.get(System.getProperty("crypto.keyring",
+                Paths.get(System.getProperty("user.home"), ".cryptoapp", "keyring").toString()));
+    }
+
+    /**
+     * @return false if the keyring is only open for reading
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public boolean isWritable() {
+        return lock != null;
+    }
+
+    /////////////////////////////////////////////////////////
+    ////////////////////// Lookups //////////////////////////
+    /////////////////////////////////////////////////////////
+
+    /**
+     * Find a key by alias, or by fingerprint: all 64 hex digits or a unique prefix of at least 16.
+     * Revoked keys are not found. Keys added by another process since the last lookup are picked up.
+     * @param id, the alias or the fingerprint
+     * @return the key, or null if none matches
+     * @throws IllegalArgumentException if a fingerprint prefix matches several keys
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public Key resolve(String id) throws IOException {
+        Key key = find(id);
+        if (key == null && refresh()) {
+            key = find(id);
+        }
+        return key;
+    }
+
+    /**
+     * Find a key by alias only, even when the alias looks like a fingerprint prefix.
+     * Revoked keys are not found. Keys added by another process since the last lookup are picked up.
+     * @param alias, the alias
+     * @return the key, or null if no key has this alias
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public Key resolveAlias(String alias) throws IOException {
+        Key key = findAlias(alias);
+        if (key == null && refresh()) {
+            key = findAlias(alias);
+        }
+        return key;
+    }
+
+    private Key findAlias(String alias) throws IOException {
+        files.readLock().lock();
+        try {
+            Key key = recentByAlias.get(alias);
+            return key != null ? key : lookupIndex(aliasTag(alias), k -> k.alias.equals(alias));
+        } finally {
+            files.readLock().unlock();
+        }
+    }
+
+    private Key find(String id) throws IOException {
+        files.readLock().lock();
+        try {
+            Key key = findAlias(id);
+            if (key == null && isFingerprint(id)) {
+                String prefix = id.toUpperCase();
+                for (Key k : recentByFingerprint.values()) {
+                    if (k.getFingerprint().startsWith(prefix)) {
+                        key = unique(key, k, prefix);
+                    }
+                }
+                Key indexed = lookupIndex(Long.parseUnsignedLong(prefix.substring(0, MIN_PREFIX), 16),
+                        k -> k.getFingerprint().startsWith(prefix));
+                if (indexed != null && !recentByFingerprint.containsKey(indexed.getFingerprint())) {
+                    key = unique(key, indexed, prefix);
+                }
+            }
+            return key;
+        } finally {
+            files.readLock().unlock();
+        }
+    }
+
+    private static Key unique(Key found, Key other, String prefix) {
+        if (found != null && !found.getFingerprint().equals(other.getFingerprint())) {
+            throw new IllegalArgumentException("Several keys have a fingerprint starting with " + prefix);
+        }
+        return other;
+    }
+
+    private static boolean isFingerprint(String id) {
+        return id.length() >= MIN_PREFIX && id.length() <= 2 * FINGERPRINT && id.matches("[0-9A-Fa-f]+");
+    }
+
+    // Matches a key read from the index
+    private interface Match {
+        boolean test(Key key);
+    }
+
+    // Probe the mapped index for tag; every slot with the tag is checked against its record
+    private Key lookupIndex(long tag, Match match) throws IOException {
+        MappedByteBuffer buf = mapped;
+        if (buf == null) {
+            return null;
+        }
+        int cap = buf.getInt(8);
+        int slot = slotOf(tag, cap);
+        Key found = null;
+        for (int i = 0; i < cap; i++) {
+            long offset = buf.getLong(INDEX_HEADER + slot * SLOT + 8);
+            if (offset == 0) {
+                break;
+            }
+            if (buf.getLong(INDEX_HEADER + slot * SLOT) == tag) {
+                Record record = read(keysChannel, offset);
+                if (record != null && record.key != null && !revoked.contains(record.key.getFingerprint())
+                        && match.test(record.key)) {
+                    if (found != null && !found.getFingerprint().equals(record.key.getFingerprint())) {
+                        throw new IllegalArgumentException("Several keys match " + CryptoService.toHex(
+                                ByteBuffer.allocate(8).putLong(tag).array()));
+                    }
+                    found = record.key;
+                }
+            }
+            slot = (slot + 1) & (cap - 1);
+        }
+        return found;
+    }
+
+    /**
+     * All the keys, oldest first; reads the whole keys file.
+     * @return the live keys
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public List<Key> list() throws IOException {
+        files.readLock().lock();
+        try {
+            return new ArrayList<>(live(keysChannel, KEYS_HEADER, keysChannel.size()).values());
+        } finally {
+            files.readLock().unlock();
+        }
+    }
+
+    /////////////////////////////////////////////////////////
+    ////////////////////// Changes //////////////////////////
+    /////////////////////////////////////////////////////////
+
+    /**
+     * Add a public key: appended to the keys file, visible to lookups at once.
+     * @param V, the public key
+     * @param alias, its alias: unique, not empty, without white space
+     * @param comment, free text (may be empty)
+     * @return the added key
+     * @throws IllegalArgumentException if the key or the alias is already in the keyring
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public Key add(EllipticCurve V, String alias, String comment) throws IOException {
+        if (alias.isEmpty() || !alias.equals(alias.replaceAll("\\s", ""))) {
+            throw new IllegalArgumentException("Invalid alias “" + alias + "”");
+        }
+        Key key = new Key(V.fingerprint(), compress(V), alias, System.currentTimeMillis(), comment);
+        synchronized (this) {
+            checkWritable();
+            refresh();
+            if (findAlias(alias) != null) {
+                throw new IllegalArgumentException("Alias " + alias + " is already in the keyring");
+            }
+            Key existing = find(key.getFingerprint());
+            if (existing != null) {
+                throw new IllegalArgumentException("Key already in the keyring as " + existing.alias);
+            }
+            append(encode(key));
+            recentByFingerprint.put(key.getFingerprint(), key);
+            recentByAlias.put(alias, key);
+        }
+        return key;
+    }
+
+    /**
+     * Add many public keys at once: all checked first, then appended together and made durable with one sync.
+     * Either all of them are added or none.
+     * @param V, the public keys
+     * @param aliases, their aliases, as for add
+     * @param comment, free text for every key (may be empty)
+     * @return the added keys
+     * @throws IllegalArgumentException if a key or an alias is twice in the batch or already in the keyring
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public List<Key> addAll(EllipticCurve[] V, String[] aliases, String comment) throws IOException {
+        List<Key> keys = new ArrayList<>();
+        Set<String> batch = new HashSet<>();
+        long created = System.currentTimeMillis();
+        for (int i = 0; i < V.length; i++) {
+            String alias = aliases[i];
+            if (alias.isEmpty() || !alias.equals(alias.replaceAll("\\s", ""))) {
+                throw new IllegalArgumentException("Invalid alias “" + alias + "”");
+            }
+            Key key = new Key(V[i].fingerprint(), compress(V[i]), alias, created, comment);
+            if (!batch.add(alias) || !batch.add(key.getFingerprint())) {
+                throw new IllegalArgumentException("Alias " + alias + " or its key is twice in the batch");
+            }
+            keys.add(key);
+        }
+        synchronized (this) {
+            checkWritable();
+            refresh();
+            byte[][] records = new byte[keys.size()][];
+            for (int i = 0; i < records.length; i++) {
+                Key key = keys.get(i);
+                if (findAlias(key.alias) != null) {
+                    throw new IllegalArgumentException("Alias " + key.alias + " is already in the keyring");
+                }
+                Key existing = find(key.getFingerprint());
+                if (existing != null) {
+                    throw new IllegalArgumentException("Key " + key.alias + " already in the keyring as " + existing.alias);
+                }
+                records[i] = encode(key);
+            }
+            append(records);
+            for (Key key : keys) {
+                recentByFingerprint.put(key.getFingerprint(), key);
+                recentByAlias.put(key.alias, key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Revoke a key: it is no longer found, and compaction drops it.
+     * @param id, its alias or fingerprint
+     * @return the revoked key, or null if none matches
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public synchronized Key revoke(String id) throws IOException {
+        checkWritable();
+        Key key = resolve(id);
+        if (key != null) {
+            append(encodeRevoke(key.fingerprint));
+            forget(key.getFingerprint());
+        }
+        return key;
+    }
+
+    /**
+     * Rebuild the index over the whole keys file, so that no record needs replaying.
+     * The new index is written beside the old one, fsync’d and renamed over it.
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public synchronized void reindex() throws IOException {
+        checkWritable();
+        files.writeLock().lock();
+        try {
+            long size = keysChannel.size();
+            writeIndex(index, generation, size, offsets(keysChannel, KEYS_HEADER, size));
+            open();
+        } finally {
+            files.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrite the keys file with only the live keys, under a new generation, and index it.
+     * Readers that still use the old files keep a consistent view until they refresh.
+     * @return the number of records dropped
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public synchronized int compact() throws IOException {
+        checkWritable();
+        files.writeLock().lock();
+        try {
+            long size = keysChannel.size();
+            int records = countRecords(keysChannel, KEYS_HEADER, size);
+            List<Key> live = new ArrayList<>(live(keysChannel, KEYS_HEADER, size).values());
+            long newGeneration = newGeneration();
+            Path tmpKeys = Paths.get(keys + ".tmp");
+            Path tmpIndex = Paths.get(index + ".tmp");
+            long[] offsets = writeKeysFile(tmpKeys, newGeneration, live);
+            List<long[]> entries = new ArrayList<>();
+            for (int i = 0; i < live.size(); i++) {
+                entries.add(new long[] {fingerprintTag(live.get(i).fingerprint), offsets[i]});
+                entries.add(new long[] {aliasTag(live.get(i).alias), offsets[i]});
+            }
+            writeIndex(tmpIndex, newGeneration, Files.size(tmpKeys), entries);
+            // keys first: until the index is renamed too, its generation does not match and it is ignored
+            Files.move(tmpKeys, keys, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpIndex, index, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            open();
+            return records - live.size();
+        } finally {
+            files.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reindex if many records are past the index, and release the write lock.
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (lock != null) {
+                if (recentRecords >= Math.max(REINDEX_MIN, count / 8)) {
+                    reindex();
+                }
+                lock.release();
+            }
+        } finally {
+            if (keysChannel != null) {
+                keysChannel.close();
+            }
+            if (lockChannel != null) {
+                lockChannel.close();
+            }
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        if (lock == null) {
+            throw new IOException("The keyring is open for writing by another process, or read-only");
+        }
+    }
+
+    private void forget(String fingerprint) {
+        revoked.add(fingerprint);
+        Key key = recentByFingerprint.remove(fingerprint);
+        if (key != null) {
+            recentByAlias.remove(key.alias);
+        }
+    }
+
+    // Append records and make them durable
+    private void append(byte[]... records) throws IOException {
+        files.readLock().lock();
+        try {
+            long position = end;
+            for (byte[] record : records) {
+                ByteBuffer buf = ByteBuffer.wrap(record);
+                while (buf.hasRemaining()) {
+                    position += keysChannel.write(buf, position);
+                }
+            }
+            keysChannel.force(false);
+            end = position;
+            recentRecords += records.length;
+        } finally {
+            files.readLock().unlock();
+        }
+    }
+
+    /////////////////////////////////////////////////////////
+    ///////////////////// The files /////////////////////////
+    /////////////////////////////////////////////////////////
+
+    // (Re)open the keys file, map the index if it is of the same generation, replay the records past it
+    private void open() throws IOException {
+        if (keysChannel != null) {
+            keysChannel.close();
+        }
+        recentByFingerprint.clear();
+        recentByAlias.clear();
+        revoked.clear();
+        recentRecords = 0;
+        mapped = null;
+        count = 0;
+        if (!Files.exists(keys)) {
+            throw new IOException("No keyring at " + keys);
+        }
+        keysChannel = lock != null ? FileChannel.open(keys, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(keys, StandardOpenOption.READ);
+        generation = readGeneration(keysChannel);
+        long covered = KEYS_HEADER;
+        if (Files.exists(index)) {
+            try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buf.capacity() >= INDEX_HEADER && buf.getInt(0) == INDEX_MAGIC && buf.getInt(4) == VERSION
+                        && buf.getLong(16) == generation && buf.getLong(24) <= keysChannel.size()) {
+                    mapped = buf;
+                    count = buf.getInt(12);
+                    covered = buf.getLong(24);
+                }
+            }
+        }
+        end = covered;
+        replay();
+    }
+
+    // Replay the records from end to the end of the keys file, dropping (and, if writable, truncating) a torn tail
+    private void replay() throws IOException {
+        long size = keysChannel.size();
+        long position = end;
+        while (position < size) {
+            Record record = read(keysChannel, position);
+            if (record == null) {
+                break;
+            }
+            if (record.key != null) {
+                recentByFingerprint.put(record.key.getFingerprint(), record.key);
+                recentByAlias.put(record.key.alias, record.key);
+            } else {
+                forget(CryptoService.toHex(record.revoked));
+            }
+            recentRecords++;
+            position += record.length;
+        }
+        if (lock != null && position < size) {
+            keysChannel.truncate(position);
+            keysChannel.force(true);
+        }
+        end = position;
+    }
+
+    // Catch up with another process: reopen after a compaction, else replay what was appended
+    private synchronized boolean refresh() throws IOException {
+        files.writeLock().lock();
+        try {
+            long before = end;
+            if (!Files.exists(keys)) {
+                return false;
+            }
+            try (FileChannel channel = FileChannel.open(keys, StandardOpenOption.READ)) {
+                if (readGeneration(channel) != generation) {
+                    open();
+                    return true;
+                }
+            }
+            replay();
+            return end != before;
+        } finally {
+            files.writeLock().unlock();
+        }
+    }
+
+    private static long readGeneration(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(KEYS_HEADER);
+        if (!readFully(channel, header, 0) || header.getInt(0) != KEYS_MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a keyring file");
+        }
+        return header.getLong(8);
+    }
+
+    // Write a keys file with the given keys, fsync’d; returns the offset of each
+    private static long[] writeKeysFile(Path file, long generation, List<Key> live) throws IOException {
+        long[] offsets = new long[live.size()];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            data.write(ByteBuffer.allocate(KEYS_HEADER).putInt(KEYS_MAGIC).putInt(VERSION).putLong(generation).array());
+            for (int i = 0; i < live.size(); i++) {
+                offsets[i] = data.size();
+                data.write(encode(live.get(i)));
+            }
+            ByteBuffer buf = ByteBuffer.wrap(data.toByteArray());
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(true);
+        }
+        return offsets;
+    }
+
+    // Write an index of the given (tag, offset) entries, fsync’d, then rename it over file
+    private static void writeIndex(Path file, long generation, long covered, List<long[]> entries) throws IOException {
+        int cap = Integer.highestOneBit(Math.max(16, entries.size() * 2)) * 2;
+        long[] slots = new long[2 * cap];
+        for (long[] entry : entries) {
+            int slot = slotOf(entry[0], cap);
+            while (slots[2 * slot + 1] != 0) {
+                slot = (slot + 1) & (cap - 1);
+            }
+            slots[2 * slot] = entry[0];
+            slots[2 * slot + 1] = entry[1];
+        }
+        Path tmp = Paths.get(file + ".part");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(INDEX_HEADER + cap * SLOT);
+            buf.putInt(INDEX_MAGIC).putInt(VERSION).putInt(cap).putInt(entries.size()).putLong(generation).putLong(covered);
+            for (long value : slots) {
+                buf.putLong(value);
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // The (tag, offset) entries of the live keys of [from, to)
+    private static List<long[]> offsets(FileChannel channel, long from, long to) throws IOException {
+        Map<String, long[]> live = new LinkedHashMap<>();
+        long position = from;
+        while (position < to) {
+            Record record = read(channel, position);
+            if (record == null) {
+                break;
+            }
+            if (record.key != null) {
+                live.put(record.key.getFingerprint(), new long[] {position});
+            } else {
+                live.remove(CryptoService.toHex(record.revoked));
+            }
+            position += record.length;
+        }
+        List<long[]> entries = new ArrayList<>();
+        for (long[] offset : live.values()) {
+            Key key = read(channel, offset[0]).key;
+            entries.add(new long[] {fingerprintTag(key.fingerprint), offset[0]});
+            entries.add(new long[] {aliasTag(key.alias), offset[0]});
+        }
+        return entries;
+    }
+
+    // The live keys of [from, to), by fingerprint, oldest first
+    private static Map<String, Key> live(FileChannel channel, long from, long to) throws IOException {
+        Map<String, Key> live = new LinkedHashMap<>();
+        long position = from;
+        while (position < to) {
+            Record record = read(channel, position);
+            if (record == null) {
+                break;
+            }
+            if (record.key != null) {
+                live.put(record.key.getFingerprint(), record.key);
+            } else {
+                live.remove(CryptoService.toHex(record.revoked));
+            }
+            position += record.length;
+        }
+        return live;
+    }
+
+    private static int countRecords(FileChannel channel, long from, long to) throws IOException {
+        int n = 0;
+        long position = from;
+        while (position < to) {
+            Record record = read(channel, position);
+            if (record == null) {
+                break;
+            }
+            n++;
+            position += record.length;
+        }
+        return n;
+    }
+
+    /////////////////////////////////////////////////////////
+    ///////////////////// The records ///////////////////////
+    /////////////////////////////////////////////////////////
+
+    // One record of the keys file: a key, or a revoked fingerprint
+    private static final class Record {
+        final int length;
+        final Key key;
+        final byte[] revoked;
+
+        Record(int length, Key key, byte[] revoked) {
+            this.length = length;
+            this.key = key;
+            this.revoked = revoked;
+        }
+    }
+
+    // Read the record at position with positional reads, so safe for concurrent readers; null if torn or corrupt
+    private static Record read(FileChannel channel, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        if (!readFully(channel, header, position)) {
+            return null;
+        }
+        int length = header.getInt(0);
+        int crc = header.getInt(4);
+        if (length <= 0 || length > (1 << 20)) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        if (!readFully(channel, payload, position + 8) || crc32(payload.array()) != crc) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload.array()));
+        byte type = in.readByte();
+        byte[] fingerprint = new byte[FINGERPRINT];
+        in.readFully(fingerprint);
+        if (type == REVOKE) {
+            return new Record(8 + length, null, fingerprint);
+        }
+        byte[] compressed = new byte[COMPRESSED];
+        in.readFully(compressed);
+        String alias = in.readUTF();
+        long created = in.readLong();
+        String comment = in.readUTF();
+        return new Record(8 + length, new Key(fingerprint, compressed, alias, created, comment), null);
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // [length][CRC32][KEY, fingerprint, compressed point, alias, created, comment]
+    private static byte[] encode(Key key) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(KEY);
+        out.write(key.fingerprint);
+        out.write(key.compressed);
+        out.writeUTF(key.alias);
+        out.writeLong(key.created);
+        out.writeUTF(key.comment);
+        out.flush();
+        return frame(payload.toByteArray());
+    }
+
+    // [length][CRC32][REVOKE, fingerprint, time]
+    private static byte[] encodeRevoke(byte[] fingerprint) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(REVOKE);
+        out.write(fingerprint);
+        out.writeLong(System.currentTimeMillis());
+        out.flush();
+        return frame(payload.toByteArray());
+    }
+
+    private static byte[] frame(byte[] p) {
+        return ByteBuffer.allocate(8 + p.length).putInt(p.length).putInt(crc32(p)).put(p).array();
+    }
+
+    /**
+     * Compress a point: Vx as a 66-byte big-endian integer, then the least significant bit of Vy.
+     * @param V, the point
+     * @return the 67 bytes
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] compress(EllipticCurve V) {
+        byte[] out = new byte[COMPRESSED];
+        byte[] x = V.getX().toByteArray();
+        int xl = Math.min(x.length, COMPRESSED - 1);
+        System.arraycopy(x, x.length - xl, out, COMPRESSED - 1 - xl, xl);
+        out[COMPRESSED - 1] = (byte) (V.getY().testBit(0) ? 1 : 0);
+        return out;
+    }
+
+    /**
+     * Decompress a point made by compress.
+     * @param compressed, the 67 bytes
+     * @return the point
+     * @throws IllegalArgumentException if they are not a point of E521
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static EllipticCurve decompress(byte[] compressed) {
+        BigInteger x = new BigInteger(1, Arrays.copyOf(compressed, COMPRESSED - 1));
+        return new EllipticCurve(x, compressed[COMPRESSED - 1] != 0);
+    }
+
+    private static long fingerprintTag(byte[] fingerprint) {
+        return ByteBuffer.wrap(fingerprint).getLong(0);
+    }
+
+    private static long aliasTag(String alias) {
+        byte[] tag = KMACXOF256.KMACXOF256_cal("".getBytes(), alias.getBytes(StandardCharsets.UTF_8), 64, "KA".getBytes());
+        return ByteBuffer.wrap(tag).getLong(0);
+    }
+
+    // Spread the tag over the slots
+    private static int slotOf(long tag, int cap) {
+        long h = tag ^ (tag >>> 32);
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (cap - 1);
+    }
+
+    private static long newGeneration() {
+        return new SecureRandom().nextLong();
+    }
+
+    private static int crc32(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /////////////////////////////////////////////////////////
+    ////////////////////// The tool /////////////////////////
+    /////////////////////////////////////////////////////////
+
+    // Read a public key file of service 6: Vx and Vy as hex lines
+    static EllipticCurve readKeyFile(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line.trim());
+            }
+        }
+        if (lines.size() < 2) {
+            throw new IOException("Not a public key file: " + file);
+        }
+        return new EllipticCurve(new BigInteger(CryptoService.fromHex(lines.get(0))),
+                new BigInteger(CryptoService.fromHex(lines.get(1))));
+    }
+
+    private static void print(Key key) {
+        System.out.println(key.getFingerprint() + "  " + key.alias
+                + (key.comment.isEmpty() ? "" : "  " + key.comment));
+    }
+
+    // Use to manage a keyring from the command line
+    public static void main(String[] args) throws IOException {
+        Path name = defaultName();
+        int i = 0;
+        if (args.length > 1 && args[0].equals("--keyring")) {
+            name = Paths.get(args[1]);
+            i = 2;
+        }
+        if (args.length <= i) {
+            System.out.println("Usage: keyring [--keyring <name>] <command>");
+            System.out.println("  add <alias> <public key file> [comment]   add a key saved by service 6");
+            System.out.println("  import <directory>                        add every key file, aliased by its file name");
+            System.out.println("  list | show <id> | revoke <id>            <id>: alias or fingerprint (16+ hex digits)");
+            System.out.println("  reindex | compact                         rebuild the index; drop revoked keys");
+            System.exit(2);
+        }
+        String command = args[i];
+        try (Keyring keyring = new Keyring(name, !command.equals("list") && !command.equals("show"))) {
+            switch (command) {
+                case "add":
+                    StringBuilder comment = new StringBuilder();
+                    for (int j = i + 3; j < args.length; j++) {
+                        comment.append(comment.length() == 0 ? "" : " ").append(args[j]);
+                    }
+                    print(keyring.add(readKeyFile(Paths.get(args[i + 2])), args[i + 1], comment.toString()));
+                    break;
+                case "import":
+                    int added = 0;
+                    try (DirectoryStream<Path> dir = Files.newDirectoryStream(Paths.get(args[i + 1]))) {
+                        for (Path file : dir) {
+                            if (!Files.isRegularFile(file)) {
+                                continue;
+                            }
+                            String alias = file.getFileName().toString().replaceFirst("\\.[^.]*$", "").replaceAll("\\s", "_");
+                            try {
+                                keyring.add(readKeyFile(file), alias, file.getFileName().toString());
+                                added++;
+                            } catch (IOException | IllegalArgumentException e) {
+                                System.out.println("Skipped " + file.getFileName() + ": " + e.getMessage());
+                            }
+                        }
+                    }
+                    keyring.reindex();
+                    System.out.println(added + " keys added");
+                    break;
+                case "list":
+                    for (Key key : keyring.list()) {
+                        print(key);
+                    }
+                    break;
+                case "show":
+                case "revoke":
+                    Key key = command.equals("show") ? keyring.resolve(args[i + 1]) : keyring.revoke(args[i + 1]);
+                    if (key == null) {
+                        System.out.println("No key " + args[i + 1]);
+                        System.exit(1);
+                    }
+                    print(key);
+                    if (command.equals("show")) {
+                        EllipticCurve V = key.getPublicKey();
+                        System.out.println(CryptoService.toHex(V.getX().toByteArray()));
+                        System.out.println(CryptoService.toHex(V.getY().toByteArray()));
+                    }
+                    break;
+                case "reindex":
+                    keyring.reindex();
+                    break;
+                case "compact":
+                    System.out.println(keyring.compact() + " records dropped");
+                    break;
+                default:
+                    System.out.println("Unknown command " + command);
+                    System.exit(2);
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
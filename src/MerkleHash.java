@@ -0,0 +1,288 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/*
+ * The Merkle tree hash, with a sidecar block index for incremental re-hash
+ * leaf_i <- KMACXOF256(“”, left_encode(i) || m_i, 512, “DL”) for the blocks m_i of B bytes
+ * node   <- KMACXOF256(“”, left || right, 512, “DN”) (or of left alone for the last odd node of a level)
+ * h      <- KMACXOF256(“”, top || |m| as 8 bytes || left_encode(B), 512, “DR”)
+ * The sidecar <file>.merkle keeps every level of the tree plus a CRC32C of each block. By default every
+ * block is hashed and the sidecar is only written. The incremental mode is opt-in and trusts local metadata:
+ * a file whose size and mtime match the sidecar is not read at all, and a block whose CRC32C matches keeps
+ * its old leaf. The sidecar carries no MAC and CRC32C is not collision resistant, so anyone who can write
+ * the file or its sidecar can make the incremental hash wrong; use it only on files you control.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class MerkleHash {
+
+    // "MRKL" and the sidecar format version
+    private static final int MAGIC = 0x4D524B4C;
+    private static final int VERSION = 1;
+
+    // Default leaf block size: 1 MiB
+    public static final int BLOCK_SIZE = 1 << 20;
+
+    // Digest size of the leaves and nodes, in bytes
+    private static final int DIGEST = 64;
+
+    private final Path file;
+    private final Path sidecar;
+    private final int blockSize;
+    private int blocks;
+    private int rehashed;
+
+    /**
+     * Set up the tree hash of a file, with its sidecar index <file>.merkle.
+     * @param file, the file to hash
+     * @param blockSize, the leaf block size B in bytes
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public MerkleHash(Path file, int blockSize) {
+        this.file = file;
+        this.sidecar = Paths.get(file + ".merkle");
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Hash the file and save the new sidecar index; in the incremental mode, reuse the leaves of the old
+     * index whose block kept its CRC32C (see above for what this trusts).
+     * The blocks are read and hashed in parallel on the common fork-join pool.
+     * @param incremental, true to trust the sidecar and re-hash only the changed blocks, false to hash every block
+     * @return h, the 512-bit root hash
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[] hash(boolean incremental) throws IOException {
+        long size = Files.size(file);
+        long mtime = Files.getLastModifiedTime(file).to(TimeUnit.NANOSECONDS);
+        Tree old = incremental ? load() : null;
+        if (old != null && old.size == size && old.mtime == mtime) {
+            // untouched since the index was written
+            blocks = old.crc.length;
+            rehashed = 0;
+            return root(old.levels[old.levels.length - 1], size);
+        }
+
+        int n = (int) ((size + blockSize - 1) / blockSize);
+        blocks = n;
+        int[] crc = new int[n];
+        byte[][] leaves = new byte[n][];
+        boolean[] dirty = new boolean[n];
+        AtomicInteger count = new AtomicInteger();
+        Sha3 context = KMACXOF256.KMACXOF256_init("".getBytes(), "DL".getBytes());
+        ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(blockSize));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            IntStream.range(0, n).parallel().forEach(i -> {
+                ByteBuffer buf = buffers.get();
+                buf.clear();
+                long position = (long) i * blockSize;
+                int len = (int) Math.min(blockSize, size - position);
+                buf.limit(len);
+                try {
+                    while (buf.hasRemaining()) {
+                        if (channel.read(buf, position + buf.position()) < 0) {
+                            throw new IOException("File shrank while it was hashed");
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                CRC32C c = new CRC32C();
+                c.update(buf.array(), 0, len);
+                crc[i] = (int) c.getValue();
+                if (old != null && i < old.crc.length && old.crc[i] == crc[i]) {
+                    leaves[i] = old.levels[0][i];
+                    return;
+                }
+                // leaf_i <- KMACXOF256(“”, left_encode(i) || m_i, 512, “DL”)
+                Sha3 sha = context.copy();
+                byte[] index = KMACXOF256.left_encode(i);
+                sha.SHAKE256_update(index, 0, index.length);
+                sha.SHAKE256_update(buf.array(), 0, len);
+                leaves[i] = KMACXOF256.KMACXOF256_final(sha, 512);
+                dirty[i] = true;
+                count.incrementAndGet();
+            });
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        rehashed = count.get();
+
+        // recompute the nodes above the changed leaves, level by level
+        byte[][][] levels = buildLevels(leaves, dirty, old);
+        save(new Tree(size, mtime, crc, levels));
+        return root(levels[levels.length - 1], size);
+    }
+
+    /**
+     * @return the number of leaf blocks of the last hash
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public int blockCount() {
+        return blocks;
+    }
+
+    /**
+     * @return the number of leaf blocks the last hash had to hash (the others came from the sidecar)
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public int rehashedCount() {
+        return rehashed;
+    }
+
+    // Build the levels above the leaves; a node is reused if none of its children changed
+    private static byte[][][] buildLevels(byte[][] leaves, boolean[] dirty, Tree old) {
+        int height = height(leaves.length);
+        byte[][][] levels = new byte[height][][];
+        levels[0] = leaves;
+        for (int l = 1; l < height; l++) {
+            byte[][] below = levels[l - 1];
+            byte[][] reuse = (old != null && l < old.levels.length) ? old.levels[l] : null;
+            int len = (below.length + 1) / 2;
+            byte[][] level = new byte[len][];
+            boolean[] changed = new boolean[len];
+            byte[][] oldBelow = reuse != null ? old.levels[l - 1] : null;
+            boolean[] childDirty = dirty;
+            IntStream.range(0, len).parallel().forEach(j -> {
+                int left = 2 * j;
+                int right = left + 1;
+                boolean d = childDirty[left] || (right < below.length && childDirty[right])
+                        || reuse == null || j >= reuse.length
+                        || (right < below.length) != (right < oldBelow.length);
+                if (!d) {
+                    level[j] = reuse[j];
+                    return;
+                }
+                // node <- KMACXOF256(“”, left || right, 512, “DN”)
+                byte[] X = right < below.length ? KMACXOF256.concat(below[left], below[right]) : below[left];
+                level[j] = KMACXOF256.KMACXOF256_cal("".getBytes(), X, 512, "DN".getBytes());
+                changed[j] = true;
+            });
+            levels[l] = level;
+            dirty = changed;
+        }
+        return levels;
+    }
+
+    // The number of levels of a tree over n leaves, the leaves included
+    private static int height(int n) {
+        int height = 1;
+        for (int len = n; len > 1; len = (len + 1) / 2) {
+            height++;
+        }
+        return height;
+    }
+
+    // h <- KMACXOF256(“”, top || |m| || left_encode(B), 512, “DR”)
+    private byte[] root(byte[][] top, long size) {
+        byte[] X = top.length == 1 ? top[0] : new byte[0];
+        X = KMACXOF256.concat(X, ByteBuffer.allocate(8).putLong(size).array());
+        X = KMACXOF256.concat(X, KMACXOF256.left_encode(blockSize));
+        return KMACXOF256.KMACXOF256_cal("".getBytes(), X, 512, "DR".getBytes());
+    }
+
+    // The tree of the sidecar index
+    private static final class Tree {
+        final long size;
+        final long mtime;
+        final int[] crc;
+        final byte[][][] levels;
+
+        Tree(long size, long mtime, int[] crc, byte[][][] levels) {
+            this.size = size;
+            this.mtime = mtime;
+            this.crc = crc;
+            this.levels = levels;
+        }
+    }
+
+    // Read the sidecar index, or null if it is missing, unreadable, for another block size, or if its
+    // counts do not fit the data file size it records and the size of the sidecar itself
+    private Tree load() {
+        if (!Files.exists(sidecar)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            long length = Files.size(sidecar);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != blockSize) {
+                return null;
+            }
+            long size = in.readLong();
+            long mtime = in.readLong();
+            int n = in.readInt();
+            int height = in.readInt();
+            // the leaf count follows from the data file size, the tree shape from the leaf count,
+            // and the whole must be exactly as long as the sidecar, before anything is allocated
+            if (size < 0 || n < 0 || n != (size + blockSize - 1) / blockSize || height != height(n)) {
+                return null;
+            }
+            long expected = 3 * Integer.BYTES + 2 * Long.BYTES + 2 * Integer.BYTES + (long) n * Integer.BYTES;
+            for (long len = n, l = 0; l < height; l++, len = (len + 1) / 2) {
+                expected += Integer.BYTES + len * DIGEST;
+            }
+            if (expected != length) {
+                return null;
+            }
+            int[] crc = new int[n];
+            byte[][][] levels = new byte[height][][];
+            for (int i = 0; i < n; i++) {
+                crc[i] = in.readInt();
+            }
+            for (int l = 0, len = n; l < height; l++, len = (len + 1) / 2) {
+                if (in.readInt() != len) {
+                    return null;
+                }
+                levels[l] = new byte[len][DIGEST];
+                for (byte[] digest : levels[l]) {
+                    in.readFully(digest);
+                }
+            }
+            return new Tree(size, mtime, crc, levels);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Write the sidecar index beside the old one and rename it over, so a crash leaves one or the other
+    private void save(Tree tree) throws IOException {
+        Path tmp = Paths.get(sidecar + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(blockSize);
+            out.writeLong(tree.size);
+            out.writeLong(tree.mtime);
+            out.writeInt(tree.crc.length);
+            out.writeInt(tree.levels.length);
+            for (int c : tree.crc) {
+                out.writeInt(c);
+            }
+            for (byte[][] level : tree.levels) {
+                out.writeInt(level.length);
+                for (byte[] digest : level) {
+                    out.write(digest);
+                }
+            }
+        }
+        Files.move(tmp, sidecar, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,134 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/*
+ * The multi-recipient ECIES cryptogram
+ * The payload is encrypted and authenticated once under a random data key dk:
+ * (ke || ka) <- KMACXOF256(dk, “”, 1024, “PM”)
+ * c <- KMACXOF256(ke, “”, |m|, “PKE”) xor m
+ * t <- KMACXOF256(ka, m, 512, “PKA”)
+ * and dk is wrapped for each recipient public key V_i:
+ * k_i <- Random(512); k_i <- 4k_i; W_i <- k_i*V_i; Z_i <- k_i*G
+ * w_i <- KMACXOF256(W_ix, “”, 512, “PW”) xor dk
+ * cryptogram: (n, (fingerprint(V_i), Z_i, w_i) for each recipient, c, t)
+ * The recipient table comes before the payload, so a recipient finds its entry by fingerprint
+ * without reading c.
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class MultiRecipientCryptogram {
+
+    // Cryptogram identifier, written as the first line of a multi-recipient cryptogram file
+    public static final String HEADER = "ECIES-MULTI-V1";
+
+    // Each recipient entry takes four lines: fingerprint, Zx, Zy, w
+    public static final int ENTRY_LINES = 4;
+
+    /**
+     * Encrypt m once for all the recipients. The scalar multiplications run on the common fork-join pool.
+     * @param V, the public keys of the recipients
+     * @param m, the plaintext
+     * @return the cryptogram body: fingerprint_i, Zx_i, Zy_i, w_i for each recipient, then c, t
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[][] encrypt(EllipticCurve[] V, byte[] m) {
+        // dk <- Random(512)
+        byte[] dk = new byte[64];
+        KeccakDRBG.current().nextBytes(dk);
+
+        int n = V.length;
+        byte[][] body = new byte[ENTRY_LINES * n + 2][];
+        EllipticCurve G = EllipticCurve.generator();
+        IntStream.range(0, n).parallel().forEach(i -> {
+            // k_i <- Random(512); k_i <- 4k_i
+            byte[] byte_k = new byte[64];
+            KeccakDRBG.current().nextBytes(byte_k);
+            BigInteger k = new BigInteger(1, byte_k).multiply(BigInteger.valueOf(4));
+
+            // W_i <- k_i*V_i; Z_i <- k_i*G
+            EllipticCurve W = V[i].mulByScalar(k);
+            EllipticCurve Z = G.mulByScalar(k);
+
+            body[ENTRY_LINES * i] = V[i].fingerprint();
+            body[ENTRY_LINES * i + 1] = Z.getX().toByteArray();
+            body[ENTRY_LINES * i + 2] = Z.getY().toByteArray();
+            body[ENTRY_LINES * i + 3] = wrap(W, dk);
+        });
+
+        // (ke || ka) <- KMACXOF256(dk, “”, 1024, “PM”)
+        byte[] keka = KMACXOF256.KMACXOF256_cal(dk, new byte[0], 1024, "PM".getBytes());
+        byte[] ke = Arrays.copyOfRange(keka, 0, 64);
+        byte[] ka = Arrays.copyOfRange(keka, 64, keka.length);
+        Arrays.fill(dk, (byte) 0);
+
+        // c <- KMACXOF256(ke, “”, |m|, “PKE”) xor m
+        byte[] c = KMACXOF256.KMACXOF256_cal(ke, new byte[0], m.length * 8, "PKE".getBytes());
+        for (int i = 0; i < c.length; i++) {
+            c[i] = (byte) (c[i] ^ m[i]);
+        }
+
+        // t <- KMACXOF256(ka, m, 512, “PKA”)
+        body[ENTRY_LINES * n] = c;
+        body[ENTRY_LINES * n + 1] = KMACXOF256.KMACXOF256_cal(ka, m, 512, "PKA".getBytes());
+        return body;
+    }
+
+    /**
+     * Find the recipient entry of the public key V in the recipient table.
+     * @param fingerprints, the fingerprint of every entry, in order
+     * @param V, the public key of the recipient
+     * @return the index of the entry, or -1 if V is not a recipient
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static int findRecipient(byte[][] fingerprints, EllipticCurve V) {
+        byte[] fp = V.fingerprint();
+        for (int i = 0; i < fingerprints.length; i++) {
+            if (Arrays.equals(fingerprints[i], fp)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decrypt the payload with the private key s of a recipient and its entry (Z, w).
+     * W <- s*Z; dk <- KMACXOF256(Wx, “”, 512, “PW”) xor w
+     * @param s, the private key of the recipient
+     * @param Z, the point Z of the entry
+     * @param w, the wrapped data key of the entry
+     * @param c, the encrypted payload
+     * @param t, the tag
+     * @return the plaintext, or null if t’ ≠ t
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] decrypt(BigInteger s, EllipticCurve Z, byte[] w, byte[] c, byte[] t) {
+        byte[] dk = wrap(Z.mulByScalar(s), w);
+        byte[] keka = KMACXOF256.KMACXOF256_cal(dk, new byte[0], 1024, "PM".getBytes());
+        Arrays.fill(dk, (byte) 0);
+        byte[] ke = Arrays.copyOfRange(keka, 0, 64);
+        byte[] ka = Arrays.copyOfRange(keka, 64, keka.length);
+
+        // m <- KMACXOF256(ke, “”, |c|, “PKE”) xor c
+        byte[] m = KMACXOF256.KMACXOF256_cal(ke, new byte[0], c.length * 8, "PKE".getBytes());
+        for (int i = 0; i < m.length; i++) {
+            m[i] = (byte) (m[i] ^ c[i]);
+        }
+
+        // accept if, and only if, KMACXOF256(ka, m, 512, “PKA”) = t
+        if (!Arrays.equals(t, KMACXOF256.KMACXOF256_cal(ka, m, 512, "PKA".getBytes()))) {
+            return null;
+        }
+        return m;
+    }
+
+    // KMACXOF256(Wx, “”, 512, “PW”) xor key: wraps and unwraps the data key
+    private static byte[] wrap(EllipticCurve W, byte[] key) {
+        byte[] out = KMACXOF256.KMACXOF256_cal(W.getX().toByteArray(), new byte[0], 512, "PW".getBytes());
+        for (int i = 0; i < out.length && i < key.length; i++) {
+            out[i] = (byte) (out[i] ^ key[i]);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,146 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/*
+ * The resumable hash of very large inputs
+ * Streams h <- KMACXOF256(“”, m, 512, “D”) (the digest of service 1) and every N bytes saves the exported
+ * sponge state with the offset reached, fsync’d, to a checkpoint file. A run with resume continues from
+ * the checkpoint when the file size and mtime are unchanged, and gives the same digest as one pass.
+ * Checkpoint: magic, version, file size, mtime, offset, sponge state, CRC32 of all of it.
+ * Usage: hash <file> [--checkpoint <file>] [--every <GiB>] [--resume]
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class ResumableHash {
+
+    // "KCKP" and the checkpoint format version
+    private static final int MAGIC = 0x4B434B50;
+    private static final int VERSION = 1;
+
+    // Default checkpoint interval: 4 GiB
+    public static final long CHECKPOINT_INTERVAL = 4L << 30;
+
+    // Read buffer
+    private static final int BUFFER = 1 << 20;
+
+    /**
+     * Hash a file, checkpointing as it goes. The checkpoint is deleted once the digest is computed.
+     * @param file, the file to hash
+     * @param checkpoint, the checkpoint file
+     * @param interval, the number of bytes between checkpoints
+     * @param resume, true to continue from the checkpoint, if it matches the file
+     * @return h, the 512-bit KMACXOF256 “D” digest
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static byte[] hash(Path file, Path checkpoint, long interval, boolean resume) throws IOException {
+        long size = Files.size(file);
+        long mtime = Files.getLastModifiedTime(file).to(TimeUnit.NANOSECONDS);
+
+        Sha3 sha = null;
+        long offset = 0;
+        if (resume && Files.exists(checkpoint)) {
+            byte[] saved = Files.readAllBytes(checkpoint);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(saved));
+            CRC32 crc = new CRC32();
+            crc.update(saved, 0, Math.max(0, saved.length - 4));
+            if (saved.length > 36 && in.readInt() == MAGIC && in.readInt() == VERSION
+                    && in.readLong() == size && in.readLong() == mtime
+                    && ByteBuffer.wrap(saved, saved.length - 4, 4).getInt() == (int) crc.getValue()) {
+                offset = in.readLong();
+                byte[] state = new byte[saved.length - 36];
+                in.readFully(state);
+                sha = Sha3.importState(state);
+                System.out.println("Resuming " + file + " at byte " + offset + " of " + size);
+            } else {
+                System.out.println("Checkpoint does not match " + file + ", starting from byte 0");
+            }
+        }
+        if (sha == null) {
+            sha = KMACXOF256.KMACXOF256_init("".getBytes(), "D".getBytes());
+            offset = 0;
+        }
+
+        byte[] buf = new byte[BUFFER];
+        long next = offset + interval;
+        try (InputStream in = Files.newInputStream(file)) {
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = in.skip(offset - skipped);
+                if (n <= 0) {
+                    throw new IOException("File shorter than the checkpoint offset");
+                }
+                skipped += n;
+            }
+            int n;
+            while ((n = in.read(buf, 0, (int) Math.min(buf.length, next - offset))) > 0) {
+                sha.SHAKE256_update(buf, 0, n);
+                offset += n;
+                if (offset == next) {
+                    save(checkpoint, size, mtime, offset, sha);
+                    next += interval;
+                }
+            }
+        }
+        byte[] h = KMACXOF256.KMACXOF256_final(sha, 512);
+        Files.deleteIfExists(checkpoint);
+        return h;
+    }
+
+    // Write the checkpoint beside the old one, fsync it and rename it over
+    private static void save(Path checkpoint, long size, long mtime, long offset, Sha3 sha) throws IOException {
+        byte[] state = sha.exportState();
+        ByteBuffer buf = ByteBuffer.allocate(32 + state.length + 4);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(mtime).putLong(offset).put(state);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+
+        Path tmp = Paths.get(checkpoint + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, checkpoint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Use to run the resumable hash from the command line: see the usage above
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: hash <file> [--checkpoint <file>] [--every <GiB>] [--resume]");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        Path checkpoint = Paths.get(args[0] + ".checkpoint");
+        long interval = CHECKPOINT_INTERVAL;
+        boolean resume = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--resume")) {
+                resume = true;
+            } else if (args[i].equals("--checkpoint") && i + 1 < args.length) {
+                checkpoint = Paths.get(args[++i]);
+            } else if (args[i].equals("--every") && i + 1 < args.length) {
+                interval = (long) (Double.parseDouble(args[++i]) * (1L << 30));
+            } else {
+                System.out.println("Unknown option " + args[i]);
+                System.exit(2);
+            }
+        }
+        System.out.println(CryptoService.toHex(hash(file, checkpoint, Math.max(1, interval), resume)));
+    }
+}
@@ -1,3 +1,7 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 /*
@@ -22,10 +26,19 @@ public class Sha3 {
     private static int mdlen;		// these don't overflow
     // Iterative construction: 24 rounds constants
     private static final int KECCAKF_ROUNDS = 24;;
+    // Number of rounds of this sponge: 24 for Keccak-f[1600], 12 for Keccak-p[1600, 12] (TurboSHAKE)
+    private int rounds = KECCAKF_ROUNDS;
 
     private boolean ext = false, kmac = false;
+    // Permutations run by this sponge, counted while CryptoStats is enabled
+    private long permutations;
+    // Working lanes of the permutation, kept with the sponge so that no permutation allocates
+    private final long[] lanes = new long[25];
+    private final long[] bc = new long[5];
     private static final byte[] KMAC_N = {(byte)0x4B, (byte)0x4D, (byte)0x41, (byte)0x43}; // "KMAC" in ASCII
     private static final byte[] right_encode_0 = {(byte)0x00, (byte)0x01}; // right_encode(0)
+    // The state bytes as 64-bit little-endian lanes, to absorb and squeeze buffers 8 bytes at a time
+    private static final VarHandle LANE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
 
     // Representations of the constants; to populate 'RC' round contant array on radix 16
     private static final long[] keccakf_rndc = new long[] {
@@ -53,29 +66,25 @@ public class Sha3 {
      * he Keccak-𝑓 permutation
      * Iterative construction: 24 rounds, each consisting of a sequence of 5 steps applied to the internal state:
      * theta (𝜃), rho (𝜌), pi (𝜋), chi (𝜒), and iota (𝜄).
+     * A reduced-round sponge runs only the last rounds (Keccak-p[1600, n_r] uses rounds 24 − n_r to 23).
      * @param b, the byte array
      * @author Kannika Armstrong, and Sam Viet Huynh
      */
     private void sha3_keccakf(byte[] b) {
-        long[] st = new long[25]; // 64-bit words
-        long[] bc = new long[5];
+        if (CryptoStats.ENABLED) {
+            permutations++;
+            CryptoStats.permutation();
+        }
+        long[] st = this.lanes;
+        long[] bc = this.bc;
 
         // Converts the state for endianness before keccak operations.
-        // https://stackoverflow.com/questions/1026761/how-to-convert-a-byte-array-to-its-numeric-value-java
         for (int i = 0; i < 25; i++) {
-            int j = i * 8;
-            st[i] = (((long)b[j] & 0xFFL))           |
-                    (((long)b[j + 1] & 0xFFL) <<  8) |
-                    (((long)b[j + 2] & 0xFFL) << 16) |
-                    (((long)b[j + 3] & 0xFFL) << 24) |
-                    (((long)b[j + 4] & 0xFFL) << 32) |
-                    (((long)b[j + 5] & 0xFFL) << 40) |
-                    (((long)b[j + 6] & 0xFFL) << 48) |
-                    (((long)b[j + 7] & 0xFFL) << 56);
+            st[i] = (long) LANE.get(b, i * 8);
         }
 
-        // The actual iteration for 24 rounds
-        for (int r = 0; r < KECCAKF_ROUNDS; r++) {
+        // The actual iteration for 24 rounds (or the last 12 for Keccak-p[1600, 12])
+        for (int r = KECCAKF_ROUNDS - rounds; r < KECCAKF_ROUNDS; r++) {
 
             // theta (𝜃): linearly combines bits
             for (int i = 0; i < 5; i++) {
@@ -113,18 +122,8 @@ public class Sha3 {
         }
 
         // Return state to big endian after keccak operations.
-        // https://stackoverflow.com/questions/1026761/how-to-convert-a-byte-array-to-its-numeric-value-java
         for (int i = 0; i < 25; i++) {
-            int j = i * 8;
-            long t = st[i];
-            b[j] = (byte) (t & 0xFF);
-            b[j + 1] = (byte) ((t >> 8) & 0xFF);
-            b[j + 2] = (byte) ((t >> 16) & 0xFF);
-            b[j + 3] = (byte) ((t >> 24) & 0xFF);
-            b[j + 4] = (byte) ((t >> 32) & 0xFF);
-            b[j + 5] = (byte) ((t >> 40) & 0xFF);
-            b[j + 6] = (byte) ((t >> 48) & 0xFF);
-            b[j + 7] = (byte) ((t >> 56) & 0xFF);
+            LANE.set(b, i * 8, st[i]);
         }
     }
 
@@ -139,6 +138,73 @@ public class Sha3 {
         this.pt = 0;
     }
 
+    // Constructor: Set up a reduced-round sponge, e.g. Sha3(16, 12) for TurboSHAKE128.
+    public Sha3(int m, int rounds) {
+        this(m);
+        this.rounds = rounds;
+    }
+
+    /**
+     * Copy the sponge, e.g. to reuse a keyed or precomputed prefix for many inputs.
+     * @return an independent sponge in the same state
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public Sha3 copy() {
+        Sha3 sha = new Sha3();
+        System.arraycopy(this.st_b, 0, sha.st_b, 0, SIZE);
+        sha.pt = this.pt;
+        sha.rsiz = this.rsiz;
+        sha.rounds = this.rounds;
+        return sha;
+    }
+
+    // Apply the permutation to the state once, e.g. to measure it on its own
+    void permute() {
+        sha3_keccakf(st_b);
+    }
+
+    // Version of the exported sponge state
+    private static final int STATE_VERSION = 1;
+
+    /**
+     * Export the full sponge state as a compact, versioned checkpoint:
+     * version (1 byte), rounds (1 byte), rate (2 bytes), position (2 bytes), the 200 state bytes.
+     * @return the exported state, 206 bytes
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public byte[] exportState() {
+        byte[] state = new byte[6 + SIZE];
+        state[0] = (byte) STATE_VERSION;
+        state[1] = (byte) rounds;
+        state[2] = (byte) (rsiz >>> 8);
+        state[3] = (byte) rsiz;
+        state[4] = (byte) (pt >>> 8);
+        state[5] = (byte) pt;
+        System.arraycopy(st_b, 0, state, 6, SIZE);
+        return state;
+    }
+
+    /**
+     * Import a sponge state exported by exportState.
+     * @param state, the exported state
+     * @return a sponge in that state
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public static Sha3 importState(byte[] state) {
+        if (state.length != 6 + SIZE || state[0] != STATE_VERSION) {
+            throw new IllegalArgumentException("Unsupported sponge state");
+        }
+        Sha3 sha = new Sha3();
+        sha.rounds = state[1] & 0xFF;
+        sha.rsiz = ((state[2] & 0xFF) << 8) | (state[3] & 0xFF);
+        sha.pt = ((state[4] & 0xFF) << 8) | (state[5] & 0xFF);
+        if (sha.rounds < 1 || sha.rounds > KECCAKF_ROUNDS || sha.rsiz < 1 || sha.rsiz > SIZE || sha.pt >= sha.rsiz) {
+            throw new IllegalArgumentException("Unsupported sponge state");
+        }
+        System.arraycopy(state, 6, sha.st_b, 0, SIZE);
+        return sha;
+    }
+
     /**
      * Update the SHAKE256 sponge with a byte-oriented data chunk.
      * @param data, input
@@ -146,8 +212,21 @@ public class Sha3 {
      * @author Kannika Armstrong, and Sam Viet Huynh
      */
     public void SHAKE256_update(byte[] data, int len) {
+        SHAKE256_update(data, 0, len);
+    }
+
+    /**
+     * Update the SHAKE256 sponge with len bytes of data starting at off.
+     * @param data, input
+     * @param off, the offset of the first byte to absorb
+     * @param len, the number of bytes to absorb
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void SHAKE256_update(byte[] data, int off, int len) {
+        CryptoEvents.KeccakBatch batch = CryptoStats.ENABLED ? CryptoStats.beginBatch() : null;
+        long before = permutations;
         int j = this.pt;
-        for (int i = 0; i < len; i++) {
+        for (int i = off; i < off + len; i++) {
             this.st_b[j++] ^= data[i];
             if (j >= this.rsiz) {
                 sha3_keccakf(st_b);
@@ -155,6 +234,49 @@ public class Sha3 {
             }
         }
         this.pt = j;
+        if (CryptoStats.ENABLED) {
+            CryptoStats.endBatch(batch, false, len, permutations - before);
+        }
+    }
+
+    /**
+     * Update the SHAKE256 sponge with the remaining bytes of a buffer, and move its position to its limit.
+     * A direct or mapped buffer (e.g. a file mapped by FileChannel.map) is absorbed where it is, 8 bytes per
+     * lane, without copying it to the heap first.
+     * @param data, input, from its position to its limit
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void SHAKE256_update(ByteBuffer data) {
+        if (data.hasArray()) {
+            SHAKE256_update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+            return;
+        }
+        CryptoEvents.KeccakBatch batch = CryptoStats.ENABLED ? CryptoStats.beginBatch() : null;
+        long before = permutations;
+        ByteBuffer in = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int i = in.position();
+        int end = in.limit();
+        int j = this.pt;
+        while (i < end) {
+            if ((j & 7) == 0 && j + 8 <= this.rsiz && end - i >= 8) {
+                LANE.set(st_b, j, (long) LANE.get(st_b, j) ^ in.getLong(i));
+                i += 8;
+                j += 8;
+            } else {
+                this.st_b[j++] ^= in.get(i++);
+            }
+            if (j >= this.rsiz) {
+                sha3_keccakf(st_b);
+                j = 0;
+            }
+        }
+        this.pt = j;
+        int len = end - data.position();
+        data.position(end);
+        if (CryptoStats.ENABLED) {
+            CryptoStats.endBatch(batch, false, len, permutations - before);
+        }
     }
 
     /**
@@ -172,6 +294,19 @@ public class Sha3 {
         pt = 0;
     }
 
+    /**
+     * Switch from absorbing to squeezing with a given domain separation byte (0x01 to 0x7F),
+     * as TurboSHAKE does.
+     * @param ds, the domain separation byte
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void SHAKE_pad(byte ds) {
+        st_b[pt] ^= ds;
+        st_b[rsiz - 1] ^= (byte) 0x80;
+        sha3_keccakf(st_b);
+        pt = 0;
+    }
+
     /**
      * Squeeze a chunk of hashed bytes from the sponge.
      * Repeat as many times as needed to extract the total desired number of bytes.
@@ -180,6 +315,8 @@ public class Sha3 {
      * @author Kannika Armstrong, and Sam Viet Huynh
      */
     public void SHAKE_out(byte[] out, int len) {
+        CryptoEvents.KeccakBatch batch = CryptoStats.ENABLED ? CryptoStats.beginBatch() : null;
+        long before = permutations;
         int j = pt;
         for (int i = 0; i < len; i++) {
             if (j >= rsiz) {
@@ -189,5 +326,183 @@ public class Sha3 {
             out[i] = st_b[j++];
         }
         pt = j;
+        if (CryptoStats.ENABLED) {
+            CryptoStats.endBatch(batch, true, len, permutations - before);
+        }
+    }
+
+    /**
+     * Squeeze hashed bytes into the remaining space of a buffer, and move its position to its limit.
+     * @param out, receives the bytes, from its position to its limit
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void SHAKE_out(ByteBuffer out) {
+        CryptoEvents.KeccakBatch batch = CryptoStats.ENABLED ? CryptoStats.beginBatch() : null;
+        long before = permutations;
+        ByteBuffer to = out.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int i = to.position();
+        int end = to.limit();
+        int j = pt;
+        while (i < end) {
+            if (j >= rsiz) {
+                sha3_keccakf(st_b);
+                j = 0;
+            }
+            if ((j & 7) == 0 && j + 8 <= rsiz && end - i >= 8) {
+                to.putLong(i, (long) LANE.get(st_b, j));
+                i += 8;
+                j += 8;
+            } else {
+                to.put(i++, st_b[j++]);
+            }
+        }
+        pt = j;
+        int len = end - out.position();
+        out.position(end);
+        if (CryptoStats.ENABLED) {
+            CryptoStats.endBatch(batch, true, len, permutations - before);
+        }
+    }
+
+    /**
+     * Squeeze len bytes and xor them into data in place, as a keystream, without a keystream buffer.
+     * @param data, the bytes to encrypt or decrypt
+     * @param off, the offset of the first byte
+     * @param len, the number of bytes
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void SHAKE_xor(byte[] data, int off, int len) {
+        CryptoEvents.KeccakBatch batch = CryptoStats.ENABLED ? CryptoStats.beginBatch() : null;
+        long before = permutations;
+        int i = off;
+        int end = off + len;
+        int j = pt;
+        while (i < end) {
+            if (j >= rsiz) {
+                sha3_keccakf(st_b);
+                j = 0;
+            }
+            if ((j & 7) == 0 && j + 8 <= rsiz && end - i >= 8) {
+                LANE.set(data, i, (long) LANE.get(data, i) ^ (long) LANE.get(st_b, j));
+                i += 8;
+                j += 8;
+            } else {
+                data[i++] ^= st_b[j++];
+            }
+        }
+        pt = j;
+        if (CryptoStats.ENABLED) {
+            CryptoStats.endBatch(batch, true, len, permutations - before);
+        }
+    }
+
+    /**
+     * Squeeze bytes and xor them into the remaining bytes of a buffer in place, as a keystream,
+     * and move its position to its limit. A direct or mapped buffer is encrypted where it is.
+     * @param data, the bytes to encrypt or decrypt, from its position to its limit
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void SHAKE_xor(ByteBuffer data) {
+        if (data.hasArray()) {
+            SHAKE_xor(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+            return;
+        }
+        CryptoEvents.KeccakBatch batch = CryptoStats.ENABLED ? CryptoStats.beginBatch() : null;
+        long before = permutations;
+        ByteBuffer buf = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int i = buf.position();
+        int end = buf.limit();
+        int j = pt;
+        while (i < end) {
+            if (j >= rsiz) {
+                sha3_keccakf(st_b);
+                j = 0;
+            }
+            if ((j & 7) == 0 && j + 8 <= rsiz && end - i >= 8) {
+                buf.putLong(i, buf.getLong(i) ^ (long) LANE.get(st_b, j));
+                i += 8;
+                j += 8;
+            } else {
+                buf.put(i, (byte) (buf.get(i) ^ st_b[j++]));
+                i++;
+            }
+        }
+        pt = j;
+        int len = end - data.position();
+        data.position(end);
+        if (CryptoStats.ENABLED) {
+            CryptoStats.endBatch(batch, true, len, permutations - before);
+        }
+    }
+
+    /**
+     * Close the absorbing phase of the key and nonce, and start the duplex.
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void duplex_start() {
+        st_b[pt] ^= (byte) 0x06;
+        st_b[rsiz - 1] ^= (byte) 0x80;
+        sha3_keccakf(st_b);
+        pt = 0;
+    }
+
+    /**
+     * Duplex encryption: each plaintext byte is absorbed into the rate, and the resulting
+     * state byte is the ciphertext byte, so a block is absorbed and squeezed by the same permutation.
+     * The last byte of the rate is kept for the frame bits (0x81 between blocks).
+     * @param data, the plaintext
+     * @param out, the ciphertext (may be the same array as data)
+     * @param len, the length of the data
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void duplex_encrypt(byte[] data, byte[] out, int len) {
+        int j = pt;
+        for (int i = 0; i < len; i++) {
+            if (j >= rsiz - 1) {
+                st_b[rsiz - 1] ^= (byte) 0x81;
+                sha3_keccakf(st_b);
+                j = 0;
+            }
+            st_b[j] ^= data[i];
+            out[i] = st_b[j++];
+        }
+        pt = j;
+    }
+
+    /**
+     * Duplex decryption: the inverse of duplex_encrypt, the ciphertext byte overwrites the state byte.
+     * @param data, the ciphertext
+     * @param out, the plaintext (may be the same array as data)
+     * @param len, the length of the data
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void duplex_decrypt(byte[] data, byte[] out, int len) {
+        int j = pt;
+        for (int i = 0; i < len; i++) {
+            if (j >= rsiz - 1) {
+                st_b[rsiz - 1] ^= (byte) 0x81;
+                sha3_keccakf(st_b);
+                j = 0;
+            }
+            byte c = data[i];
+            out[i] = (byte) (st_b[j] ^ c);
+            st_b[j++] = c;
+        }
+        pt = j;
+    }
+
+    /**
+     * Close the duplex and squeeze the authentication tag.
+     * @param out, the tag
+     * @param len, the length of the tag
+     * @author Kannika Armstrong, and Sam Viet Huynh
+     */
+    public void duplex_tag(byte[] out, int len) {
+        st_b[pt] ^= (byte) 0x04;
+        st_b[rsiz - 1] ^= (byte) 0x80;
+        sha3_keccakf(st_b);
+        pt = 0;
+        SHAKE_out(out, len);
     }
 }
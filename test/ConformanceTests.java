@@ -0,0 +1,1015 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/*
+ * The conformance tests of the crypto engines
+ * The engines of the application (Sha3, KMACXOF256, EllipticCurve, and the table multiplication of the
+ * CryptoService) must give the same bits as the frozen reference copies RefSha3, RefKMACXOF256 and
+ * RefEllipticCurve, whatever they do to be fast. This runs:
+ * - known answers: SHAKE256 (FIPS 202), cSHAKE256 and KMACXOF256 (NIST SP 800-185 samples), KT128 and
+ *   TurboSHAKE128 (RFC 9861), and frozen answers of the application's own KMACXOF256;
+ * - differential tests: random inputs, lengths around the rate, random split points, engine against reference;
+ * - property tests: the group laws of E521, r*G = O, XOF prefix consistency, streaming against one-shot.
+ * The random tests are seeded; a failure prints the seed, and --seed replays the same inputs.
+ * Exits with code 1 if any check fails.
+ * Usage: ConformanceTests [--iterations <n>] [--seed <seed>]
+ * @author Kannika Armstrong, and Sam Viet Huynh
+ * @version Spring 2022
+ */
+
+public class ConformanceTests {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    // Base point G = (4, y) of the engine and of the reference
+    private static final EllipticCurve G = new EllipticCurve(BigInteger.valueOf(4));
+    private static final RefEllipticCurve REF_G = new RefEllipticCurve(BigInteger.valueOf(4));
+    private static final EllipticCurve O = new EllipticCurve();
+
+    private final Random random;
+    private final long seed;
+    private final int iterations;
+    private int passed;
+    private int failed;
+
+    private ConformanceTests(long seed, int iterations) {
+        this.random = new Random(seed);
+        this.seed = seed;
+        this.iterations = iterations;
+    }
+
+    /////////////////////////////////////////////////////////
+    ////////////////////// Known answers ////////////////////
+    /////////////////////////////////////////////////////////
+
+    // SHAKE256 of FIPS 202, on the sponge of the engine and of the reference
+    private void shake256Answers() {
+        String empty = "46B9DD2B0BA88D13233B3FEB743EEB243FCD52EA62B81B82B50C27646ED5762F"
+                + "D75DC4DDD8C0F200CB05019D67B592F6FC821C49479AB48640292EACB3B7C4BE";
+        String abc = "483366601360A8771C6863080CC4114D8DB44530F8F1E1EE4F94EA37E78B5739"
+                + "D5A15BEF186A5386C75744C0527E1FAA9F8726E462A12A4FEB06BD8801E751E4";
+        check("SHAKE256(``, 512)", shake(EMPTY, 64), empty);
+        check("SHAKE256(`abc`, 512)", shake("abc".getBytes(), 64), abc);
+        check("reference SHAKE256(``, 512)", refShake(EMPTY, 64), empty);
+        check("reference SHAKE256(`abc`, 512)", refShake("abc".getBytes(), 64), abc);
+    }
+
+    // The cSHAKE256 and KMACXOF256 samples of NIST SP 800-185, through the standard encodings of
+    // Standard over the sponge of the engine: they check the sponge, the cSHAKE padding and the squeeze
+    private void sp800185Answers() {
+        byte[] X4 = sequence(0x00, 4);
+        byte[] X200 = sequence(0x00, 200);
+        byte[] K = sequence(0x40, 32);
+        byte[] email = "Email Signature".getBytes();
+        byte[] tagged = "My Tagged Application".getBytes();
+        check("cSHAKE256 sample #3", Standard.cSHAKE256(X4, 512, EMPTY, email),
+                "D008828E2B80AC9D2218FFEE1D070C48B8E4C87BFF32C9699D5B6896EEE0EDD1"
+                        + "64020E2BE0560858D9C00C037E34A96937C561A74C412BB4C746469527281C8C");
+        check("cSHAKE256 sample #4", Standard.cSHAKE256(X200, 512, EMPTY, email),
+                "07DC27B11E51FBAC75BC7B3C1D983E8B4B85FB1DEFAF218912AC86430273091"
+                        + "727F42B17ED1DF63E8EC118F04B23633C1DFB1574C8FB55CB45DA8E25AFB092BB");
+        check("KMACXOF256 sample #4", Standard.KMACXOF256(K, X4, 512, tagged),
+                "1755133F1534752AAD0748F2C706FB5C784512CAB835CD15676B16C0C6647FA9"
+                        + "6FAA7AF634A0BF8FF6DF39374FA00FAD9A39E322A7C92065A64EB1FB0801EB2B");
+        check("KMACXOF256 sample #5", Standard.KMACXOF256(K, X200, 512, EMPTY),
+                "FF7B171F1E8A2B24683EED37830EE797538BA8DC563F6DA1E667391A75EDC02C"
+                        + "A633079F81CE12A25F45615EC89972031D18337331D24CEB8F8CA8E6A19FD98B");
+        check("KMACXOF256 sample #6", Standard.KMACXOF256(K, X200, 512, tagged),
+                "D5BE731C954ED7732846BB59DBE3A8E30F83E77A4BFF4459F2F1C2B4ECEBB8CE"
+                        + "67BA01C62E8AB8578D2D499BD1BB276768781190020A306A97DE281DCC30305D");
+
+        // the application's TupleHash and ParallelHash themselves, which use the encodings of the publication
+        byte[][] tuple = {sequence(0x00, 3), sequence(0x10, 6)};
+        byte[][] triple = {sequence(0x00, 3), sequence(0x10, 6), sequence(0x20, 9)};
+        byte[] tupleApp = "My Tuple App".getBytes();
+        check("TupleHash256 sample #4", KMACXOF256.TupleHash256(tuple, 512, EMPTY),
+                "CFB7058CACA5E668F81A12A20A2195CE97A925F1DBA3E7449A56F82201EC6073"
+                        + "11AC2696B1AB5EA2352DF1423BDE7BD4BB78C9AED1A853C78672F9EB23BBE194");
+        check("TupleHash256 sample #5", KMACXOF256.TupleHash256(tuple, 512, tupleApp),
+                "147C2191D5ED7EFD98DBD96D7AB5A11692576F5FE2A5065F3E33DE6BBA9F3AA1"
+                        + "C4E9A068A289C61C95AAB30AEE1E410B0B607DE3620E24A4E3BF9852A1D4367E");
+        check("TupleHash256 sample #6", KMACXOF256.TupleHash256(triple, 512, tupleApp),
+                "45000BE63F9B6BFD89F54717670F69A9BC763591A4F05C50D68891A744BCC6E7"
+                        + "D6D5B5E82C018DA999ED35B0BB49C9678E526ABD8E85C13ED254021DB9E790CE");
+        check("TupleHashXOF256 sample #4", KMACXOF256.TupleHashXOF256(tuple, 512, EMPTY),
+                "03DED4610ED6450A1E3F8BC44951D14FBC384AB0EFE57B000DF6B6DF5AAE7CD5"
+                        + "68E77377DAF13F37EC75CF5FC598B6841D51DD207C991CD45D210BA60AC52EB9");
+        byte[] blocks = KMACXOF256.concat(KMACXOF256.concat(sequence(0x00, 8), sequence(0x10, 8)), sequence(0x20, 8));
+        check("ParallelHash256 sample #4", KMACXOF256.ParallelHash256(blocks, 8, 512, EMPTY),
+                "BC1EF124DA34495E948EAD207DD9842235DA432D2BBC54B4C110E64C45110553"
+                        + "1B7F2A3E0CE055C02805E7C2DE1FB746AF97A1DD01F43B824E31B87612410429");
+        check("ParallelHash256 sample #5", KMACXOF256.ParallelHash256(blocks, 8, 512, "Parallel Data".getBytes()),
+                "CDF15289B54F6212B4BC270528B49526006DD9B54E2B6ADD1EF6900DDA3963BB"
+                        + "33A72491F236969CA8AFAEA29C682D47A393C065B38E29FAE651A2091C833110");
+        check("ParallelHashXOF256 sample #4", KMACXOF256.ParallelHashXOF256(blocks, 8, 512, EMPTY),
+                "C10A052722614684144D28474850B410757E3CBA87651BA167A5CBDDFF7F4666"
+                        + "75FBF84BCAE7378AC444BE681D729499AFCA667FB879348BFDDA427863C82F1C");
+    }
+
+    // TupleHash keeps the fields apart, and ParallelHash of a file is ParallelHash of its content
+    private void tupleAndParallelHash() throws IOException {
+        byte[] S = "T".getBytes();
+        check("TupleHash256 (“ab”, “c”) ≠ (“a”, “bc”)", !Arrays.equals(
+                KMACXOF256.TupleHash256(new byte[][] {"ab".getBytes(), "c".getBytes()}, 512, S),
+                KMACXOF256.TupleHash256(new byte[][] {"a".getBytes(), "bc".getBytes()}, 512, S)), "equal");
+        check("TupleHash256 (“abc”) ≠ (“abc”, “”)", !Arrays.equals(
+                KMACXOF256.TupleHash256(new byte[][] {"abc".getBytes()}, 512, S),
+                KMACXOF256.TupleHash256(new byte[][] {"abc".getBytes(), EMPTY}, 512, S)), "equal");
+        for (int i = 0; i < Math.max(1, iterations / 20); i++) {
+            byte[][] X = new byte[1 + random.nextInt(4)][];
+            for (int j = 0; j < X.length; j++) {
+                X[j] = bytes(length(300));
+            }
+            int L = 8 * (1 + random.nextInt(128));
+            byte[][] moved = X.clone();
+            if (X.length > 1 && X[0].length > 0) {
+                // the last byte of the first field moves to the front of the second
+                moved[0] = Arrays.copyOf(X[0], X[0].length - 1);
+                moved[1] = KMACXOF256.concat(new byte[] {X[0][X[0].length - 1]}, X[1]);
+                check("TupleHash256 with a byte moved between fields", !Arrays.equals(
+                        KMACXOF256.TupleHash256(X, L, S), KMACXOF256.TupleHash256(moved, L, S)), "equal");
+            }
+
+            byte[] m = bytes(length(100_000));
+            int B = 1 + random.nextInt(16_384);
+            Path file = Files.createTempFile("conformance", ".bin");
+            try {
+                Files.write(file, m);
+                boolean xof = random.nextBoolean();
+                check("ParallelHash256 of a file, |m| = " + m.length + ", B = " + B + (xof ? ", XOF" : ""),
+                        KMACXOF256.ParallelHash256_file(file.toFile(), B, L, S, xof),
+                        xof ? KMACXOF256.ParallelHashXOF256(m, B, L, S) : KMACXOF256.ParallelHash256(m, B, L, S));
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    // The application's KMACXOF256 on the same samples. Its bytepad appends a 4-byte count instead of
+    // zero padding and its left_encode is little-endian beyond one byte, so it does not give the NIST
+    // answers; these are its own answers, frozen so that every file and key made so far stays valid
+    // (sample #5, with S = "", follows the cSHAKE256 fallback of emptyCustomization).
+    private void applicationAnswers() {
+        byte[] X4 = sequence(0x00, 4);
+        byte[] X200 = sequence(0x00, 200);
+        byte[] K = sequence(0x40, 32);
+        byte[] email = "Email Signature".getBytes();
+        byte[] tagged = "My Tagged Application".getBytes();
+        check("application cSHAKE256 sample #3", KMACXOF256.cSHAKE256(X4, 512, EMPTY, email),
+                "7D4CFD635AFC8A9A3BAB6FAA8ED39E15C60736D5CF0BB78680143069A5F65506"
+                        + "A7618F42F62B8183A482624E58E2E83D9525DD5B23CECF95C8537536870C461E");
+        check("application cSHAKE256 sample #4", KMACXOF256.cSHAKE256(X200, 512, EMPTY, email),
+                "926EA5A5F0CC346D78D4AB582192028B76B22B4EDF902ED0D35034D5E798923E"
+                        + "1737F7B3FEED39E99BD43CDC0425D979A00073B3868FF4AF6FB31831E99DC9BC");
+        check("application KMACXOF256 sample #4", KMACXOF256.KMACXOF256_cal(K, X4, 512, tagged),
+                "02B5332BA9039656FF364759519C569E1B44F3D5A97E9A7C1B2CCF799D0FC0F4"
+                        + "3C0F8B39B98BA77553CA2858DE040B343CACBC4F881D957F1C2677946BE5AB06");
+        check("application KMACXOF256 sample #5", KMACXOF256.KMACXOF256_cal(K, X200, 512, EMPTY),
+                "6E36D6B5E9CF8830EEDEC09387ADFE86FFDAA04A2EF084387BE2979067037D35"
+                        + "44609FE8A6ABACE5E71E3225D09C4A9790216AC5C9481D852744736F2F1F9182");
+        check("application KMACXOF256 sample #6", KMACXOF256.KMACXOF256_cal(K, X200, 512, tagged),
+                "B9905DE5AF484CBA8ABE10550CFABF188064C2D4C3A029BA56487D535684363C"
+                        + "D47E88F942F543C614F382D7650B3A6C4B26B2F2B129426F3D546E990854DEE0");
+    }
+
+    // KT128 and TurboSHAKE128 of RFC 9861, section 5
+    private void kangarooTwelveAnswers() {
+        check("TurboSHAKE128(``, 0x1F, 256)", KangarooTwelve.TurboSHAKE128(EMPTY, (byte) 0x1F, 256),
+                "1E415F1C5983AFF2169217277D17BB538CD945A397DDEC541F1CE41AF2C1B74C");
+        check("KT128(``, ``, 256)", KangarooTwelve.KT128(EMPTY, EMPTY, 256),
+                "1AC2D450FC3B4205D19DA7BFCA1B37513C0803577AC7167F06FE2CE1F0EF39E5");
+        check("KT128(ptn(17), ``, 256)", KangarooTwelve.KT128(ptn(17), EMPTY, 256),
+                "6BF75FA2239198DB4772E36478F8E19B0F371205F6A9A93A273F51DF37122888");
+        check("KT128(ptn(17^2), ``, 256)", KangarooTwelve.KT128(ptn(17 * 17), EMPTY, 256),
+                "0C315EBCDEDBF61426DE7DCF8FB725D1E74675D7F5327A5067F367B108ECB67C");
+        check("KT128(ptn(17^3), ``, 256)", KangarooTwelve.KT128(ptn(17 * 17 * 17), EMPTY, 256),
+                "CB552E2EC77D9910701D578B457DDF772C12E322E4EE7FE417F92C758F0D59D0");
+        check("KT128(ptn(17^4), ``, 256)", KangarooTwelve.KT128(ptn(17 * 17 * 17 * 17), EMPTY, 256),
+                "8701045E22205345FF4DDA05555CBB5C3AF1A771C2B89BAEF37DB43D9998B9FE");
+    }
+
+    /////////////////////////////////////////////////////////
+    ////////////////// Differential: Keccak /////////////////
+    /////////////////////////////////////////////////////////
+
+    // Absorb and squeeze in random pieces on the engine, in one call each on the reference
+    private void sha3Differential() {
+        for (int i = 0; i < iterations; i++) {
+            byte[] m = bytes(length(3 * 136));
+            int n = length(3 * 136);
+            boolean cshake = random.nextBoolean();
+
+            RefSha3 ref = new RefSha3(32);
+            ref.SHAKE256_update(m, m.length);
+            ref.SHAKE256_xof(cshake);
+            byte[] expected = new byte[n];
+            ref.SHAKE_out(expected, n);
+
+            Sha3 sha = new Sha3(32);
+            for (int off = 0; off < m.length; ) {
+                int len = random.nextInt(m.length - off + 1);
+                sha.SHAKE256_update(m, off, len);
+                off += len;
+            }
+            sha.SHAKE256_xof(cshake);
+            check("Sha3 pieces, |m| = " + m.length + ", out = " + n, squeeze(sha, n), expected);
+        }
+    }
+
+    // A sponge copied, or exported and imported, mid-absorb goes on like the original
+    private void sha3State() {
+        for (int i = 0; i < iterations; i++) {
+            byte[] m = bytes(length(3 * 136));
+            int cut = random.nextInt(m.length + 1);
+            byte[] expected = refShake(m, 64);
+
+            Sha3 sha = new Sha3(32);
+            sha.SHAKE256_update(m, 0, cut);
+            Sha3 copy = sha.copy();
+            Sha3 imported = Sha3.importState(sha.exportState());
+            for (Sha3 s : new Sha3[] {sha, copy, imported}) {
+                s.SHAKE256_update(m, cut, m.length - cut);
+                s.SHAKE256_xof(false);
+            }
+            check("Sha3 original, cut at " + cut, squeeze(sha, 64), expected);
+            check("Sha3 copy, cut at " + cut, squeeze(copy, 64), expected);
+            check("Sha3 import, cut at " + cut, squeeze(imported, 64), expected);
+        }
+    }
+
+    // Absorbing, squeezing and xoring through buffers (direct, heap, at odd offsets) gives what the arrays give
+    private void sha3Buffers() {
+        for (int i = 0; i < iterations; i++) {
+            byte[] m = bytes(length(5 * 136));
+            int cut = random.nextInt(m.length + 1);
+            int skew = random.nextInt(8);
+            int n = length(3 * 136);
+            byte[] expected = refShake(m, n);
+            String name = ", |m| = " + m.length + ", cut at " + cut + ", offset " + skew;
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(skew + m.length);
+            direct.position(skew);
+            direct.put(m);
+            direct.position(skew);
+            direct.limit(skew + cut);
+            Sha3 sha = new Sha3(32);
+            sha.SHAKE256_update(direct);
+            check("direct buffer absorbed to its limit" + name, direct.position() == skew + cut,
+                    "position " + direct.position());
+            sha.SHAKE256_update(ByteBuffer.wrap(m, cut, m.length - cut).slice());
+            sha.SHAKE256_xof(false);
+            ByteBuffer out = ByteBuffer.allocateDirect(skew + n);
+            out.position(skew);
+            sha.SHAKE_out(out);
+            byte[] squeezed = new byte[n];
+            out.position(skew);
+            out.get(squeezed);
+            check("SHAKE256 absorbed and squeezed through direct buffers" + name, squeezed, expected);
+
+            // xor of zeros is the keystream itself, in chunks of any size
+            byte[] xored = new byte[n];
+            ByteBuffer xoredDirect = ByteBuffer.allocateDirect(skew + n);
+            Sha3 keystream = new Sha3(32);
+            Sha3 keystreamDirect = new Sha3(32);
+            for (Sha3 s : new Sha3[] {keystream, keystreamDirect}) {
+                s.SHAKE256_update(m, 0, m.length);
+                s.SHAKE256_xof(false);
+            }
+            for (int off = 0; off < n; ) {
+                int len = Math.min(n - off, random.nextInt(200));
+                keystream.SHAKE_xor(xored, off, len);
+                xoredDirect.limit(skew + off + len);
+                xoredDirect.position(skew + off);
+                keystreamDirect.SHAKE_xor(xoredDirect);
+                off += len;
+            }
+            byte[] fromDirect = new byte[n];
+            xoredDirect.position(skew);
+            xoredDirect.get(fromDirect);
+            check("SHAKE_xor on an array" + name, xored, expected);
+            check("SHAKE_xor on a direct buffer" + name, fromDirect, expected);
+        }
+    }
+
+    /////////////////////////////////////////////////////////
+    /////////////////// Differential: KMAC //////////////////
+    /////////////////////////////////////////////////////////
+
+    private void encodingDifferential() {
+        for (int i = 0; i < iterations; i++) {
+            int x = random.nextInt(1 << (1 + random.nextInt(24)));
+            check("left_encode(" + x + ")", KMACXOF256.left_encode(x), RefKMACXOF256.left_encode(x));
+            byte[] S = bytes(length(300));
+            check("encode_string, |S| = " + S.length, KMACXOF256.encode_string(S), RefKMACXOF256.encode_string(S));
+            int w = 1 + random.nextInt(200);
+            check("bytepad, |X| = " + S.length + ", w = " + w, KMACXOF256.bytepad(S, w), RefKMACXOF256.bytepad(S, w));
+        }
+    }
+
+    // KMACXOF256_cal, the streaming calls and KMACXOF256_stream against the reference KMACXOF256_cal,
+    // for every customization the application uses: never empty (see emptyCustomization)
+    private void kmacDifferential() throws IOException {
+        for (int i = 0; i < iterations; i++) {
+            byte[] K = bytes(length(300));
+            byte[] X = bytes(length(3000));
+            byte[] S = bytes(1 + random.nextInt(40));
+            int L = 8 * (1 + random.nextInt(512));
+            String name = "|K| = " + K.length + ", |X| = " + X.length + ", L = " + L + ", |S| = " + S.length;
+            byte[] expected = RefKMACXOF256.KMACXOF256_cal(K, X, L, S);
+
+            check("KMACXOF256_cal, " + name, KMACXOF256.KMACXOF256_cal(K, X, L, S), expected);
+            Sha3 sha = KMACXOF256.KMACXOF256_init(K, S);
+            for (int off = 0; off < X.length; ) {
+                int len = random.nextInt(X.length - off + 1);
+                sha.SHAKE256_update(X, off, len);
+                off += len;
+            }
+            check("KMACXOF256_init/final, " + name, KMACXOF256.KMACXOF256_final(sha, L), expected);
+            check("KMACXOF256_stream, " + name,
+                    KMACXOF256.KMACXOF256_stream(K, new ByteArrayInputStream(X), L, S), expected);
+        }
+    }
+
+    // The one intended difference: with S = "" the reference fell back to SHAKE256, because it asked for both
+    // N and S to be non-empty; since ParallelHash256 the engine only falls back when both are empty, as the
+    // standard says, so KMACXOF256 with S = "" is cSHAKE256 with N = "KMAC". Built here from the reference.
+    private void emptyCustomization() throws IOException {
+        byte[] prefix = RefKMACXOF256.bytepad(RefKMACXOF256.concat(RefKMACXOF256.encode_string("KMAC".getBytes()),
+                RefKMACXOF256.encode_string(EMPTY)), 136);
+        for (int i = 0; i < Math.max(1, iterations / 10); i++) {
+            byte[] K = bytes(length(300));
+            byte[] X = bytes(length(3000));
+            int L = 8 * (1 + random.nextInt(512));
+            String name = "|K| = " + K.length + ", |X| = " + X.length + ", L = " + L + ", S = ``";
+            byte[] m = RefKMACXOF256.concat(RefKMACXOF256.concat(prefix,
+                    RefKMACXOF256.bytepad(RefKMACXOF256.encode_string(K), 136)), RefKMACXOF256.concat(X, new byte[] {0})); // right_encode(0) is the single byte 00 here
+            RefSha3 ref = new RefSha3(32);
+            ref.SHAKE256_update(m, m.length);
+            ref.SHAKE256_xof(true);
+            byte[] expected = new byte[L / 8];
+            ref.SHAKE_out(expected, L / 8);
+
+            check("KMACXOF256_cal, " + name, KMACXOF256.KMACXOF256_cal(K, X, L, EMPTY), expected);
+            check("KMACXOF256_stream, " + name,
+                    KMACXOF256.KMACXOF256_stream(K, new ByteArrayInputStream(X), L, EMPTY), expected);
+        }
+    }
+
+    /////////////////////////////////////////////////////////
+    ////////////////// Differential: E521 ///////////////////
+    /////////////////////////////////////////////////////////
+
+    private void curveDifferential() {
+        check("G", G, REF_G);
+        check("generator()", EllipticCurve.generator(), REF_G);
+        check("p, d and r literals", EllipticCurve.p.equals(RefEllipticCurve.p) && EllipticCurve.d.equals(RefEllipticCurve.d)
+                && EllipticCurve.r.equals(RefEllipticCurve.r), "a curve constant differs from its formula");
+        EllipticCurve[] table = G.powersOfTwo(530);
+        for (int i = 0; i < Math.max(1, iterations / 10); i++) {
+            BigInteger k = scalar();
+            BigInteger l = scalar();
+            RefEllipticCurve refP = REF_G.mulByScalar(k);
+            RefEllipticCurve refQ = REF_G.mulByScalar(l);
+            EllipticCurve P = G.mulByScalar(k);
+            check("mulByScalar, k of " + k.bitLength() + " bits", P, refP);
+            check("mulByTable, k of " + k.bitLength() + " bits", EllipticCurve.mulByTable(table, k), refP);
+            check("CryptoService.mulG, k of " + k.bitLength() + " bits", CryptoService.mulG(k), refP);
+            EllipticCurve Q = new EllipticCurve(refQ.getX(), refQ.getY());
+            check("sum", P.sum(Q), refP.sum(refQ));
+            check("mulByScalar of kG", P.mulByScalar(l), refP.mulByScalar(l));
+
+            BigInteger v = new BigInteger(521, random).mod(EllipticCurve.p);
+            boolean lsb = random.nextBoolean();
+            BigInteger root = EllipticCurve.sqrt(v, EllipticCurve.p, lsb);
+            BigInteger refRoot = RefEllipticCurve.sqrt(v, RefEllipticCurve.p, lsb);
+            check("sqrt", root == null ? refRoot == null : root.equals(refRoot),
+                    "sqrt of " + v.toString(16) + " is " + root + ", reference " + refRoot);
+        }
+
+        // projective batch, normalized with one inversion (0 among the scalars: the neutral point)
+        BigInteger[] scalars = new BigInteger[1 + Math.max(1, iterations / 20)];
+        BigInteger[][] projective = new BigInteger[scalars.length][];
+        for (int i = 0; i < scalars.length; i++) {
+            scalars[i] = i == 0 ? BigInteger.ZERO : scalar();
+            projective[i] = EllipticCurve.mulByTableProjective(table, scalars[i]);
+        }
+        EllipticCurve[] normalized = EllipticCurve.normalize(projective);
+        for (int i = 0; i < scalars.length; i++) {
+            check("normalize(mulByTableProjective), k of " + scalars[i].bitLength() + " bits", normalized[i],
+                    REF_G.mulByScalar(scalars[i]));
+        }
+    }
+
+    /////////////////////////////////////////////////////////
+    //////////////////////// Properties /////////////////////
+    /////////////////////////////////////////////////////////
+
+    private void groupLaws() {
+        check("0*G = O", G.mulByScalar(BigInteger.ZERO), O);
+        check("1*G = G", G.mulByScalar(BigInteger.ONE), G);
+        check("2*G = G + G", G.mulByScalar(BigInteger.TWO), G.sum(G));
+        check("4*G = 2*(2*G)", G.mulByScalar(BigInteger.valueOf(4)), G.mulByScalar(BigInteger.TWO).mulByScalar(BigInteger.TWO));
+        check("4*G != O", !G.mulByScalar(BigInteger.valueOf(4)).equals(O), "4*G = O");
+        check("r*G = O", G.mulByScalar(EllipticCurve.r), O);
+        check("r*G = O (table)", CryptoService.mulG(EllipticCurve.r), O);
+        check("G on the curve", onCurve(G), "G is not on the curve");
+        for (int i = 0; i < Math.max(1, iterations / 10); i++) {
+            BigInteger k = scalar();
+            BigInteger l = scalar();
+            BigInteger m = scalar();
+            EllipticCurve P = CryptoService.mulG(k);
+            EllipticCurve Q = CryptoService.mulG(l);
+            EllipticCurve R = CryptoService.mulG(m);
+            String name = " (k of " + k.bitLength() + " bits)";
+            check("kG on the curve" + name, onCurve(P), "kG is not on the curve");
+            EllipticCurve off = new EllipticCurve(P.getX(), P.getY().add(BigInteger.ONE).mod(EllipticCurve.p));
+            EllipticCurve unreduced = new EllipticCurve(P.getX().add(EllipticCurve.p), P.getY());
+            check("isOnCurve agrees" + name, P.isOnCurve() && off.isOnCurve() == onCurve(off), "isOnCurve disagrees");
+            check("isOnCurve wants x in [0, p)" + name, !unreduced.isOnCurve(), "x + p accepted");
+            check("P + O = P" + name, P.sum(O), P);
+            check("P + (-P) = O" + name, P.sum(new EllipticCurve(EllipticCurve.p.subtract(P.getX()).mod(EllipticCurve.p), P.getY())), O);
+            check("P + Q = Q + P" + name, P.sum(Q), Q.sum(P));
+            check("(P + Q) + R = P + (Q + R)" + name, P.sum(Q).sum(R), P.sum(Q.sum(R)));
+            check("(k + l)G = kG + lG" + name, CryptoService.mulG(k.add(l)), P.sum(Q));
+            check("k(lG) = (kl mod r)G" + name, Q.mulByScalar(k), CryptoService.mulG(k.multiply(l).mod(EllipticCurve.r)));
+            check("(k + r)G = kG" + name, G.mulByScalar(k.add(EllipticCurve.r)), P);
+            check("r(kG) = O" + name, P.mulByScalar(EllipticCurve.r), O);
+        }
+    }
+
+    // The first bytes of an XOF do not depend on how many are asked for, nor on how they are squeezed
+    private void xofPrefix() {
+        for (int i = 0; i < iterations; i++) {
+            byte[] K = bytes(length(200));
+            byte[] X = bytes(length(1000));
+            byte[] S = bytes(random.nextInt(20));
+            int L1 = 8 * (1 + random.nextInt(300));
+            int L2 = L1 + 8 * random.nextInt(600);
+            byte[] shorter = KMACXOF256.KMACXOF256_cal(K, X, L1, S);
+            byte[] longer = KMACXOF256.KMACXOF256_cal(K, X, L2, S);
+            check("KMACXOF256 prefix, L = " + L1 + " of " + L2, Arrays.copyOf(longer, L1 / 8), shorter);
+
+            Sha3 sha = KMACXOF256.KMACXOF256_init(K, S);
+            sha.SHAKE256_update(X, X.length);
+            KMACXOF256.KMACXOF256_xof(sha);
+            byte[] pieces = new byte[L2 / 8];
+            for (int off = 0; off < pieces.length; ) {
+                int len = 1 + random.nextInt(pieces.length - off);
+                byte[] piece = new byte[len];
+                sha.SHAKE_out(piece, len);
+                System.arraycopy(piece, 0, pieces, off, len);
+                off += len;
+            }
+            check("KMACXOF256 squeezed in pieces, L = " + L2, pieces, longer);
+        }
+    }
+
+    // Chunked cryptograms: ranges decrypt to the slices of m; another chunk size, or a cut or padded chunk, fails
+    private void chunkedCryptogram() throws IOException {
+        byte[] ke = bytes(64);
+        byte[] ka = bytes(64);
+        Path file = Files.createTempFile("conformance", ".chunked");
+        try {
+            for (int i = 0; i < Math.max(1, iterations / 10); i++) {
+                int chunkSize = 1 + random.nextInt(1000);
+                byte[] m = bytes(length(5000));
+                String name = ", |m| = " + m.length + ", chunk size " + chunkSize;
+                byte[] z = bytes(64);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ChunkedCryptogram.writePrefix(out, z);
+                int body = out.size();
+                long length = ChunkedCryptogram.encrypt(ke, ka, new ByteArrayInputStream(m), out, chunkSize,
+                        "SKE".getBytes(), "SKA".getBytes());
+                check("chunked encrypt returns |m|" + name, length == m.length, "returned " + length);
+                byte[] good = out.toByteArray();
+                Files.write(file, good);
+                try (FileChannel channel = FileChannel.open(file)) {
+                    byte[][] prefix = ChunkedCryptogram.readPrefix(channel, 1);
+                    check("chunked prefix" + name, prefix != null && Arrays.equals(prefix[0], z)
+                            && channel.position() == body, "not read back");
+                }
+                check("chunked decrypt" + name, decryptChunked(file, ke, ka, 0, m.length), m);
+
+                long start = random.nextInt(m.length + 1);
+                long end = start + random.nextInt((int) (m.length - start) + 1);
+                check("chunked range [" + start + ", " + end + ")" + name, decryptChunked(file, ke, ka, start, end),
+                        Arrays.copyOfRange(m, (int) start, (int) end));
+                check("chunked range past |m|" + name, decryptChunked(file, ke, ka, start, m.length + 1L) == null,
+                        "accepted");
+
+                // the chunk size doubled, |m| claimed longer, the file cut, a byte of a chunk or tag flipped
+                byte[] bad = good.clone();
+                ByteBuffer.wrap(bad).putInt(body, 2 * chunkSize);
+                Files.write(file, bad);
+                check("chunked decrypt, chunk size doubled" + name, decryptChunked(file, ke, ka, 0, 0) == null,
+                        "accepted");
+                bad = good.clone();
+                ByteBuffer.wrap(bad).putLong(bad.length - 72, m.length + 1L);
+                Files.write(file, bad);
+                check("chunked decrypt, |m| claimed longer" + name, decryptChunked(file, ke, ka, 0, 0) == null,
+                        "accepted");
+                Files.write(file, Arrays.copyOf(good, good.length - 1));
+                check("chunked decrypt, file cut" + name, decryptChunked(file, ke, ka, 0, 0) == null, "accepted");
+                if (m.length > 0) {
+                    bad = good.clone();
+                    bad[body + 4 + random.nextInt(bad.length - body - 4 - 72)] ^= 1;
+                    Files.write(file, bad);
+                    check("chunked decrypt, a byte flipped" + name, decryptChunked(file, ke, ka, 0, m.length) == null,
+                            "accepted");
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // The plaintext of [start, end) of a chunked cryptogram file with one key line, or null if it is rejected
+    private static byte[] decryptChunked(Path file, byte[] ke, byte[] ka, long start, long end) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            if (ChunkedCryptogram.readPrefix(channel, 1) == null) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            return ChunkedCryptogram.decryptRange(ke, ka, channel, channel.position(), start, end,
+                    "SKE".getBytes(), "SKA".getBytes(), out) ? out.toByteArray() : null;
+        }
+    }
+
+    // The Merkle tree: the default hash ignores the sidecar, the incremental one agrees with it on real edits
+    private void merkleHash() throws IOException {
+        for (int i = 0; i < Math.max(1, iterations / 20); i++) {
+            int B = 1 + random.nextInt(4096);
+            byte[] m = bytes(1 + length(20 * B));
+            Path file = Files.createTempFile("conformance", ".bin");
+            Path sidecar = Paths.get(file + ".merkle");
+            try {
+                Files.write(file, m);
+                byte[] h = new MerkleHash(file, B).hash(false);
+                String name = ", |m| = " + m.length + ", B = " + B;
+                check("Merkle incremental, unchanged" + name, new MerkleHash(file, B).hash(true), h);
+
+                // an edit that keeps the size and the mtime: only the default mode sees it
+                FileTime mtime = Files.getLastModifiedTime(file);
+                m[random.nextInt(m.length)] ^= 1;
+                Files.write(file, m);
+                Files.setLastModifiedTime(file, mtime);
+                byte[] edited = new MerkleHash(file, B).hash(false);
+                Files.delete(sidecar);
+                check("Merkle ignores the sidecar by default" + name, edited, new MerkleHash(file, B).hash(false));
+                check("Merkle sees a same-size, same-mtime edit" + name, !Arrays.equals(edited, h), "unchanged");
+
+                // an edit that changes the size: the incremental hash re-hashes what it must
+                byte[] longer = KMACXOF256.concat(m, bytes(1 + random.nextInt(B)));
+                Files.write(file, longer);
+                byte[] incremental = new MerkleHash(file, B).hash(true);
+                Files.delete(sidecar);
+                check("Merkle incremental after an append" + name, incremental, new MerkleHash(file, B).hash(false));
+
+                // a corrupt count in the sidecar reads as no sidecar: the incremental hash hashes every block
+                byte[] good = Files.readAllBytes(sidecar);
+                byte[] bad = good.clone();
+                int blocks = (longer.length + B - 1) / B;
+                int[] counts = {28, 32, 36 + 4 * blocks};
+                int at = counts[random.nextInt(counts.length)];
+                ByteBuffer.wrap(bad).putInt(at, random.nextInt(3) == 0 ? -1 - random.nextInt(8) : random.nextInt());
+                if (random.nextBoolean()) {
+                    bad = Arrays.copyOf(bad, random.nextInt(bad.length));
+                }
+                Files.write(sidecar, bad);
+                MerkleHash corrupt = new MerkleHash(file, B);
+                check("Merkle incremental, corrupt sidecar" + name + ", int at " + at + ", " + bad.length + " of "
+                        + good.length + " bytes", corrupt.hash(true), incremental);
+                check("Merkle corrupt sidecar re-hashes" + name, corrupt.rehashedCount() == blocks,
+                        corrupt.rehashedCount() + " of " + blocks);
+            } finally {
+                Files.deleteIfExists(sidecar);
+                Files.delete(file);
+            }
+        }
+    }
+
+    // A corrupt or truncated hash index table answers misses, never throws
+    private void hashIndex() throws IOException {
+        Path dir = Files.createTempDirectory("conformance");
+        Path name = dir.resolve("index");
+        Path table = Paths.get(name + ".table");
+        try {
+            Path[] files = new Path[32];
+            byte[][] digests = new byte[files.length][];
+            try (HashIndex index = new HashIndex(name)) {
+                for (int i = 0; i < files.length; i++) {
+                    files[i] = Files.write(dir.resolve("f" + i), bytes(i));
+                    digests[i] = bytes(64);
+                    index.record(files[i].toString(), HashIndex.attributes(files[i]), digests[i]);
+                }
+                index.compact();
+            }
+            byte[] good = Files.readAllBytes(table);
+            for (int i = 0; i < Math.max(1, iterations / 5); i++) {
+                byte[] bad = good.clone();
+                String how;
+                switch (random.nextInt(3)) {
+                    case 0:
+                        bad = Arrays.copyOf(good, random.nextInt(good.length));
+                        how = "truncated to " + bad.length;
+                        break;
+                    case 1:
+                        // a slot offset, or a record length, pointing anywhere
+                        int at = 16 + 4 * random.nextInt((bad.length - 16) / 4);
+                        ByteBuffer.wrap(bad).putInt(at, random.nextInt());
+                        how = "int at " + at;
+                        break;
+                    default:
+                        ByteBuffer.wrap(bad).putInt(8, random.nextInt());
+                        how = "capacity";
+                        break;
+                }
+                Files.write(table, bad);
+                int wrong = 0;
+                try (HashIndex index = new HashIndex(name)) {
+                    for (int j = 0; j < files.length; j++) {
+                        byte[] h = index.lookup(files[j].toString(), HashIndex.attributes(files[j]));
+                        wrong += (h == null || Arrays.equals(h, digests[j])) ? 0 : 1;
+                    }
+                } catch (RuntimeException e) {
+                    wrong = -1;
+                }
+                check("hash index table corrupted (" + how + ")", wrong == 0,
+                        wrong < 0 ? "lookup threw" : wrong + " wrong digests");
+            }
+        } finally {
+            try (Stream<Path> list = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) list::iterator) {
+                    Files.delete(p);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    // Bulk encryption streams each file into a (Z, c, t) cryptogram file the service decrypts, compressed or not
+    private void bulkEncrypt() throws IOException {
+        CryptoService service = CryptoService.sequential();
+        byte[] pw = bytes(16);
+        EllipticCurve V = service.publicKey(pw);
+        Path root = Files.createTempDirectory("conformance");
+        Path out = Files.createTempDirectory("conformance");
+        Path manifest = Files.createTempFile("conformance", ".manifest");
+        try {
+            byte[][] m = new byte[Math.max(2, iterations / 20)][];
+            for (int i = 0; i < m.length; i++) {
+                // random bytes are stored, text is deflated
+                m[i] = i % 2 == 0 ? bytes(length(200_000)) : new String(sequence(' ', 95)).repeat(length(3000)).getBytes();
+                Files.write(root.resolve("f" + i), m[i]);
+            }
+            for (boolean compress : new boolean[] {false, true}) {
+                BulkProcessor bulk = new BulkProcessor("encrypt", null, V, out, 16);
+                bulk.setCompress(compress);
+                check("bulk encrypt" + (compress ? " --compress" : ""), bulk.run(root, manifest) == 0, "failed");
+                for (int i = 0; i < m.length; i++) {
+                    List<String> lines = Files.readAllLines(out.resolve("f" + i + ".cryptogram"));
+                    int first = compress ? 1 : 0;
+                    byte[][] cryptogram = new byte[4][];
+                    for (int j = 0; j < 4; j++) {
+                        cryptogram[j] = CryptoService.fromHex(lines.get(first + j));
+                    }
+                    byte[] p = service.decrypt(pw, cryptogram);
+                    check("bulk encrypt" + (compress ? " --compress" : "") + ", |m| = " + m[i].length,
+                            compress ? CompressedCryptogram.decompress(p) : p, m[i]);
+                }
+            }
+        } finally {
+            for (Path dir : new Path[] {root, out}) {
+                try (Stream<Path> list = Files.list(dir)) {
+                    for (Path p : (Iterable<Path>) list::iterator) {
+                        Files.delete(p);
+                    }
+                }
+                Files.delete(dir);
+            }
+            Files.delete(manifest);
+        }
+    }
+
+    // The services over a stream, and in parallel, give what they give over an array, sequentially
+    private void services() throws IOException {
+        CryptoService parallel = new CryptoService();
+        CryptoService sequential = CryptoService.sequential();
+        sequential.setIdentityCache(null);
+        CryptoService cached = CryptoService.sequential();
+        IdentityCache cache = new IdentityCache(4, 60_000);
+        cached.setIdentityCache(cache);
+        for (int i = 0; i < Math.max(1, iterations / 20); i++) {
+            byte[] pw = bytes(1 + random.nextInt(32));
+            byte[] m = bytes(random.nextInt(4) == 0 ? (1 << 16) + random.nextInt(1 << 18) : length(3000));
+            String name = ", |m| = " + m.length;
+            check("hash stream" + name, sequential.hash(new ByteArrayInputStream(m)), sequential.hash(m));
+            check("mac stream" + name, sequential.mac(pw, new ByteArrayInputStream(m)), sequential.mac(pw, m));
+            check("mac parallel" + name, parallel.mac(pw, m), sequential.mac(pw, m));
+            Path file = Files.createTempFile("conformance", ".bin");
+            try {
+                // read into the direct buffer, or mapped once past 1 MiB
+                byte[] content = random.nextInt(4) == 0 ? bytes((1 << 20) + random.nextInt(1 << 12)) : m;
+                Files.write(file, content);
+                check("hash file, |m| = " + content.length, sequential.hash(file), sequential.hash(content));
+                check("mac file, |m| = " + content.length, sequential.mac(pw, file), sequential.mac(pw, content));
+            } finally {
+                Files.delete(file);
+            }
+            check("encryptSymmetric parallel" + name,
+                    sequential.decryptSymmetric(pw, parallel.encryptSymmetric(pw, m)), m);
+            check("encryptSymmetric sequential" + name,
+                    parallel.decryptSymmetric(pw, sequential.encryptSymmetric(pw, m)), m);
+
+            EllipticCurve V = sequential.publicKey(pw);
+            check("publicKey parallel" + name, parallel.publicKey(pw), V);
+            check("publicKey = s*G on the reference" + name, V, REF_G.mulByScalar(CryptoService.privateKey(pw)));
+            check("encrypt parallel" + name, sequential.decrypt(pw, parallel.encrypt(V, m)), m);
+            check("encrypt sequential" + name, parallel.decrypt(pw, sequential.encrypt(V, m)), m);
+
+            byte[][] signature = sequential.sign(pw, m);
+            byte[][] parallelSignature = parallel.sign(pw, m);
+            check("sign parallel (h)" + name, parallelSignature[0], signature[0]);
+            check("sign parallel (z)" + name, parallelSignature[1], signature[1]);
+            check("verify parallel" + name, parallel.verify(V, signature, m), "signature rejected");
+            check("verify sequential" + name, sequential.verify(V, signature, m), "signature rejected");
+
+            // streaming encryption, and through the compression stage (random m is stored, text is deflated)
+            ByteArrayOutputStream c = new ByteArrayOutputStream();
+            byte[][] zt = parallel.encryptSymmetric(pw, new ByteArrayInputStream(m), c);
+            check("encryptSymmetric stream" + name, sequential.decryptSymmetric(pw, new byte[][] {zt[0], c.toByteArray(), zt[1]}), m);
+            byte[] text = new String(m, java.nio.charset.StandardCharsets.ISO_8859_1).replaceAll("[^a-e]", " ")
+                    .getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+            for (byte[] plain : new byte[][] {m, text}) {
+                byte[] p = CompressedCryptogram.compress(plain);
+                check("compress round trip" + name, CompressedCryptogram.decompress(p), plain);
+                if (plain.length >= 1024) {
+                    check("compress bypass" + name, (p[0] == CompressedCryptogram.STORED) == (plain == m), "flag " + p[0]);
+                }
+                c.reset();
+                byte[][] Zt = parallel.encrypt(V, CompressedCryptogram.compressing(new ByteArrayInputStream(plain)), c);
+                check("encrypt compressed stream" + name, CompressedCryptogram.decompress(
+                        sequential.decrypt(pw, new byte[][] {Zt[0], Zt[1], c.toByteArray(), Zt[2]})), plain);
+            }
+
+            // twice: derived on the miss, then taken from the cache
+            for (int j = 0; j < 2; j++) {
+                check("publicKey cached" + name, cached.publicKey(pw), V);
+                byte[][] cachedSignature = cached.sign(pw, m);
+                check("sign cached (h)" + name, cachedSignature[0], signature[0]);
+                check("sign cached (z)" + name, cachedSignature[1], signature[1]);
+                check("decrypt cached" + name, cached.decrypt(pw, sequential.encrypt(V, m)), m);
+            }
+        }
+        cache.close();
+    }
+
+    /////////////////////////////////////////////////////////
+    /////////////////////// Checks //////////////////////////
+    /////////////////////////////////////////////////////////
+
+    private void check(String name, boolean ok, String detail) {
+        if (ok) {
+            passed++;
+        } else {
+            failed++;
+            System.out.println("FAIL " + name + ": " + detail + " (seed " + seed + ")");
+        }
+    }
+
+    private void check(String name, byte[] result, byte[] expected) {
+        check(name, Arrays.equals(result, expected),
+                CryptoService.toHex(result) + " instead of " + CryptoService.toHex(expected));
+    }
+
+    private void check(String name, byte[] result, String expected) {
+        check(name, result, CryptoService.fromHex(expected));
+    }
+
+    private void check(String name, EllipticCurve result, EllipticCurve expected) {
+        check(name, result.equals(expected), point(result.getX(), result.getY())
+                + " instead of " + point(expected.getX(), expected.getY()));
+    }
+
+    private void check(String name, EllipticCurve result, RefEllipticCurve expected) {
+        check(name, result.getX().equals(expected.getX()) && result.getY().equals(expected.getY()),
+                point(result.getX(), result.getY()) + " instead of " + point(expected.getX(), expected.getY()));
+    }
+
+    private void check(String name, RefEllipticCurve result, RefEllipticCurve expected) {
+        check(name, result.equals(expected), point(result.getX(), result.getY())
+                + " instead of " + point(expected.getX(), expected.getY()));
+    }
+
+    private static String point(BigInteger x, BigInteger y) {
+        return "(" + x.toString(16) + ", " + y.toString(16) + ")";
+    }
+
+    // x^2 + y^2 = 1 + d*x^2*y^2 (mod p)
+    private static boolean onCurve(EllipticCurve P) {
+        BigInteger p = EllipticCurve.p;
+        BigInteger x2 = P.getX().pow(2);
+        BigInteger y2 = P.getY().pow(2);
+        return x2.add(y2).mod(p).equals(BigInteger.ONE.add(EllipticCurve.d.multiply(x2).multiply(y2)).mod(p));
+    }
+
+    /////////////////////////////////////////////////////////
+    //////////////////////// Inputs /////////////////////////
+    /////////////////////////////////////////////////////////
+
+    // A length up to max, often next to a multiple of the rate (136 bytes), where the sponge changes block
+    private int length(int max) {
+        if (random.nextBoolean()) {
+            return random.nextInt(max + 1);
+        }
+        int edge = 136 * random.nextInt(max / 136 + 1) + random.nextInt(3) - 1;
+        return Math.max(0, Math.min(max, edge));
+    }
+
+    private byte[] bytes(int n) {
+        byte[] b = new byte[n];
+        random.nextBytes(b);
+        return b;
+    }
+
+    // A scalar: small, about the size of the private keys (4 times 512 bits), or beyond r
+    private BigInteger scalar() {
+        switch (random.nextInt(4)) {
+            case 0:
+                return BigInteger.valueOf(random.nextInt(1000));
+            case 1:
+                return new BigInteger(512, random).multiply(BigInteger.valueOf(4));
+            case 2:
+                return new BigInteger(519, random).add(EllipticCurve.r);
+            default:
+                return new BigInteger(1 + random.nextInt(521), random);
+        }
+    }
+
+    // start, start + 1, ... (mod 256), of length n, as in the NIST samples
+    private static byte[] sequence(int start, int n) {
+        byte[] b = new byte[n];
+        for (int i = 0; i < n; i++) {
+            b[i] = (byte) (start + i);
+        }
+        return b;
+    }
+
+    // The pattern 00 01 .. FA 00 01 .. of the RFC 9861 samples
+    private static byte[] ptn(int n) {
+        byte[] b = new byte[n];
+        for (int i = 0; i < n; i++) {
+            b[i] = (byte) (i % 251);
+        }
+        return b;
+    }
+
+    private static byte[] shake(byte[] m, int n) {
+        Sha3 sha = new Sha3(32);
+        sha.SHAKE256_update(m, m.length);
+        sha.SHAKE256_xof(false);
+        return squeeze(sha, n);
+    }
+
+    private static byte[] refShake(byte[] m, int n) {
+        RefSha3 sha = new RefSha3(32);
+        sha.SHAKE256_update(m, m.length);
+        sha.SHAKE256_xof(false);
+        byte[] out = new byte[n];
+        sha.SHAKE_out(out, n);
+        return out;
+    }
+
+    private static byte[] squeeze(Sha3 sha, int n) {
+        byte[] out = new byte[n];
+        sha.SHAKE_out(out, n);
+        return out;
+    }
+
+    /**
+     * cSHAKE256 and KMACXOF256 with the encodings exactly as NIST SP 800-185 defines them (big-endian
+     * left_encode and right_encode, bytepad with zeros), over the sponge of the engine.
+     * Only for the known answers; the application keeps its own encodings, see applicationAnswers.
+     */
+    private static final class Standard {
+
+        static byte[] left_encode(long x) {
+            int n = 1;
+            while (n < 8 && (x >>> (8 * n)) != 0) {
+                n++;
+            }
+            byte[] b = new byte[n + 1];
+            b[0] = (byte) n;
+            for (int i = 1; i <= n; i++) {
+                b[i] = (byte) (x >>> (8 * (n - i)));
+            }
+            return b;
+        }
+
+        static byte[] right_encode(long x) {
+            byte[] left = left_encode(x);
+            byte[] b = Arrays.copyOfRange(left, 1, left.length + 1);
+            b[b.length - 1] = left[0];
+            return b;
+        }
+
+        static byte[] encode_string(byte[] S) {
+            return KMACXOF256.concat(left_encode(8L * S.length), S);
+        }
+
+        static byte[] bytepad(byte[] X, int w) {
+            byte[] z = KMACXOF256.concat(left_encode(w), X);
+            return Arrays.copyOf(z, (z.length + w - 1) / w * w);
+        }
+
+        static byte[] cSHAKE256(byte[] X, int L, byte[] N, byte[] S) {
+            ByteArrayOutputStream in = new ByteArrayOutputStream();
+            in.writeBytes(bytepad(KMACXOF256.concat(encode_string(N), encode_string(S)), 136));
+            in.writeBytes(X);
+            byte[] m = in.toByteArray();
+            Sha3 sha = new Sha3(32);
+            sha.SHAKE256_update(m, m.length);
+            sha.SHAKE256_xof(true);
+            return squeeze(sha, L / 8);
+        }
+
+        static byte[] KMACXOF256(byte[] K, byte[] X, int L, byte[] S) {
+            ByteArrayOutputStream in = new ByteArrayOutputStream();
+            in.writeBytes(bytepad(encode_string(K), 136));
+            in.writeBytes(X);
+            in.writeBytes(right_encode(0));
+            return cSHAKE256(in.toByteArray(), L, "KMAC".getBytes(), S);
+        }
+    }
+
+    /////////////////////////////////////////////////////////
+    ///////////////////////// Run ///////////////////////////
+    /////////////////////////////////////////////////////////
+
+    // Run one group of checks and print its tally
+    private interface Group {
+        void run() throws IOException;
+    }
+
+    private void run(String name, Group group) throws IOException {
+        int p = passed;
+        int f = failed;
+        long start = System.nanoTime();
+        group.run();
+        System.out.printf("%-28s %6d passed %4d failed %8.1f s%n", name, passed - p, failed - f,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int iterations = 200;
+        long seed = System.nanoTime();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    System.err.println("Usage: ConformanceTests [--iterations <n>] [--seed <seed>]");
+                    System.exit(2);
+            }
+        }
+        System.out.println("Seed " + seed + ", " + iterations + " iterations");
+        ConformanceTests t = new ConformanceTests(seed, iterations);
+        t.run("SHAKE256 (FIPS 202)", t::shake256Answers);
+        t.run("SP 800-185 samples", t::sp800185Answers);
+        t.run("application KMACXOF256", t::applicationAnswers);
+        t.run("KT128 (RFC 9861)", t::kangarooTwelveAnswers);
+        t.run("Sha3 differential", t::sha3Differential);
+        t.run("Sha3 copy/export/import", t::sha3State);
+        t.run("Sha3 buffers", t::sha3Buffers);
+        t.run("encodings differential", t::encodingDifferential);
+        t.run("KMACXOF256 differential", t::kmacDifferential);
+        t.run("KMACXOF256 with S = ``", t::emptyCustomization);
+        t.run("TupleHash and ParallelHash", t::tupleAndParallelHash);
+        t.run("E521 differential", t::curveDifferential);
+        t.run("E521 group laws", t::groupLaws);
+        t.run("XOF prefix consistency", t::xofPrefix);
+        t.run("chunked cryptogram", t::chunkedCryptogram);
+        t.run("Merkle tree", t::merkleHash);
+        t.run("hash index", t::hashIndex);
+        t.run("bulk encrypt", t::bulkEncrypt);
+        t.run("services", t::services);
+        System.out.println(t.passed + " passed, " + t.failed + " failed");
+        System.exit(t.failed == 0 ? 0 : 1);
+    }
+}